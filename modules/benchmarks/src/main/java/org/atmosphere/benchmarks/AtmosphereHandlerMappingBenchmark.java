@@ -0,0 +1,155 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.benchmarks;
+
+import org.atmosphere.container.BlockingIOCometSupport;
+import org.atmosphere.cpr.AtmosphereHandler;
+import org.atmosphere.cpr.AtmosphereServlet;
+import org.atmosphere.cpr.AtmosphereServlet.AtmosphereConfig;
+import org.atmosphere.cpr.AtmosphereServlet.AtmosphereHandlerWrapper;
+import org.atmosphere.cpr.DefaultBroadcaster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of mapping a request to its {@link AtmosphereHandler} with {@code AsynchronousProcessor.map()}, for a
+ * request matching a mapping exactly and for one only matched by a wildcard mapping, with 1 and 100 registered
+ * {@link AtmosphereHandler}.
+ * <p/>
+ * Run with: java -jar target/benchmarks.jar AtmosphereHandlerMappingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AtmosphereHandlerMappingBenchmark {
+
+    @Param({"1", "100"})
+    public int handlers;
+
+    private BenchmarkServlet servlet;
+    private MappingCometSupport cometSupport;
+    private HttpServletRequest exact;
+    private HttpServletRequest wildcard;
+
+    @Setup
+    public void setUp() throws Exception {
+        servlet = new BenchmarkServlet();
+        servlet.configureBroadcaster();
+
+        AtmosphereHandler handler = Mocks.mock(AtmosphereHandler.class, new HashMap<String, Object>());
+        for (int i = 0; i < handlers; i++) {
+            String mapping = "/chat" + i;
+            servlet.addAtmosphereHandler(mapping, handler,
+                    servlet.getBroadcasterFactory().get(DefaultBroadcaster.class, mapping));
+            servlet.addAtmosphereHandler(mapping + "/room/*", handler,
+                    servlet.getBroadcasterFactory().get(DefaultBroadcaster.class, mapping + "/room/*"));
+        }
+        cometSupport = new MappingCometSupport(servlet.getAtmosphereConfig());
+
+        String last = "/chat" + (handlers - 1);
+        exact = request(last, null);
+        wildcard = request(last + "/room", "/42");
+    }
+
+    @TearDown
+    public void tearDown() {
+        servlet.destroy();
+    }
+
+    @Benchmark
+    public AtmosphereHandlerWrapper exact() throws ServletException {
+        return cometSupport.map(exact);
+    }
+
+    @Benchmark
+    public AtmosphereHandlerWrapper wildcard() throws ServletException {
+        return cometSupport.map(wildcard);
+    }
+
+    private static HttpServletRequest request(String servletPath, String pathInfo) {
+        Map<String, Object> answers = new HashMap<String, Object>();
+        answers.put("getServletPath", servletPath);
+        answers.put("getPathInfo", pathInfo);
+        return Mocks.mock(HttpServletRequest.class, answers);
+    }
+
+    static final class BenchmarkServlet extends AtmosphereServlet {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void configureBroadcaster() throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+            super.configureBroadcaster();
+        }
+    }
+
+    static final class MappingCometSupport extends BlockingIOCometSupport {
+
+        MappingCometSupport(AtmosphereConfig config) {
+            super(config);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected AtmosphereHandlerWrapper map(HttpServletRequest req) throws ServletException {
+            return super.map(req);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.benchmarks;
+
+import org.atmosphere.cpr.BroadcasterConfig;
+import org.atmosphere.cpr.DefaultBroadcaster;
+import org.atmosphere.cpr.DefaultBroadcasterFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation per {@link DefaultBroadcaster#broadcast(Object)} with the {@link java.util.concurrent.BlockingQueue} and
+ * with the {@link org.atmosphere.cpr.RingBuffer}. The allocation is reported by the JMH GC profiler:
+ * <p/>
+ * java -jar target/benchmarks.jar BroadcastAllocationBenchmark -prof gc
+ * <p/>
+ * and is read from the gc.alloc.rate.norm column (bytes per operation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastAllocationBenchmark {
+
+    private static final String MESSAGE = "message";
+
+    @Param({"false", "true"})
+    public boolean ringBuffer;
+
+    private DefaultBroadcaster broadcaster;
+
+    @Setup
+    public void setUp() throws Exception {
+        DefaultBroadcasterFactory.buildAndReplaceDefaultfactory(DefaultBroadcaster.class, null);
+        broadcaster = new DefaultBroadcaster("BroadcastAllocationBenchmark-" + ringBuffer);
+        broadcaster.setBroadcasterConfig(new BroadcasterConfig(new String[0], null)
+                .setMessageQueueCapacity(1024)
+                .setRingBuffer(ringBuffer));
+    }
+
+    @TearDown
+    public void tearDown() {
+        broadcaster.destroy();
+    }
+
+    @Benchmark
+    public Object broadcast() {
+        return broadcaster.broadcast(MESSAGE);
+    }
+
+    @Benchmark
+    public boolean broadcastAndForget() {
+        return broadcaster.broadcastAndForget(MESSAGE);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.benchmarks;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResourceEvent;
+import org.atmosphere.cpr.BroadcasterConfig;
+import org.atmosphere.cpr.DefaultBroadcaster;
+import org.atmosphere.cpr.DefaultBroadcasterFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a {@link DefaultBroadcaster#broadcast(Object)} until the message has been written to every subscriber:
+ * broadcast, push, executeAsyncWrite and the asynchronous write, with 1 to 50k mock {@link AtmosphereResource}.
+ * The {@link org.atmosphere.cpr.AtmosphereHandler} is replaced by a counter, so no I/O is measured. 50k is above
+ * the default fan-out threshold, so the message is delivered by parallel chunks.
+ * <p/>
+ * Run with: java -jar target/benchmarks.jar BroadcastFanOutBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastFanOutBenchmark {
+
+    private static final String MESSAGE = "message";
+
+    @Param({"1", "100", "10000", "50000"})
+    public int fanOut;
+
+    private CountingBroadcaster broadcaster;
+
+    @Setup
+    public void setUp() throws Exception {
+        DefaultBroadcasterFactory.buildAndReplaceDefaultfactory(DefaultBroadcaster.class, null);
+        broadcaster = new CountingBroadcaster("BroadcastFanOutBenchmark-" + fanOut);
+        broadcaster.setBroadcasterConfig(new BroadcasterConfig(new String[0], null));
+        for (int i = 0; i < fanOut; i++) {
+            broadcaster.addAtmosphereResource(Mocks.resource());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        broadcaster.destroy();
+    }
+
+    @Benchmark
+    public long broadcast() throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(fanOut);
+        broadcaster.written = written;
+        broadcaster.broadcast(MESSAGE);
+        written.await();
+        return written.getCount();
+    }
+
+    /**
+     * Count the writes instead of invoking the {@link org.atmosphere.cpr.AtmosphereHandler}.
+     */
+    static final class CountingBroadcaster extends DefaultBroadcaster {
+
+        volatile CountDownLatch written;
+
+        CountingBroadcaster(String name) {
+            super(name);
+        }
+
+        @Override
+        protected void broadcast(AtmosphereResource<?, ?> r, AtmosphereResourceEvent e) {
+            written.countDown();
+        }
+    }
+}
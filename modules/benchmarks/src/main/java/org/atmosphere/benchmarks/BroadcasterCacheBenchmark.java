@@ -0,0 +1,148 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.benchmarks;
+
+import org.atmosphere.cache.HeaderBroadcasterCache;
+import org.atmosphere.cache.RingBufferBroadcasterCache;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResourceImpl;
+import org.atmosphere.cpr.BroadcasterCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BroadcasterCache} add and retrieve throughput with 4 Threads, comparing the {@link HeaderBroadcasterCache}
+ * (a {@link org.atmosphere.cache.BroadcasterCacheBase}) with the {@link RingBufferBroadcasterCache}. The caches hold
+ * a sliding window of {@code cached} messages, and the retrieve benchmark replays the whole window to a new client.
+ * <p/>
+ * Run with: java -jar target/benchmarks.jar BroadcasterCacheBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class BroadcasterCacheBenchmark {
+
+    private static final String MESSAGE = "message";
+
+    @Param({"header", "ring"})
+    public String cache;
+
+    @Param({"100", "1000"})
+    public int cached;
+
+    private BroadcasterCache<HttpServletRequest, HttpServletResponse> broadcasterCache;
+    private SlidingHeaderBroadcasterCache headerCache;
+    private AtmosphereResource<HttpServletRequest, HttpServletResponse> newClient;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        if (cache.equals("header")) {
+            headerCache = new SlidingHeaderBroadcasterCache();
+            broadcasterCache = headerCache;
+        } else {
+            headerCache = null;
+            broadcasterCache = new RingBufferBroadcasterCache(cached);
+        }
+        broadcasterCache.start();
+        for (int i = 0; i < cached; i++) {
+            broadcasterCache.addToCache(null, MESSAGE + i);
+        }
+        newClient = newClient();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        broadcasterCache.stop();
+    }
+
+    @Benchmark
+    public void add() {
+        broadcasterCache.addToCache(null, MESSAGE);
+        if (headerCache != null) {
+            // What the reaper does, so the window doesn't grow for the duration of the iteration.
+            headerCache.trim(cached);
+        }
+    }
+
+    @Benchmark
+    public List<Object> retrieve() {
+        return broadcasterCache.retrieveFromCache(newClient);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtmosphereResource<HttpServletRequest, HttpServletResponse> newClient() {
+        Map<String, Object> request = new HashMap<String, Object>();
+        request.put("getAttribute", AtmosphereResourceImpl.PRE_SUSPEND);
+        Map<String, Object> resource = new HashMap<String, Object>();
+        resource.put("getRequest", Mocks.mock(HttpServletRequest.class, request));
+        resource.put("getResponse", Mocks.mock(HttpServletResponse.class, new HashMap<String, Object>()));
+        return Mocks.mock(AtmosphereResource.class, resource);
+    }
+
+    static final class SlidingHeaderBroadcasterCache extends HeaderBroadcasterCache {
+
+        void trim(int max) {
+            while (queue.size() > max) {
+                queue.remove(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.benchmarks;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.ConcurrentResourceSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Join/leave throughput of the {@link org.atmosphere.cpr.DefaultBroadcaster} subscribers collection with 1k, 10k and
+ * 100k members. The {@link ConcurrentLinkedQueue} benchmarks reproduce the former contains/add/remove pattern.
+ * <p/>
+ * Run with: java -jar target/benchmarks.jar ResourceRegistryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceRegistryBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int members;
+
+    private ConcurrentResourceSet set;
+    private ConcurrentLinkedQueue<AtmosphereResource<?, ?>> queue;
+    private AtmosphereResource<?, ?>[] resources;
+    private AtmosphereResource<?, ?> joiner;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        set = new ConcurrentResourceSet();
+        queue = new ConcurrentLinkedQueue<AtmosphereResource<?, ?>>();
+        resources = new AtmosphereResource<?, ?>[members];
+        for (int i = 0; i < members; i++) {
+            resources[i] = newResource();
+            set.add(resources[i]);
+            queue.add(resources[i]);
+        }
+        joiner = newResource();
+    }
+
+    @Benchmark
+    public int joinLeave() {
+        if (!set.contains(joiner)) {
+            set.add(joiner);
+        }
+        set.remove(joiner);
+        return set.size();
+    }
+
+    @Benchmark
+    public int leaveJoin() {
+        AtmosphereResource<?, ?> r = next();
+        set.remove(r);
+        set.add(r);
+        return set.size();
+    }
+
+    @Benchmark
+    public int joinLeaveQueue() {
+        if (!queue.contains(joiner)) {
+            queue.add(joiner);
+        }
+        if (queue.contains(joiner)) {
+            queue.remove(joiner);
+        }
+        return queue.size();
+    }
+
+    @Benchmark
+    public int leaveJoinQueue() {
+        AtmosphereResource<?, ?> r = next();
+        if (queue.contains(r)) {
+            queue.remove(r);
+        }
+        queue.add(r);
+        return queue.size();
+    }
+
+    private AtmosphereResource<?, ?> next() {
+        AtmosphereResource<?, ?> r = resources[cursor];
+        cursor = (cursor + 7919) % members;
+        return r;
+    }
+
+    static AtmosphereResource<?, ?> newResource() {
+        return (AtmosphereResource<?, ?>) Proxy.newProxyInstance(ResourceRegistryBenchmark.class.getClassLoader(),
+                new Class<?>[]{AtmosphereResource.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.benchmarks;
+
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction;
+import org.atmosphere.util.XSSHtmlFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of escaping a message with the {@link XSSHtmlFilter}, for plain text and for markup where every few
+ * characters must be escaped.
+ * <p/>
+ * Run with: java -jar target/benchmarks.jar XSSHtmlFilterBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XSSHtmlFilterBenchmark {
+
+    private static final String PLAIN = "The quick brown fox jumps over the lazy dog. ";
+
+    private static final String MARKUP = "<b class=\"x\">fox & 'dog'</b>\n";
+
+    @Param({"64", "4096"})
+    public int length;
+
+    private final XSSHtmlFilter filter = new XSSHtmlFilter();
+    private String plain;
+    private String markup;
+
+    @Setup
+    public void setUp() {
+        plain = repeat(PLAIN, length);
+        markup = repeat(MARKUP, length);
+    }
+
+    @Benchmark
+    public BroadcastAction plain() {
+        return filter.filter(plain, plain);
+    }
+
+    @Benchmark
+    public BroadcastAction markup() {
+        return filter.filter(markup, markup);
+    }
+
+    private static String repeat(String s, int length) {
+        StringBuilder b = new StringBuilder(length + s.length());
+        while (b.length() < length) {
+            b.append(s);
+        }
+        return b.substring(0, length);
+    }
+}
@@ -39,6 +39,8 @@ package org.atmosphere.cache;
 import org.atmosphere.cpr.AtmosphereResource;
 import org.atmosphere.cpr.AtmosphereResourceImpl;
 import org.atmosphere.cpr.BroadcasterCache;
+import org.atmosphere.cpr.BroadcasterMetrics;
+import org.atmosphere.cpr.HashedWheelTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,11 +48,11 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -65,10 +67,18 @@ public abstract class BroadcasterCacheBase implements BroadcasterCache<HttpServl
 
     protected final List<CachedMessage> queue = new CopyOnWriteArrayList<CachedMessage>();
 
-    protected final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor();
+    // Pruning task, executed by the shared HashedWheelTimer.
+    protected ScheduledFuture<?> reaper;
 
     protected int maxCachedinMs = 1000 * 5 * 60;
 
+    // The sequence of the next cached message, guarded by this.
+    private long sequence;
+
+    protected volatile BroadcasterMetrics metrics;
+
+    protected volatile Executor executor;
+
     public BroadcasterCacheBase() {
     }
 
@@ -76,32 +86,70 @@ public abstract class BroadcasterCacheBase implements BroadcasterCache<HttpServl
      * {@inheritDoc}
      */
     public final void start() {
-        reaper.scheduleAtFixedRate(new Runnable() {
-
+        final Runnable pruner = new Runnable() {
             public void run() {
-                Iterator<CachedMessage> i = queue.iterator();
-                CachedMessage message;
-                while (i.hasNext()) {
-                    message = i.next();
-                    logger.debug("Message: {}", message.message());
-
-                    if (System.currentTimeMillis() - message.currentTime() > maxCachedinMs) {
-                        logger.debug("Pruning: {}", message.message());
-                        queue.remove(message);
-                    }
-                    else {
-                        break;
+                prune();
+            }
+        };
+        reaper = HashedWheelTimer.getDefault().scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                // The timer Thread is shared by the whole JVM, it only triggers the pruning.
+                Executor e = executor;
+                if (e != null) {
+                    try {
+                        e.execute(pruner);
+                        return;
+                    } catch (RejectedExecutionException ex) {
+                        logger.debug("pruning rejected, the Broadcaster is shutting down", ex);
                     }
                 }
+                pruner.run();
             }
         }, 0, 60, TimeUnit.SECONDS);
     }
 
+    /**
+     * Remove the expired messages, which are at the head of the queue.
+     */
+    protected synchronized void prune() {
+        long expired = System.currentTimeMillis() - maxCachedinMs;
+        int pruned = 0;
+        for (CachedMessage message : queue) {
+            if (message.currentTime() >= expired) {
+                break;
+            }
+            pruned++;
+        }
+        if (pruned == 0) {
+            return;
+        }
+
+        // A single copy of the array.
+        queue.subList(0, pruned).clear();
+        logger.debug("Pruned {} messages", pruned);
+
+        BroadcasterMetrics m = metrics;
+        if (m != null) {
+            m.cacheEvicted(pruned);
+        }
+    }
+
+    /**
+     * Set the {@link Executor} pruning the expired messages.
+     *
+     * @param executor the {@link Executor}, or null to prune from the {@link HashedWheelTimer} Thread.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     /**
      * {@inheritDoc}
      */
     public final void stop() {
-        reaper.shutdown();
+        if (reaper != null) {
+            reaper.cancel(false);
+        }
     }
 
     /**
@@ -111,7 +159,7 @@ public abstract class BroadcasterCacheBase implements BroadcasterCache<HttpServl
             final AtmosphereResource<HttpServletRequest, HttpServletResponse> resource, final Object object) {
         logger.debug("Adding message for resource: {}, object: {}", resource, object);
 
-        CachedMessage cm = new CachedMessage(object, System.currentTimeMillis(), null);
+        CachedMessage cm = new CachedMessage(object, System.currentTimeMillis(), null, sequence++);
         CachedMessage prev = null;
         if (!queue.isEmpty()) {
             prev = queue.get(queue.size() - 1);
@@ -198,6 +246,15 @@ public abstract class BroadcasterCacheBase implements BroadcasterCache<HttpServl
         return l;
     }
 
+    /**
+     * Set the {@link BroadcasterMetrics} notified when cached messages expire.
+     *
+     * @param metrics the {@link BroadcasterMetrics}, or null
+     */
+    public void setMetrics(BroadcasterMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Get the maximum time a broadcasted message can stay cached.
      *
@@ -223,19 +280,26 @@ public abstract class BroadcasterCacheBase implements BroadcasterCache<HttpServl
         public final long currentTime;
         public CachedMessage next;
         public final boolean isTail;
+        public final long sequence;
 
         public CachedMessage(boolean isTail) {
             this.currentTime = 0L;
             this.message = null;
             this.next = null;
             this.isTail = isTail;
+            this.sequence = -1;
         }
 
         public CachedMessage(Object message, long currentTime, CachedMessage next) {
+            this(message, currentTime, next, -1);
+        }
+
+        public CachedMessage(Object message, long currentTime, CachedMessage next, long sequence) {
             this.currentTime = currentTime;
             this.message = message;
             this.next = next;
             this.isTail = false;
+            this.sequence = sequence;
         }
 
         public Object message() {
@@ -246,6 +310,15 @@ public abstract class BroadcasterCacheBase implements BroadcasterCache<HttpServl
             return currentTime;
         }
 
+        /**
+         * Return the position of this message in the cache, or -1 if unknown.
+         *
+         * @return the position of this message in the cache.
+         */
+        public long sequence() {
+            return sequence;
+        }
+
         public CachedMessage next() {
             return next;
         }
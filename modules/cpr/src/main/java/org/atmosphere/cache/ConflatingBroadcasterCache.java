@@ -0,0 +1,220 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cache;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereServlet;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterCache;
+import org.atmosphere.cpr.Conflatable;
+import org.atmosphere.cpr.ManagedBroadcasterCache;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link BroadcasterCache} keeping only the last {@link Conflatable} message per key, for feeds where only the
+ * latest value matters (prices, presence, ...). Messages without a key aren't cached.
+ * <p/>
+ * Every update gets a version, returned to the client using the "X-Cache-Sequence" header. A client sending back
+ * that header gets the latest value of every key updated since, and a new client gets a snapshot of the latest value
+ * of every key, instead of a replay of every update. A client sending a malformed header gets that snapshot too.
+ * <p/>
+ * A message is cached once per broadcast, whatever the number of {@link AtmosphereResource} it is written to.
+ */
+public class ConflatingBroadcasterCache implements ManagedBroadcasterCache<HttpServletRequest, HttpServletResponse> {
+
+    private final ConcurrentHashMap<Object, Value> values = new ConcurrentHashMap<Object, Value>();
+    private final AtomicLong version = new AtomicLong();
+
+    private static final Comparator<Value> BY_VERSION = new Comparator<Value>() {
+        public int compare(Value v1, Value v2) {
+            return v1.version < v2.version ? -1 : (v1.version == v2.version ? 0 : 1);
+        }
+    };
+
+    public ConflatingBroadcasterCache() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void configure(Broadcaster broadcaster, AtmosphereServlet.AtmosphereConfig config) {
+    }
+
+    /**
+     * Cache the message. Without the number of the broadcast, every addition is a new version.
+     */
+    public void addToCache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r, final Object message) {
+        addToCache(r, message, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addToCache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r, final Object message,
+                           long broadcast) {
+        if (!(message instanceof Conflatable)) {
+            return;
+        }
+
+        Object key = ((Conflatable) message).getKey();
+        Value v = values.get(key);
+        // The same message is added once per AtmosphereResource.
+        if (v == null || !v.isFor(broadcast, message)) {
+            synchronized (this) {
+                v = values.get(key);
+                if (v == null || !v.isFor(broadcast, message)) {
+                    v = new Value(version.incrementAndGet(), message, broadcast);
+                    values.put(key, v);
+                }
+            }
+        }
+
+        if (r != null) {
+            r.getResponse().setHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE, String.valueOf(v.version));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Object> retrieveFromCache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r) {
+        String s = r.getRequest().getHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE);
+        long since = 0;
+        if (s != null) {
+            try {
+                since = Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                // Send the latest value of every key.
+                since = 0;
+            }
+        }
+        List<Value> updated = snapshot(since);
+
+        List<Object> l = new ArrayList<Object>(updated.size());
+        for (Value v : updated) {
+            l.add(v.message);
+        }
+
+        if (!updated.isEmpty()) {
+            r.getResponse().setHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE,
+                    String.valueOf(updated.get(updated.size() - 1).version));
+        }
+        return l;
+    }
+
+    /**
+     * Return the latest message of every key updated after {@code since}, in the order they were updated.
+     *
+     * @param since a version, 0 for all the keys
+     * @return the latest messages
+     */
+    public List<Object> retrieve(long since) {
+        List<Object> l = new ArrayList<Object>();
+        for (Value v : snapshot(since)) {
+            l.add(v.message);
+        }
+        return l;
+    }
+
+    private List<Value> snapshot(long since) {
+        List<Value> updated = new ArrayList<Value>();
+        for (Value v : values.values()) {
+            if (v.version > since) {
+                updated.add(v);
+            }
+        }
+        Collections.sort(updated, BY_VERSION);
+        return updated;
+    }
+
+    /**
+     * Forget the value of a key.
+     *
+     * @param key the key
+     */
+    public void remove(Object key) {
+        values.remove(key);
+    }
+
+    /**
+     * Return the number of cached keys.
+     *
+     * @return the number of cached keys.
+     */
+    public int size() {
+        return values.size();
+    }
+
+    private final static class Value {
+
+        final long version;
+        final Object message;
+        // The number of the broadcast, -1 if unknown.
+        final long broadcast;
+
+        Value(long version, Object message, long broadcast) {
+            this.version = version;
+            this.message = message;
+            this.broadcast = broadcast;
+        }
+
+        boolean isFor(long broadcast, Object message) {
+            return broadcast >= 0 && this.broadcast == broadcast && this.message == message;
+        }
+    }
+}
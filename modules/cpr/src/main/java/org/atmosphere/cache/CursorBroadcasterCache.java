@@ -0,0 +1,160 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cache;
+
+import org.atmosphere.cpr.AtmosphereResource;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link org.atmosphere.cpr.BroadcasterCache} which keeps no state per client. The position of the client in the
+ * cache is returned as a compact cursor in the "X-Cache-Cursor" header, and the client sends it back on reconnection,
+ * as a header or as a query parameter of the same name. Unlike {@link SessionBroadcasterCache}, no
+ * {@link javax.servlet.http.HttpSession} is created.
+ * <p/>
+ * A cursor contains the sequence and the time of the last message received by the client, and identifies the cache
+ * which created it. A cursor created before a restart is resolved using its time.
+ */
+public class CursorBroadcasterCache extends BroadcasterCacheBase {
+
+    public static final String HEADER_CACHE_CURSOR = "X-Cache-Cursor";
+
+    private static final AtomicLong instances = new AtomicLong();
+
+    // The start time tells the instances of two runs apart, the counter those created in the same millisecond.
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX) + '-'
+            + Long.toString(instances.incrementAndGet(), Character.MAX_RADIX);
+
+    public CursorBroadcasterCache() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void cache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r, CachedMessage cm) {
+        if (cm.isTail() && !queue.isEmpty()) {
+            // The first message of the cache has just been added.
+            cm = queue.get(queue.size() - 1);
+        }
+        r.getResponse().setHeader(HEADER_CACHE_CURSOR, cursor(cm));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public CachedMessage retrieveLastMessage(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r) {
+        HttpServletRequest request = r.getRequest();
+        String cursor = request.getHeader(HEADER_CACHE_CURSOR);
+        if (cursor == null) {
+            cursor = request.getParameter(HEADER_CACHE_CURSOR);
+        }
+        return cursor == null ? null : lookup(cursor);
+    }
+
+    /**
+     * Return the cursor of a cached message.
+     *
+     * @param cm a {@link CachedMessage}
+     * @return the cursor
+     */
+    protected String cursor(CachedMessage cm) {
+        return new StringBuilder(epoch).append('.')
+                .append(Long.toString(cm.sequence(), Character.MAX_RADIX)).append('.')
+                .append(Long.toString(cm.currentTime(), Character.MAX_RADIX)).toString();
+    }
+
+    /**
+     * Return the cached message identified by a cursor. When the cursor comes from another instance of the cache,
+     * return the last message cached before the time of the cursor. If that message is no longer cached, a
+     * {@link CachedMessage} not in the cache is returned, so the client gets all the cached messages.
+     *
+     * @param cursor a cursor
+     * @return the {@link CachedMessage}, or null if invalid.
+     */
+    protected CachedMessage lookup(String cursor) {
+        String[] s = cursor.split("\\.");
+        if (s.length != 3) {
+            return null;
+        }
+
+        try {
+            long sequence = Long.parseLong(s[1], Character.MAX_RADIX);
+            long time = Long.parseLong(s[2], Character.MAX_RADIX);
+            if (epoch.equals(s[0])) {
+                return lookup(sequence);
+            }
+            return lookupByTime(time);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private CachedMessage lookup(long sequence) {
+        try {
+            // Sequences are contiguous, from the oldest message still cached.
+            long index = sequence - queue.get(0).sequence();
+            if (index < queue.size()) {
+                CachedMessage cm = index >= 0 ? queue.get((int) index) : null;
+                return cm != null && cm.sequence() == sequence ? cm : pruned(sequence);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Pruned meanwhile.
+        }
+        return null;
+    }
+
+    private CachedMessage lookupByTime(long time) {
+        CachedMessage prev = null;
+        for (CachedMessage cm : queue) {
+            if (cm.currentTime() > time) {
+                break;
+            }
+            prev = cm;
+        }
+        return prev != null ? prev : pruned(-1);
+    }
+
+    /**
+     * A message no longer cached, so the client gets all the cached messages.
+     */
+    private static CachedMessage pruned(long sequence) {
+        return new CachedMessage(null, 0L, null, sequence);
+    }
+}
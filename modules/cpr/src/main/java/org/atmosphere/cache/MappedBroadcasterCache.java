@@ -0,0 +1,751 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cache;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResourceImpl;
+import org.atmosphere.cpr.AtmosphereServlet;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterCache;
+import org.atmosphere.cpr.HashedWheelTimer;
+import org.atmosphere.cpr.ManagedBroadcasterCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent {@link BroadcasterCache} which appends the messages to a log of memory-mapped segment files, one log
+ * per {@link org.atmosphere.cpr.Broadcaster}. Messages are served from the mapped files, and survive a restart of the
+ * application: on {@link #start()} the existing segments are recovered and the sequence numbers continue where they
+ * stopped.
+ * <p/>
+ * Like {@link RingBufferBroadcasterCache}, every message gets a sequence number returned using the "X-Cache-Sequence"
+ * header, clients can also resume using the "X-Cache-Date" header, and clients that missed removed messages get the
+ * "X-Cache-Resync" header. Only the offsets of the messages are kept on the heap. Only String (or any
+ * {@link CharSequence}, read back as a String) and byte[] messages are cached, respectively as UTF-8 and as is. Other
+ * messages couldn't be read back as they were broadcasted, so they are not cached and a warning is logged once per
+ * type.
+ * <p/>
+ * The oldest segments are deleted once all their messages are older than {@link #getMaxCachedinMs()}, or when the
+ * segments use more than {@link #getMaxBytes()}. Segments are written to the page cache, forced to disk once full,
+ * outside of the broadcast, and on {@link #stop()}, so they survive the restart of the application, not a crash of
+ * the host.
+ * <p/>
+ * The log of a {@link Broadcaster} is kept when it is destroyed, as it may be created again with the same ID. The
+ * logs nobody uses anymore, e.g. of {@link Broadcaster} named with a random UUID, are deleted by the next cache
+ * started in the same directory, once all their messages are older than {@link #getMaxCachedinMs()}. The directory
+ * must therefore be dedicated to one application.
+ * <p/>
+ * A message is cached once per broadcast, whatever the number of {@link AtmosphereResource} it is written to. The
+ * cache is configured by the {@link Broadcaster} using it, see {@link #configure(Broadcaster,
+ * AtmosphereServlet.AtmosphereConfig)}.
+ */
+public class MappedBroadcasterCache implements ManagedBroadcasterCache<HttpServletRequest, HttpServletResponse> {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedBroadcasterCache.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SUFFIX = ".log";
+    private static final byte STRING = 0;
+    private static final byte BYTES = 1;
+    // Record: length of the payload + 1 (0 marks the end of the segment), type, sequence, time, payload.
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+
+    // The log directories of the started caches of this JVM, never deleted as orphans.
+    private static final Set<File> activeLogs = new HashSet<File>();
+
+    private File directory = new File(System.getProperty("java.io.tmpdir"), "atmosphere-cache");
+    private String id = "default";
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private long maxBytes = -1;
+    protected int maxCachedinMs = 1000 * 5 * 60;
+
+    // Guarded by this.
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private long totalBytes;
+    private long removedTime = -1;
+    private Object lastMessage;
+    private long lastBroadcast = -1;
+    private long lastSequence = -1;
+    private volatile long sequence;
+    // A segment has been added by the last append, the previous one, if any, is full.
+    private boolean rolled;
+    private Segment filled;
+    private final Set<Class<?>> rejectedTypes = new HashSet<Class<?>>();
+    private ScheduledFuture<?> reaper;
+    private volatile Executor executor;
+
+    public MappedBroadcasterCache() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void start() {
+        if (reaper != null) {
+            return;
+        }
+
+        synchronized (activeLogs) {
+            activeLogs.add(getLogDirectory().getAbsoluteFile());
+        }
+        recover();
+        retain();
+        deleteOrphans();
+        final Runnable retainer = new Runnable() {
+            public void run() {
+                retain();
+            }
+        };
+        reaper = HashedWheelTimer.getDefault().scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                // Deleting files may be slow, the timer Thread is shared by the whole JVM.
+                execute(retainer);
+            }
+        }, 60, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void stop() {
+        if (reaper != null) {
+            reaper.cancel(false);
+            reaper = null;
+        }
+
+        for (Segment s : segments) {
+            s.buffer.force();
+        }
+        segments.clear();
+        totalBytes = 0;
+        lastMessage = null;
+        lastBroadcast = -1;
+        synchronized (activeLogs) {
+            activeLogs.remove(getLogDirectory().getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Use one log per {@link Broadcaster}, identified by its ID, and read the
+     * {@link AtmosphereServlet#BROADCASTER_CACHE_DIRECTORY} and {@link AtmosphereServlet#BROADCASTER_CACHE_MAX_BYTES}
+     * values.
+     */
+    public synchronized void configure(Broadcaster broadcaster, AtmosphereServlet.AtmosphereConfig config) {
+        setID(broadcaster.getID());
+        if (broadcaster.getBroadcasterConfig() != null) {
+            executor = broadcaster.getBroadcasterConfig().getScheduledExecutorService();
+        }
+        if (config == null) {
+            return;
+        }
+
+        String s = config.getInitParameter(AtmosphereServlet.BROADCASTER_CACHE_DIRECTORY);
+        if (s != null) {
+            setDirectory(new File(s.trim()));
+        }
+
+        s = config.getInitParameter(AtmosphereServlet.BROADCASTER_CACHE_MAX_BYTES);
+        if (s != null) {
+            try {
+                setMaxBytes(Long.parseLong(s.trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid BroadcasterCache budget {}", s);
+            }
+        }
+    }
+
+    private void recover() {
+        File dir = getLogDirectory();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            logger.warn("Unable to create BroadcasterCache directory {}", dir);
+            return;
+        }
+
+        File[] files = dir.listFiles();
+        if (files == null) {
+            logger.warn("Unable to list BroadcasterCache directory {}", dir);
+            return;
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+            if (!f.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+
+            try {
+                long base = Long.parseLong(f.getName().substring(0, f.getName().length() - SUFFIX.length()));
+                if (!segments.isEmpty() && base != sequence) {
+                    // A hole in the log, only keep what follows.
+                    removeSegments(segments.size());
+                }
+                Segment s = new Segment(f, base, (int) f.length());
+                s.scan();
+                segments.add(s);
+                totalBytes += s.capacity;
+                sequence = base + s.count;
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring {}", f);
+            } catch (IOException e) {
+                logger.warn("Unable to recover BroadcasterCache segment " + f, e);
+            }
+        }
+
+        if (!segments.isEmpty() && segments.get(0).base > 0) {
+            // We don't know when the previous segments were removed.
+            removedTime = segments.get(0).firstTime;
+        }
+        logger.debug("Recovered {} messages from {}", sequence - firstSequence(), dir);
+    }
+
+    /**
+     * Delete the log directories not used by a started cache, once all their segments are expired.
+     */
+    private void deleteOrphans() {
+        File[] logs = directory.listFiles();
+        if (logs == null || maxCachedinMs <= 0) {
+            return;
+        }
+
+        long expired = System.currentTimeMillis() - maxCachedinMs;
+        for (File log : logs) {
+            synchronized (activeLogs) {
+                if (!log.isDirectory() || activeLogs.contains(log.getAbsoluteFile())) {
+                    continue;
+                }
+
+                File[] files = log.listFiles();
+                if (files == null || !isExpiredLog(files, expired)) {
+                    continue;
+                }
+
+                for (File f : files) {
+                    if (!f.delete()) {
+                        logger.warn("Unable to delete BroadcasterCache segment {}", f);
+                    }
+                }
+                if (log.delete()) {
+                    logger.debug("Deleted unused BroadcasterCache log {}", log);
+                }
+            }
+        }
+    }
+
+    private static boolean isExpiredLog(File[] files, long expired) {
+        for (File f : files) {
+            // Not a log, or still in use.
+            if (!f.getName().endsWith(SUFFIX) || f.lastModified() > expired) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cache the message. Without the number of the broadcast, the message is appended every time.
+     */
+    public void addToCache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r, final Object message) {
+        addToCache(r, message, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addToCache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r, final Object message,
+                           long broadcast) {
+        if (!(message instanceof CharSequence || message instanceof byte[])) {
+            reject(message);
+            return;
+        }
+
+        long seq;
+        Segment full = null;
+        boolean roll;
+        synchronized (this) {
+            // A PerRequestBroadcastFilter may have transformed the message of a broadcast, it is cached separately.
+            if (broadcast < 0 || lastBroadcast != broadcast || lastMessage != message) {
+                try {
+                    lastSequence = append(message);
+                    lastMessage = message;
+                    lastBroadcast = broadcast;
+                } catch (IOException e) {
+                    logger.warn("Unable to cache message", e);
+                    return;
+                }
+            }
+            seq = lastSequence;
+            roll = rolled;
+            full = filled;
+            rolled = false;
+            filled = null;
+        }
+
+        if (roll) {
+            // Forcing and deleting files may be slow, never do it while holding the lock of the cache.
+            final Segment segment = full;
+            execute(new Runnable() {
+                public void run() {
+                    if (segment != null) {
+                        segment.buffer.force();
+                    }
+                    retain();
+                }
+            });
+        }
+
+        if (r != null) {
+            r.getResponse().setHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE, String.valueOf(seq));
+        }
+    }
+
+    private void reject(Object message) {
+        Class<?> c = message == null ? null : message.getClass();
+        synchronized (rejectedTypes) {
+            if (!rejectedTypes.add(c)) {
+                return;
+            }
+        }
+        logger.warn("Unable to cache {} messages, only String and byte[] are supported", c == null ? "null" : c.getName());
+    }
+
+    private long append(Object message) throws IOException {
+        byte type = message instanceof byte[] ? BYTES : STRING;
+        byte[] payload = type == BYTES ? (byte[]) message : encode(message.toString());
+        int size = HEADER_SIZE + payload.length;
+
+        Segment s = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (s == null || s.position + size > s.capacity) {
+            if (s != null && s.count == 0) {
+                // Too small for this message, and its file will be replaced.
+                segments.remove(segments.size() - 1);
+                totalBytes -= s.capacity;
+            } else if (s != null) {
+                filled = s;
+            }
+            File f = new File(getLogDirectory(), String.format("%020d", sequence) + SUFFIX);
+            s = new Segment(f, sequence, Math.max(segmentSize, size));
+            segments.add(s);
+            totalBytes += s.capacity;
+            rolled = true;
+        }
+
+        long seq = sequence;
+        long now = System.currentTimeMillis();
+        ByteBuffer b = s.buffer.duplicate();
+        b.position(s.position + 4);
+        b.put(type).putLong(seq).putLong(now).put(payload);
+        // Written last, so a torn record marks the end of the segment.
+        b.putInt(s.position, payload.length + 1);
+
+        s.add(s.position, now);
+        s.position += size;
+        sequence = seq + 1;
+        return seq;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Object> retrieveFromCache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r) {
+        HttpServletRequest request = r.getRequest();
+        List<Object> l = new ArrayList<Object>();
+        long last;
+        synchronized (this) {
+            long available = firstAvailable();
+            long from;
+            boolean lost;
+            String s = request.getHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE);
+            String date = request.getHeader(HeaderBroadcasterCache.HEADER_CACHE);
+            try {
+                if (s != null) {
+                    from = Long.parseLong(s.trim()) + 1;
+                    lost = from < available;
+                } else if (date != null) {
+                    long time = Long.parseLong(date.trim());
+                    from = firstCachedAfter(time);
+                    lost = time < (available > firstSequence() ? timeOf(available - 1) : removedTime);
+                } else if (request.getAttribute(AtmosphereResourceImpl.PRE_SUSPEND) != null) {
+                    from = available;
+                    lost = false;
+                } else {
+                    return l;
+                }
+            } catch (NumberFormatException e) {
+                // We don't know what the client missed, send everything.
+                logger.debug("Invalid cache header {}, resynchronizing {}", s != null ? s : date, r);
+                from = available;
+                lost = true;
+            }
+
+            if (lost) {
+                r.getResponse().setHeader(RingBufferBroadcasterCache.HEADER_CACHE_RESYNC, String.valueOf(true));
+            }
+            last = retrieve(Math.max(from, available), l);
+        }
+
+        if (last >= 0) {
+            r.getResponse().setHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE, String.valueOf(last));
+        }
+        return l;
+    }
+
+    /**
+     * Add to the list the messages cached from the sequence {@code from}, or from the oldest available message.
+     *
+     * @param from the first sequence
+     * @param l    the list to fill
+     * @return the sequence of the last added message, or -1 if none.
+     */
+    public synchronized long retrieve(long from, List<Object> l) {
+        long seq = Math.max(from, firstAvailable());
+        int i = segmentOf(seq);
+        if (i < 0) {
+            return -1;
+        }
+
+        for (; i < segments.size(); i++) {
+            Segment s = segments.get(i);
+            for (int n = (int) (seq - s.base); n < s.count; n++) {
+                l.add(s.read(n));
+            }
+            seq = s.base + s.count;
+        }
+        return seq - 1;
+    }
+
+    /**
+     * Return the sequence of the first message cached after {@code time}, using a binary search.
+     *
+     * @param time a time, in milliseconds
+     * @return the sequence of the first message cached after {@code time}, or the next sequence if none.
+     */
+    public synchronized long firstCachedAfter(long time) {
+        for (Segment s : segments) {
+            if (s.count > 0 && s.lastTime > time) {
+                int lo = 0;
+                int hi = s.count - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (s.timeOf(mid) <= time) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                return s.base + lo;
+            }
+        }
+        return sequence;
+    }
+
+    private long firstSequence() {
+        return segments.isEmpty() ? sequence : segments.get(0).base;
+    }
+
+    private long firstAvailable() {
+        return maxCachedinMs > 0 ? firstCachedAfter(System.currentTimeMillis() - maxCachedinMs) : firstSequence();
+    }
+
+    private long timeOf(long seq) {
+        Segment s = segments.get(segmentOf(seq));
+        return s.timeOf((int) (seq - s.base));
+    }
+
+    private int segmentOf(long seq) {
+        int lo = 0;
+        int hi = segments.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            Segment s = segments.get(mid);
+            if (seq < s.base) {
+                hi = mid - 1;
+            } else if (seq >= s.base + s.count) {
+                lo = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Delete the oldest segments, except the one being written, when all their messages are expired or the
+     * segments use more than {@link #getMaxBytes()}.
+     */
+    protected synchronized void retain() {
+        long expired = System.currentTimeMillis() - maxCachedinMs;
+        int n = 0;
+        long bytes = totalBytes;
+        while (n < segments.size() - 1) {
+            Segment s = segments.get(n);
+            if (!(maxCachedinMs > 0 && s.lastTime <= expired) && !(maxBytes > 0 && bytes > maxBytes)) {
+                break;
+            }
+            bytes -= s.capacity;
+            n++;
+        }
+        removeSegments(n);
+    }
+
+    private void removeSegments(int n) {
+        for (int i = 0; i < n; i++) {
+            Segment s = segments.remove(0);
+            totalBytes -= s.capacity;
+            if (s.count > 0) {
+                removedTime = s.lastTime;
+            }
+            if (!s.file.delete()) {
+                logger.warn("Unable to delete BroadcasterCache segment {}", s.file);
+            }
+        }
+    }
+
+    private static byte[] encode(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Run a maintenance task with the {@link Executor} of the {@link Broadcaster}, or in the calling Thread if the
+     * cache isn't used by a {@link Broadcaster}.
+     */
+    private void execute(Runnable task) {
+        Executor e = executor;
+        if (e != null) {
+            try {
+                e.execute(task);
+                return;
+            } catch (RejectedExecutionException ex) {
+                logger.debug("task rejected, the Broadcaster is shutting down", ex);
+            }
+        }
+        task.run();
+    }
+
+    private File getLogDirectory() {
+        // Keep the file name safe, and distinct for IDs differing only by unsafe characters.
+        String name = id.replaceAll("[^A-Za-z0-9_-]", "_") + "-" + Integer.toHexString(id.hashCode());
+        return new File(directory, name);
+    }
+
+    /**
+     * Set the ID of the {@link org.atmosphere.cpr.Broadcaster} using this cache, which identify its log. Must be
+     * invoked before {@link #start()}.
+     *
+     * @param id the {@link org.atmosphere.cpr.Broadcaster#getID()}
+     * @return this
+     */
+    public MappedBroadcasterCache setID(String id) {
+        this.id = id;
+        return this;
+    }
+
+    /**
+     * Set the directory containing the logs of all the {@link org.atmosphere.cpr.Broadcaster}.
+     *
+     * @param directory the directory
+     * @return this
+     */
+    public MappedBroadcasterCache setDirectory(File directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    /**
+     * Return the directory containing the logs of all the {@link org.atmosphere.cpr.Broadcaster}.
+     *
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Set the size of a segment file, in bytes.
+     *
+     * @param segmentSize the size of a segment file
+     * @return this
+     */
+    public MappedBroadcasterCache setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * Return the maximum size of the segments, in bytes, or -1 if unbounded.
+     *
+     * @return the maximum size of the segments.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Set the maximum size of the segments, in bytes. -1 means unbounded.
+     *
+     * @param maxBytes the maximum size, in bytes
+     * @return this
+     */
+    public MappedBroadcasterCache setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Return the sequence of the next cached message.
+     *
+     * @return the sequence of the next cached message.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the maximum time a broadcasted message can stay cached.
+     *
+     * @return Get the maximum time a broadcasted message can stay cached.
+     */
+    public int getMaxCachedinMs() {
+        return maxCachedinMs;
+    }
+
+    /**
+     * Set the maximum time a broadcasted message can stay cached.
+     *
+     * @param maxCachedinMs time in milliseconds
+     */
+    public void setMaxCachedinMs(final int maxCachedinMs) {
+        this.maxCachedinMs = maxCachedinMs;
+    }
+
+    private final static class Segment {
+
+        final File file;
+        final long base;
+        final int capacity;
+        final MappedByteBuffer buffer;
+        int[] offsets = new int[256];
+        int count;
+        int position;
+        long firstTime;
+        long lastTime;
+
+        Segment(File file, long base, int capacity) throws IOException {
+            this.file = file;
+            this.base = base;
+            this.capacity = capacity;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // The mapping stays valid once the channel is closed.
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } finally {
+                raf.close();
+            }
+        }
+
+        /**
+         * Rebuild the offsets of a recovered segment, without reading the payloads.
+         */
+        void scan() {
+            int pos = 0;
+            while (pos + HEADER_SIZE <= capacity) {
+                int length = buffer.getInt(pos) - 1;
+                if (length < 0 || pos + HEADER_SIZE + length > capacity || buffer.getLong(pos + 5) != base + count) {
+                    break;
+                }
+                add(pos, buffer.getLong(pos + 13));
+                pos += HEADER_SIZE + length;
+            }
+            position = pos;
+        }
+
+        void add(int offset, long time) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+            if (count == 1) {
+                firstTime = time;
+            }
+            lastTime = time;
+        }
+
+        long timeOf(int n) {
+            return buffer.getLong(offsets[n] + 13);
+        }
+
+        Object read(int n) {
+            int offset = offsets[n];
+            byte[] payload = new byte[buffer.getInt(offset) - 1];
+            ByteBuffer b = buffer.duplicate();
+            b.position(offset + HEADER_SIZE);
+            b.get(payload);
+            if (buffer.get(offset + 4) == BYTES) {
+                return payload;
+            }
+
+            try {
+                return new String(payload, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cache;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResourceImpl;
+import org.atmosphere.cpr.AtmosphereServlet;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterCache;
+import org.atmosphere.cpr.HashedWheelTimer;
+import org.atmosphere.cpr.ManagedBroadcasterCache;
+import org.atmosphere.cpr.RingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded {@link BroadcasterCache} backed by a ring buffer. Every cached message gets a monotonic sequence number,
+ * returned to the client using the "X-Cache-Sequence" header. On reconnection, the client sends back the sequence of
+ * the last message it received and gets all the messages cached after it.
+ * <p/>
+ * Adding a message is lock-free. Resuming from a sequence is a direct index into the ring. Clients still using the
+ * "X-Cache-Date" header of {@link HeaderBroadcasterCache} are resumed by a binary search on the time the messages
+ * were cached; two messages cached within the same millisecond can't be distinguished that way, hence the sequence
+ * header.
+ * <p/>
+ * Messages are evicted, oldest first, when the ring is full, when they are older than {@link #getMaxCachedinMs()},
+ * or when the estimated size of the cached messages exceeds the budget of this cache ({@link #setMaxBytes(long)}) or
+ * the budget shared by all the caches ({@link #setMaxGlobalBytes(long)}). A client resuming after messages it never
+ * received have been evicted gets the "X-Cache-Resync" header, and must resynchronize its state. So does a client
+ * sending a malformed header.
+ * <p/>
+ * A message is cached once per broadcast, whatever the number of {@link AtmosphereResource} it is written to.
+ */
+public class RingBufferBroadcasterCache implements ManagedBroadcasterCache<HttpServletRequest, HttpServletResponse> {
+
+    private static final Logger logger = LoggerFactory.getLogger(RingBufferBroadcasterCache.class);
+
+    public static final String HEADER_CACHE_SEQUENCE = "X-Cache-Sequence";
+
+    public static final String HEADER_CACHE_RESYNC = "X-Cache-Resync";
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // Estimated memory used by a cached message, excluding the message itself.
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final AtomicLong globalBytes = new AtomicLong();
+    private static volatile long maxGlobalBytes = -1;
+
+    private final AtomicReferenceArray<CachedMessage> ring;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+    // The sequence of the oldest message not evicted.
+    private final AtomicLong oldest = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private volatile long evictedTime = -1;
+    private volatile CachedMessage tail;
+    // Serializes the first addition of a broadcast, so it is appended once.
+    private final Object broadcastLock = new Object();
+    private volatile long maxBytes = -1;
+    private ScheduledFuture<?> reaper;
+    protected int maxCachedinMs = 1000 * 5 * 60;
+
+    public RingBufferBroadcasterCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a cache keeping at most {@code capacity} messages, rounded up to the next power of two.
+     *
+     * @param capacity the maximum number of cached messages
+     */
+    public RingBufferBroadcasterCache(int capacity) {
+        int size = RingBuffer.capacityFor(capacity);
+        ring = new AtomicReferenceArray<CachedMessage>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void start() {
+        if (reaper == null) {
+            reaper = HashedWheelTimer.getDefault().scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    evictExpired();
+                }
+            }, 60, 60, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop() {
+        synchronized (this) {
+            if (reaper != null) {
+                reaper.cancel(false);
+                reaper = null;
+            }
+        }
+
+        // Give the memory back to the global budget.
+        while (evictOldest(sequence.get())) {
+        }
+    }
+
+    /**
+     * Read the {@link AtmosphereServlet#BROADCASTER_CACHE_MAX_BYTES} and
+     * {@link AtmosphereServlet#BROADCASTER_CACHE_MAX_GLOBAL_BYTES} budgets.
+     */
+    public void configure(Broadcaster broadcaster, AtmosphereServlet.AtmosphereConfig config) {
+        if (config == null) {
+            return;
+        }
+
+        String s = config.getInitParameter(AtmosphereServlet.BROADCASTER_CACHE_MAX_BYTES);
+        try {
+            if (s != null) {
+                setMaxBytes(Long.parseLong(s.trim()));
+            }
+            s = config.getInitParameter(AtmosphereServlet.BROADCASTER_CACHE_MAX_GLOBAL_BYTES);
+            if (s != null) {
+                setMaxGlobalBytes(Long.parseLong(s.trim()));
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid BroadcasterCache budget {}", s);
+        }
+    }
+
+    /**
+     * Cache the message. Without the number of the broadcast, the message is appended every time.
+     */
+    public void addToCache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r, final Object message) {
+        setSequence(r, append(message, -1));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addToCache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r, final Object message,
+                           long broadcast) {
+        CachedMessage cm = tail;
+        if (cm == null || !cm.isFor(broadcast, message)) {
+            synchronized (broadcastLock) {
+                cm = tail;
+                if (cm == null || !cm.isFor(broadcast, message)) {
+                    cm = append(message, broadcast);
+                }
+            }
+        }
+        setSequence(r, cm);
+    }
+
+    private void setSequence(AtmosphereResource<HttpServletRequest, HttpServletResponse> r, CachedMessage cm) {
+        if (r != null) {
+            r.getResponse().setHeader(HEADER_CACHE_SEQUENCE, String.valueOf(cm.sequence));
+        }
+    }
+
+    /**
+     * Append a message to the ring, evicting the oldest messages if the ring is full or a budget is exceeded.
+     *
+     * @param message the message
+     * @return the {@link CachedMessage}
+     */
+    protected CachedMessage append(Object message) {
+        return append(message, -1);
+    }
+
+    private CachedMessage append(Object message, long broadcast) {
+        int size = sizeOf(message) + ENTRY_OVERHEAD;
+        long seq = sequence.getAndIncrement();
+
+        // The slot can only be reused once the message it contains has been evicted.
+        while (oldest.get() <= seq - ring.length()) {
+            if (!evictOldest(seq)) {
+                Thread.yield();
+            }
+        }
+
+        CachedMessage cm = new CachedMessage(seq, System.currentTimeMillis(), message, size, broadcast);
+        ring.set((int) seq & mask, cm);
+        tail = cm;
+        bytes.addAndGet(size);
+        globalBytes.addAndGet(size);
+
+        // The newest message is always kept.
+        while (isOverBudget() && evictOldest(seq)) {
+        }
+        return cm;
+    }
+
+    private boolean isOverBudget() {
+        long max = maxBytes;
+        long global = maxGlobalBytes;
+        return (max > 0 && bytes.get() > max) || (global > 0 && globalBytes.get() > global);
+    }
+
+    /**
+     * Evict the oldest message, if its sequence is before {@code limit}.
+     *
+     * @param limit the first sequence that can't be evicted
+     * @return false if there was nothing to evict.
+     */
+    private boolean evictOldest(long limit) {
+        long o = oldest.get();
+        if (o >= limit) {
+            return false;
+        }
+
+        CachedMessage cm = ring.get((int) o & mask);
+        if (cm == null || cm.sequence < o) {
+            // Not published yet.
+            return false;
+        }
+
+        // Otherwise the slot has been reused, so someone else evicted it.
+        if (cm.sequence == o && oldest.compareAndSet(o, o + 1)) {
+            bytes.addAndGet(-cm.size);
+            globalBytes.addAndGet(-cm.size);
+            evicted.incrementAndGet();
+            evictedTime = cm.time;
+        }
+        return true;
+    }
+
+    /**
+     * Evict the messages older than {@link #getMaxCachedinMs()}.
+     */
+    protected void evictExpired() {
+        long expired = System.currentTimeMillis() - maxCachedinMs;
+        long head = sequence.get();
+        for (;;) {
+            long o = oldest.get();
+            CachedMessage cm = o < head ? ring.get((int) o & mask) : null;
+            if (cm == null || cm.sequence != o || cm.time > expired || !evictOldest(head)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Estimate the encoded size of a message, in bytes. Strings are measured as UTF-8.
+     *
+     * @param message the message
+     * @return its size, in bytes.
+     */
+    protected int sizeOf(Object message) {
+        if (message instanceof byte[]) {
+            return ((byte[]) message).length;
+        }
+
+        String s = message instanceof String ? (String) message : String.valueOf(message);
+        int size = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                size++;
+            } else if (c < 0x800 || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+                size += 2;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Object> retrieveFromCache(final AtmosphereResource<HttpServletRequest, HttpServletResponse> r) {
+        evictExpired();
+
+        HttpServletRequest request = r.getRequest();
+        long from;
+        boolean lost;
+        String s = request.getHeader(HEADER_CACHE_SEQUENCE);
+        String date = request.getHeader(HeaderBroadcasterCache.HEADER_CACHE);
+        try {
+            if (s != null) {
+                long last = Long.parseLong(s.trim());
+                from = last + 1;
+                lost = isEvicted(last);
+            } else if (date != null) {
+                long time = Long.parseLong(date.trim());
+                from = firstCachedAfter(time);
+                lost = time < evictedTime;
+            } else if (request.getAttribute(AtmosphereResourceImpl.PRE_SUSPEND) != null) {
+                from = 0;
+                lost = false;
+            } else {
+                return new ArrayList<Object>();
+            }
+        } catch (NumberFormatException e) {
+            // We don't know what the client missed, send everything.
+            logger.debug("Invalid cache header {}, resynchronizing {}", s != null ? s : date, r);
+            from = 0;
+            lost = true;
+        }
+
+        if (lost) {
+            r.getResponse().setHeader(HEADER_CACHE_RESYNC, String.valueOf(true));
+        }
+
+        List<Object> l = new ArrayList<Object>();
+        long last = retrieve(from, l);
+        if (last >= 0) {
+            r.getResponse().setHeader(HEADER_CACHE_SEQUENCE, String.valueOf(last));
+        }
+        return l;
+    }
+
+    /**
+     * Add to the list the messages cached from the sequence {@code from}, or from the oldest message if it has
+     * been evicted.
+     *
+     * @param from the first sequence
+     * @param l    the list to fill
+     * @return the sequence of the last added message, or -1 if none.
+     */
+    public long retrieve(long from, List<Object> l) {
+        evictExpired();
+        long head = sequence.get();
+        long seq = Math.max(from, oldest.get());
+        long last = -1;
+        for (; seq < head; seq++) {
+            CachedMessage cm = ring.get((int) seq & mask);
+            if (cm == null || cm.sequence < seq) {
+                // Not published yet.
+                break;
+            } else if (cm.sequence > seq) {
+                // Overwritten while we were reading, the newer messages follow.
+                continue;
+            }
+            l.add(cm.message);
+            last = seq;
+        }
+        return last;
+    }
+
+    /**
+     * Return true if messages cached after the sequence {@code last} have been evicted.
+     *
+     * @param last the sequence of the last message received by a client
+     * @return true if the client must resynchronize its state.
+     */
+    public boolean isEvicted(long last) {
+        return last + 1 < oldest.get();
+    }
+
+    /**
+     * Return the sequence of the first cached message whose time is after {@code time}, using a binary search.
+     *
+     * @param time a time, in milliseconds
+     * @return the sequence of the first message cached after {@code time}, or the next sequence if none.
+     */
+    public long firstCachedAfter(long time) {
+        long lo = oldest.get();
+        long hi = sequence.get();
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            CachedMessage cm = ring.get((int) mid & mask);
+            if (cm == null || cm.sequence < mid) {
+                // Not published yet, so after time.
+                hi = mid;
+            } else if (cm.sequence > mid || cm.time <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Return the sequence of the next cached message.
+     *
+     * @return the sequence of the next cached message.
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Return the maximum number of cached messages.
+     *
+     * @return the maximum number of cached messages.
+     */
+    public int getCapacity() {
+        return ring.length();
+    }
+
+    /**
+     * Return the estimated size of the messages in this cache, in bytes.
+     *
+     * @return the estimated size of the messages in this cache, in bytes.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Return the number of evicted messages, expired or not.
+     *
+     * @return the number of evicted messages.
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * Return the maximum size of the messages in this cache, in bytes, or -1 if unbounded.
+     *
+     * @return the maximum size of the messages in this cache.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Set the maximum size of the messages in this cache, in bytes. -1 means unbounded.
+     *
+     * @param maxBytes the maximum size, in bytes
+     * @return this
+     */
+    public RingBufferBroadcasterCache setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Return the estimated size of the messages in all the {@link RingBufferBroadcasterCache}, in bytes.
+     *
+     * @return the estimated size of the messages in all the caches.
+     */
+    public static long getGlobalBytes() {
+        return globalBytes.get();
+    }
+
+    /**
+     * Set the maximum size of the messages in all the {@link RingBufferBroadcasterCache}, in bytes. -1 means
+     * unbounded. The cache adding a message evicts its own oldest messages until the global budget is respected.
+     *
+     * @param max the maximum size, in bytes
+     */
+    public static void setMaxGlobalBytes(long max) {
+        maxGlobalBytes = max;
+    }
+
+    /**
+     * Return the maximum size of the messages in all the caches, in bytes, or -1 if unbounded.
+     *
+     * @return the maximum size of the messages in all the caches.
+     */
+    public static long getMaxGlobalBytes() {
+        return maxGlobalBytes;
+    }
+
+    /**
+     * Get the maximum time a broadcasted message can stay cached.
+     *
+     * @return Get the maximum time a broadcasted message can stay cached.
+     */
+    public int getMaxCachedinMs() {
+        return maxCachedinMs;
+    }
+
+    /**
+     * Set the maximum time a broadcasted message can stay cached.
+     *
+     * @param maxCachedinMs time in milliseconds
+     */
+    public void setMaxCachedinMs(final int maxCachedinMs) {
+        this.maxCachedinMs = maxCachedinMs;
+    }
+
+    protected final static class CachedMessage {
+
+        public final long sequence;
+        public final long time;
+        public final Object message;
+        public final int size;
+        // The number of the broadcast, -1 if unknown.
+        public final long broadcast;
+
+        CachedMessage(long sequence, long time, Object message, int size, long broadcast) {
+            this.sequence = sequence;
+            this.time = time;
+            this.message = message;
+            this.size = size;
+            this.broadcast = broadcast;
+        }
+
+        /**
+         * Return true if this is the message of that broadcast. A {@link org.atmosphere.cpr.PerRequestBroadcastFilter}
+         * may have transformed the message of a broadcast for some resources, those are cached separately.
+         */
+        boolean isFor(long broadcast, Object message) {
+            return broadcast >= 0 && this.broadcast == broadcast && this.message == message;
+        }
+
+        public String toString() {
+            return message != null ? message.toString() : "";
+        }
+    }
+}
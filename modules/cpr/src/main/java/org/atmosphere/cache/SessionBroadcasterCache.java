@@ -43,7 +43,8 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 /**
- * Simple {@link javax.servlet.http.HttpSession} based {@link org.atmosphere.cpr.BroadcasterCache}
+ * Simple {@link javax.servlet.http.HttpSession} based {@link org.atmosphere.cpr.BroadcasterCache}. A session is
+ * created for every client, see {@link CursorBroadcasterCache} for a session-free alternative.
  *
  * @author Jeanfrancois Arcand
  */
@@ -36,7 +36,7 @@
  */
 package org.atmosphere.client;
 
-import org.atmosphere.cpr.PerRequestBroadcastFilter;
+import org.atmosphere.cpr.ClassifiedBroadcastFilter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -47,7 +47,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * @author Jeanfrancois Arcand
  */
-public class JavascriptClientFilter implements PerRequestBroadcastFilter {
+public class JavascriptClientFilter implements ClassifiedBroadcastFilter {
 
     private final AtomicInteger uniqueScriptToken = new AtomicInteger();
 
@@ -67,25 +67,35 @@ public class JavascriptClientFilter implements PerRequestBroadcastFilter {
         return new BroadcastAction(BroadcastAction.ACTION.CONTINUE, message);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object classify(HttpServletRequest request) {
+        return isOpera(request);
+    }
+
     @Override
     public BroadcastAction filter(HttpServletRequest request, HttpServletResponse response, Object message) {
 
-        if (request.getHeader("User-Agent") != null) {
-            String userAgent = request.getHeader("User-Agent").toLowerCase();
-            if (userAgent != null && userAgent.startsWith("opera") && message instanceof String) {
-                StringBuilder sb = new StringBuilder("<script id=\"atmosphere_")
-                        .append(uniqueScriptToken.getAndIncrement())
-                        .append("\">")
-                        .append("window.parent.$.atmosphere.streamingCallback")
-                        .append("('")
-                        .append(message.toString())
-                        .append("');</script>");
-                message = sb.toString();
-                return new BroadcastAction(BroadcastAction.ACTION.CONTINUE, message);
-            }
+        if (isOpera(request) && message instanceof String) {
+            StringBuilder sb = new StringBuilder("<script id=\"atmosphere_")
+                    .append(uniqueScriptToken.getAndIncrement())
+                    .append("\">")
+                    .append("window.parent.$.atmosphere.streamingCallback")
+                    .append("('")
+                    .append(message.toString())
+                    .append("');</script>");
+            message = sb.toString();
+            return new BroadcastAction(BroadcastAction.ACTION.CONTINUE, message);
         }
         return new BroadcastAction(BroadcastAction.ACTION.CONTINUE, null);
     }
+
+    private boolean isOpera(HttpServletRequest request) {
+        String userAgent = request.getHeader("User-Agent");
+        return userAgent != null && userAgent.toLowerCase().startsWith("opera");
+    }
 }
 
 
@@ -40,6 +40,7 @@ package org.atmosphere.container;
 import com.sun.grizzly.tcp.Request;
 import com.sun.grizzly.websockets.BaseServerWebSocket;
 import com.sun.grizzly.websockets.DataFrame;
+import com.sun.grizzly.websockets.FrameType;
 import com.sun.grizzly.websockets.WebSocket;
 import com.sun.grizzly.websockets.WebSocketApplication;
 import com.sun.grizzly.websockets.WebSocketEngine;
@@ -56,6 +57,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Websocket Portable Runtime implementation on top of GlassFish 3.0.1 and up.
@@ -66,6 +69,8 @@ public class GlassFishWebSocketSupport extends GrizzlyCometSupport {
 
     private static final Logger logger = LoggerFactory.getLogger(GlassFishWebSocketSupport.class);
 
+    private static final AtomicBoolean binaryWarning = new AtomicBoolean(false);
+
     public GlassFishWebSocketSupport(AtmosphereConfig config) {
         super(config);
     }
@@ -111,22 +116,53 @@ public class GlassFishWebSocketSupport extends GrizzlyCometSupport {
      */
     public class GrizzlyApplication extends WebSocketApplication {
 
-        private WebSocketProcessor webSocketProcessor;
+        // Grizzly's WebSocket don't override equals/hashCode, hence they are keyed by identity.
+        private final ConcurrentHashMap<WebSocket, WebSocketProcessor> webSocketProcessors =
+                new ConcurrentHashMap<WebSocket, WebSocketProcessor>();
 
         public void onConnect(WebSocket w) {
+            WebSocketProcessor webSocketProcessor = newWebSocketProcessor(w);
+            // Registered first so the messages received while connecting find it.
+            webSocketProcessors.put(w, webSocketProcessor);
+            try {
+                connect(w, webSocketProcessor);
+            } catch (IOException e) {
+                logger.warn("failed to connect to web socket", e);
+            }
+        }
 
+        /**
+         * Create the {@link WebSocketProcessor} of a newly connected {@link WebSocket}.
+         *
+         * @param w the {@link WebSocket}
+         * @return a {@link WebSocketProcessor}
+         */
+        protected WebSocketProcessor newWebSocketProcessor(WebSocket w) {
             if (!BaseServerWebSocket.class.isAssignableFrom(w.getClass())) {
                 throw new IllegalStateException();
             }
+            return new WebSocketProcessor(config.getServlet(), new GrizzlyWebSocketSupport(w));
+        }
 
+        /**
+         * Dispatch the WebSocket handshake to the {@link org.atmosphere.cpr.AtmosphereServlet}.
+         *
+         * @param w                  the {@link WebSocket}
+         * @param webSocketProcessor its {@link WebSocketProcessor}
+         * @throws IOException
+         */
+        protected void connect(WebSocket w, WebSocketProcessor webSocketProcessor) throws IOException {
             BaseServerWebSocket webSocket = BaseServerWebSocket.class.cast(w);
+            webSocketProcessor.connect(new HttpServletRequestWrapper(webSocket.getRequest()));
+        }
 
-            webSocketProcessor = new WebSocketProcessor(config.getServlet(), new GrizzlyWebSocketSupport(webSocket));
-            try {
-                webSocketProcessor.connect(new HttpServletRequestWrapper(webSocket.getRequest()));
-            } catch (IOException e) {
-                logger.warn("failed to connect to web socket", e);
-            }
+        /**
+         * Return the number of connected {@link WebSocket}.
+         *
+         * @return the number of connected {@link WebSocket}.
+         */
+        public int getWebSocketCount() {
+            return webSocketProcessors.size();
         }
 
         @Override
@@ -135,11 +171,25 @@ public class GlassFishWebSocketSupport extends GrizzlyCometSupport {
         }
 
         public void onMessage(WebSocket webSocket, DataFrame dataFrame) {
-            webSocketProcessor.broadcast((byte) 0x00, dataFrame.getTextPayload());
+            WebSocketProcessor webSocketProcessor = webSocketProcessors.get(webSocket);
+            if (webSocketProcessor == null) {
+                logger.debug("message received from a closed web socket: {}", webSocket);
+                return;
+            }
+
+            if (dataFrame.getType() == FrameType.TEXT) {
+                webSocketProcessor.broadcast(WebSocketSupport.TEXT_FRAME, dataFrame.getTextPayload());
+            } else {
+                byte[] b = dataFrame.getBinaryPayload();
+                webSocketProcessor.broadcast(WebSocketSupport.BINARY_FRAME, b, 0, b.length);
+            }
         }
 
         public void onClose(WebSocket webSocket) {
-            webSocketProcessor.close();
+            WebSocketProcessor webSocketProcessor = webSocketProcessors.remove(webSocket);
+            if (webSocketProcessor != null) {
+                webSocketProcessor.close();
+            }
         }
 
     }
@@ -168,11 +218,19 @@ public class GlassFishWebSocketSupport extends GrizzlyCometSupport {
         }
 
         public void write(byte frame, byte[] data) throws IOException {
-            webSocket.send(new String(data));
+            write(frame, data, 0, data.length);
         }
 
         public void write(byte frame, byte[] data, int offset, int length) throws IOException {
-            webSocket.send(new String(data, offset, length));
+            if (frame == BINARY_FRAME) {
+                if (!binaryWarning.getAndSet(true)) {
+                    logger.warn("Grizzly WebSocket only supports text frames, binary frames are sent as ISO-8859-1 text");
+                }
+                // One char per byte, so the client can read the bytes back with charCodeAt().
+                webSocket.send(new String(data, offset, length, "ISO-8859-1"));
+            } else {
+                webSocket.send(new String(data, offset, length, "UTF-8"));
+            }
         }
 
         public void close() throws IOException {
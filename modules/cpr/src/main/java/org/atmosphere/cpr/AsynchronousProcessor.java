@@ -41,6 +41,7 @@ package org.atmosphere.cpr;
 import org.atmosphere.cpr.AtmosphereServlet.Action;
 import org.atmosphere.cpr.AtmosphereServlet.AtmosphereConfig;
 import org.atmosphere.cpr.AtmosphereServlet.AtmosphereHandlerWrapper;
+import org.atmosphere.metrics.NodeStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,9 +53,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Base class which implement the semantics of suspending and resuming of a
@@ -75,7 +74,7 @@ public abstract class AsynchronousProcessor implements CometSupport<AtmosphereRe
     protected final ConcurrentHashMap<HttpServletRequest, AtmosphereResource<HttpServletRequest,HttpServletResponse>>
             aliveRequests = new ConcurrentHashMap<HttpServletRequest, AtmosphereResource<HttpServletRequest,HttpServletResponse>>();
 
-    private final ScheduledExecutorService closedDetector = Executors.newScheduledThreadPool(1);
+    private InactivityTracker<AtmosphereResource<HttpServletRequest,HttpServletResponse>> closedDetector;
 
     public AsynchronousProcessor(AtmosphereConfig config) {
         this.config = config;
@@ -90,24 +89,54 @@ public abstract class AsynchronousProcessor implements CometSupport<AtmosphereRe
             final long maxInactiveTime = Long.parseLong(maxInactive);
             if (maxInactiveTime <= 0) return;
 
-            closedDetector.scheduleAtFixedRate(new Runnable(){
-                public void run(){
-                    for (HttpServletRequest req: aliveRequests.keySet()){
-                        long l = (Long) req.getAttribute(MAX_INACTIVE);
-                        if (l > 0 && System.currentTimeMillis() - l > maxInactiveTime){
+            closedDetector = new InactivityTracker<AtmosphereResource<HttpServletRequest,HttpServletResponse>>(maxInactiveTime, 1000) {
+                @Override
+                protected void expired(final AtmosphereResource<HttpServletRequest,HttpServletResponse> r) {
+                    // cancelled() invokes the AtmosphereHandler, never do that from the timer Thread.
+                    Runnable cancel = new Runnable() {
+                        public void run() {
+                            HttpServletRequest req = r.getRequest();
                             try {
-                                cancelled(req,aliveRequests.get(req).getResponse());
-                                req.setAttribute(MAX_INACTIVE, (long)-1);                                
+                                cancelled(req, r.getResponse());
+                                req.setAttribute(MAX_INACTIVE, (long) -1);
                             } catch (IOException e) {
                             } catch (ServletException e) {
                             }
                         }
+                    };
+
+                    try {
+                        r.getBroadcaster().getBroadcasterConfig().getAsyncWriteService().execute(cancel);
+                    } catch (RejectedExecutionException e) {
+                        cancel.run();
                     }
                 }
-            },0,1, TimeUnit.SECONDS);
+            }.start(HashedWheelTimer.getDefault());
+        }
+    }
+
+    /**
+     * Mark a suspended {@link AtmosphereResource} as active, e.g. when a message is written to it. This is a
+     * timestamp update, the inactive connections detection is done by the timer.
+     *
+     * @param r an {@link AtmosphereResourceImpl}
+     */
+    void touch(AtmosphereResourceImpl r) {
+        if (closedDetector != null) {
+            closedDetector.touch(r);
+        }
+    }
+
+    private void untrack(AtmosphereResource<HttpServletRequest,HttpServletResponse> r) {
+        if (closedDetector != null && r != null) {
+            closedDetector.untrack(r);
+        }
+        if (r instanceof AtmosphereResourceImpl) {
+            AtmosphereResourceImpl impl = (AtmosphereResourceImpl) r;
+            NodeStats.getDefault().resourceResumed(impl.container, impl.transport);
         }
     }
-                                                              
+
     /**
      * Is {@link HttpSession} supported
      *
@@ -199,7 +228,18 @@ public abstract class AsynchronousProcessor implements CometSupport<AtmosphereRe
                 
         if (resource.getAtmosphereResourceEvent().isSuspended()) {
             req.setAttribute(MAX_INACTIVE, System.currentTimeMillis());
-            aliveRequests.put(req, resource);
+            AtmosphereResource<HttpServletRequest, HttpServletResponse> previous = aliveRequests.put(req, resource);
+            if (previous != resource) {
+                // The request was suspended again with a new resource, the previous one is no longer tracked.
+                untrack(previous);
+                // Remembered, so the same counters are decremented once the resource is no longer suspended.
+                resource.container = getContainerName();
+                resource.transport = transport(req);
+                NodeStats.getDefault().resourceSuspended(resource.container, resource.transport);
+            }
+            if (closedDetector != null) {
+                closedDetector.track(resource);
+            }
         }
         return resource.action();
     }
@@ -208,7 +248,26 @@ public abstract class AsynchronousProcessor implements CometSupport<AtmosphereRe
      * {@inheritDoc}
      */
     public void action(AtmosphereResourceImpl r) {
-        aliveRequests.remove(r.getRequest());
+        untrack(aliveRequests.remove(r.getRequest()));
+    }
+
+    /**
+     * Return the transport used by a suspended request.
+     *
+     * @param req the {@link HttpServletRequest}
+     * @return websocket, long-polling or streaming
+     */
+    protected String transport(HttpServletRequest req) {
+        // The Connection header may list other tokens, e.g "keep-alive, Upgrade".
+        String upgrade = req.getHeader("Upgrade");
+        if (upgrade != null && upgrade.equalsIgnoreCase("websocket")) {
+            return "websocket";
+        }
+        Object resumeOnBroadcast = req.getAttribute(AtmosphereServlet.RESUME_ON_BROADCAST);
+        if (resumeOnBroadcast != null && Boolean.valueOf(resumeOnBroadcast.toString())) {
+            return "long-polling";
+        }
+        return "streaming";
     }
 
     /**
@@ -326,6 +385,7 @@ public abstract class AsynchronousProcessor implements CometSupport<AtmosphereRe
             if (b instanceof DefaultBroadcaster) {
                 ((DefaultBroadcaster)b).broadcastOnResume(re);
             }
+            re.getMailbox().close(false);
 
             if (re.getRequest().getAttribute(AtmosphereServlet.RESUMED_ON_TIMEOUT) != null) {
                 re.getAtmosphereResourceEvent().setIsResumedOnTimeout(
@@ -364,7 +424,7 @@ public abstract class AsynchronousProcessor implements CometSupport<AtmosphereRe
         }
         finally {
             try {
-                aliveRequests.remove(req);
+                untrack(aliveRequests.remove(req));
                 r.notifyListeners();
             }
             finally {
@@ -400,6 +460,8 @@ public abstract class AsynchronousProcessor implements CometSupport<AtmosphereRe
             re = (AtmosphereResourceImpl) req.getAttribute(AtmosphereServlet.ATMOSPHERE_RESOURCE);
             if (re != null) {
                 re.getAtmosphereResourceEvent().setCancelled(true);
+                // The client is gone, don't write the pending messages.
+                re.getMailbox().close();
                 invokeAtmosphereHandler(re);
                 re.setIsInScope(false);                
             }
@@ -410,7 +472,7 @@ public abstract class AsynchronousProcessor implements CometSupport<AtmosphereRe
         }
         finally {
             try {
-                aliveRequests.remove(req);
+                untrack(aliveRequests.remove(req));
                 if (re != null) {
                     re.notifyListeners();
                 }
@@ -427,7 +489,9 @@ public abstract class AsynchronousProcessor implements CometSupport<AtmosphereRe
     }
 
     void shutdown() {
-        closedDetector.shutdownNow();
+        if (closedDetector != null) {
+            closedDetector.stop();
+        }
         for (AtmosphereResource<HttpServletRequest,HttpServletResponse> resource : aliveRequests.values()) {
             try {
                 resource.resume();
@@ -43,6 +43,8 @@ import org.atmosphere.cpr.AtmosphereServlet.AtmosphereConfig;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -185,4 +187,22 @@ public interface AtmosphereResource<E, F> {
      */
     public AtmosphereResourceEvent getAtmosphereResourceEvent();
 
+    /**
+     * Tag this {@link AtmosphereResource}, e.g. with a user id, a room or a locale. A tag can have more than one value.
+     * Tags are indexed by the {@link Broadcaster} when the {@link AtmosphereResource} is suspended, and can be used
+     * to target a subset of the suspended responses with {@link Broadcaster#broadcast(Object, Selector)}.
+     *
+     * @param name  the tag's name
+     * @param value the tag's value
+     * @return this
+     */
+    public AtmosphereResource<E, F> tag(String name, String value);
+
+    /**
+     * Return the tags of this {@link AtmosphereResource}, by name.
+     *
+     * @return an unmodifiable {@link Map} of tag's name and values.
+     */
+    public Map<String, Set<String>> getTags();
+
 }
@@ -62,6 +62,9 @@ public class AtmosphereResourceEventImpl implements AtmosphereResourceEvent<Http
     // The current message
     protected Object message;
 
+    // The encoded form of the current message, shared with other resources.
+    private volatile PayloadCache payloadCache;
+
     protected final AtmosphereResourceImpl resource;
 
     public AtmosphereResourceEventImpl(AtmosphereResourceImpl resource) {
@@ -118,6 +121,25 @@ public class AtmosphereResourceEventImpl implements AtmosphereResourceEvent<Http
         this.message = message;
     }
 
+    /**
+     * Return the {@link PayloadCache} associated with the current message. Use {@link PayloadCache#of} to make sure
+     * the cache belongs to the current message.
+     *
+     * @return the {@link PayloadCache}, or null
+     */
+    public PayloadCache getPayloadCache() {
+        return payloadCache;
+    }
+
+    /**
+     * Set the {@link PayloadCache} associated with the current message.
+     *
+     * @param payloadCache the {@link PayloadCache}
+     */
+    public void setPayloadCache(PayloadCache payloadCache) {
+        this.payloadCache = payloadCache;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -47,7 +47,11 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -98,6 +102,15 @@ public class AtmosphereResourceImpl implements
 
     private final AtomicBoolean isSuspendEvent = new AtomicBoolean(false);
 
+    private final Mailbox mailbox = new Mailbox(this);
+
+    private final ConcurrentHashMap<String, Set<String>> tags = new ConcurrentHashMap<String, Set<String>>();
+
+    private volatile Classification classification;
+
+    // Set by the AsynchronousProcessor when the resource is suspended, for the NodeStats.
+    String container;
+    String transport;
 
     /**
      * Create an {@link AtmosphereResource}.
@@ -120,6 +133,39 @@ public class AtmosphereResourceImpl implements
 
         String nocache = config.getInitParameter(AtmosphereServlet.NO_CACHE_HEADERS);
         injectCacheHeaders = nocache != null ? false : true;
+        configureMailbox();
+    }
+
+    private void configureMailbox() {
+        String s = config.getInitParameter(AtmosphereServlet.MAX_PENDING_WRITES);
+        try {
+            if (s != null) {
+                mailbox.setMaxPending(Integer.parseInt(s.trim()));
+            }
+            s = config.getInitParameter(AtmosphereServlet.WRITE_TIMEOUT);
+            if (s != null) {
+                mailbox.setWriteTimeout(Long.parseLong(s.trim()));
+            }
+            s = config.getInitParameter(AtmosphereServlet.SLOW_CONSUMER_POLICY);
+            if (s != null) {
+                mailbox.setPolicy(Mailbox.POLICY.valueOf(s.trim().toUpperCase()));
+            }
+            s = config.getInitParameter(AtmosphereServlet.BROADCASTER_CONFLATION);
+            if (s != null) {
+                mailbox.setConflation(Boolean.parseBoolean(s.trim()));
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid slow consumer configuration value {}", s);
+        }
+    }
+
+    /**
+     * Return the {@link Mailbox} used to queue the messages written to this resource.
+     *
+     * @return the {@link Mailbox}
+     */
+    public Mailbox getMailbox() {
+        return mailbox;
     }
 
     /**
@@ -129,6 +175,32 @@ public class AtmosphereResourceImpl implements
         return event;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public AtmosphereResource<HttpServletRequest, HttpServletResponse> tag(String name, String value) {
+        Set<String> values = tags.get(name);
+        if (values == null) {
+            values = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            Set<String> prev = tags.putIfAbsent(name, values);
+            if (prev != null) {
+                values = prev;
+            }
+        }
+
+        if (values.add(value) && broadcaster instanceof DefaultBroadcaster) {
+            ((DefaultBroadcaster) broadcaster).getTagIndex().update(this);
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Set<String>> getTags() {
+        return Collections.<String, Set<String>>unmodifiableMap(tags);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -141,6 +213,8 @@ public class AtmosphereResourceImpl implements
             if (b instanceof DefaultBroadcaster) {
                 ((DefaultBroadcaster)b).broadcastOnResume(this);
             }
+            // The queued messages are still written, the new one are discarded.
+            mailbox.close(false);
 
             notifyListeners();
             listeners.clear();
@@ -312,6 +386,44 @@ public class AtmosphereResourceImpl implements
         this.isInScope = isInScope;
     }
 
+    /**
+     * Mark this resource as active, so the inactive connections detection doesn't close it.
+     */
+    void touch() {
+        if (cometSupport instanceof AsynchronousProcessor) {
+            ((AsynchronousProcessor) cometSupport).touch(this);
+        }
+    }
+
+    /**
+     * Return the {@link ClassifiedBroadcastFilter} key of this resource for a {@link BroadcasterConfig}. The key is
+     * computed once and recomputed only when the filters of that {@link BroadcasterConfig} change.
+     *
+     * @param config the {@link BroadcasterConfig}
+     * @return the classification key, or null if the request can't be classified.
+     */
+    Object classification(BroadcasterConfig config) {
+        int version = config.getFilterVersion();
+        Classification c = classification;
+        if (c == null || c.config != config || c.version != version) {
+            c = new Classification(config, version, config.classify(getRequest()));
+            classification = c;
+        }
+        return c.key;
+    }
+
+    private final static class Classification {
+        final BroadcasterConfig config;
+        final int version;
+        final Object key;
+
+        Classification(BroadcasterConfig config, int version, Object key) {
+            this.config = config;
+            this.version = version;
+            this.key = key;
+        }
+    }
+
     /**
      * Is the {@link HttpServletRequest} still valid.
      * @return true if the {@link HttpServletRequest} still vali
@@ -49,6 +49,8 @@ import org.atmosphere.di.InjectorProvider;
 import org.atmosphere.di.ServletContextHolder;
 import org.atmosphere.di.ServletContextProvider;
 import org.atmosphere.handler.ReflectorServletProcessor;
+import org.atmosphere.handler.StatsAtmosphereHandler;
+import org.atmosphere.metrics.NodeStats;
 import org.atmosphere.util.AtmosphereConfigReader;
 import org.atmosphere.util.AtmosphereConfigReader.Property;
 import org.atmosphere.util.IntrospectionUtils;
@@ -89,7 +91,12 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The {@link AtmosphereServlet} acts as a dispatcher for {@link AtmosphereHandler}
@@ -133,6 +140,26 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *      &lt;param-value&gt;class-name&lt;/param-value&gt;
  *  &lt;/init-param&gt;
  * </code></pre></p>
+ * The memory used by a {@link org.atmosphere.cache.RingBufferBroadcasterCache} can be bounded, in bytes, per
+ * {@link Broadcaster} and for all the {@link Broadcaster}.
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterCacheMaxBytes&lt;/param-name&gt;
+ *      &lt;param-value&gt;1048576&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterCacheMaxGlobalBytes&lt;/param-name&gt;
+ *      &lt;param-value&gt;268435456&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * A {@link org.atmosphere.cache.MappedBroadcasterCache} persists the messages in memory-mapped files, bounded by
+ * org.atmosphere.cpr.broadcasterCacheMaxBytes, in the following directory.
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterCacheDirectory&lt;/param-name&gt;
+ *      &lt;param-value&gt;/var/cache/atmosphere&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
  * You can also for Atmosphere to use {@link java.io.OutputStream} for all write operations.
  * <p><pre><code>
  *  &lt;init-param&gt;
@@ -161,6 +188,111 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *      &lt;param-value&gt;BroadcastFilter class name separated by coma&lt;/param-value&gt;
  *  &lt;/init-param&gt;
  * </code></pre></p>
+ * You can also bound the number of messages a {@link Broadcaster} can queue, and what happens when the queue is
+ * full (BLOCK, DROP_OLDEST, DROP_NEWEST or FAIL, see {@link BroadcasterConfig.OVERFLOW_POLICY})
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterQueueCapacity&lt;/param-name&gt;
+ *      &lt;param-value&gt;10000&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterQueueOverflowPolicy&lt;/param-name&gt;
+ *      &lt;param-value&gt;DROP_OLDEST&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * The queue can also be replaced by a preallocated {@link RingBuffer}, which doesn't allocate per message.
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterRingBuffer&lt;/param-name&gt;
+ *      &lt;param-value&gt;true&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * You can also protect a {@link Broadcaster} against slow clients by limiting the number of messages waiting to be
+ * written to an {@link AtmosphereResource}, and the time a write can take. When a limit is reached, the
+ * {@link Mailbox.POLICY} (CONFLATE, DROP or DISCONNECT) is applied.
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.maxPendingWrites&lt;/param-name&gt;
+ *      &lt;param-value&gt;100&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.writeTimeout&lt;/param-name&gt;
+ *      &lt;param-value&gt;30000&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.slowConsumerPolicy&lt;/param-name&gt;
+ *      &lt;param-value&gt;DISCONNECT&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * When only the latest value of a message matters, messages implementing {@link Conflatable} can replace the
+ * pending message with the same key, in the {@link Broadcaster} queue and in every {@link AtmosphereResource}
+ * {@link Mailbox}.
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterConflation&lt;/param-name&gt;
+ *      &lt;param-value&gt;true&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * You can also configure all {@link Broadcaster} to share a fixed number of dispatch Threads ({@link SharedDispatcher})
+ * instead of using dedicated Threads.
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.sharedDispatcher&lt;/param-name&gt;
+ *      &lt;param-value&gt;true&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * The shared dispatcher uses one lane per core and writes with at most eight Threads per core. Both can be changed:
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.sharedDispatcherLanes&lt;/param-name&gt;
+ *      &lt;param-value&gt;4&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.sharedDispatcherWriteThreads&lt;/param-name&gt;
+ *      &lt;param-value&gt;64&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * A {@link Broadcaster} with more than 10000 suspended {@link AtmosphereResource} splits the delivery of a message
+ * in chunks processed in parallel. The threshold (-1 to disable) and the size of the chunks can be changed:
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterFanOutThreshold&lt;/param-name&gt;
+ *      &lt;param-value&gt;50000&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterFanOutChunkSize&lt;/param-name&gt;
+ *      &lt;param-value&gt;2048&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * The queue depth, delivery and write latencies, failures and cache hit ratio of every {@link Broadcaster} can be
+ * recorded in the {@link org.atmosphere.metrics.MetricsRegistry} and exposed as JMX MBeans:
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.broadcasterMetrics&lt;/param-name&gt;
+ *      &lt;param-value&gt;true&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * A JSON snapshot of the node (suspended connections by transport and container, {@link Broadcaster} by type,
+ * messages per second, queue depth, asynchronous write Threads) can be served under a servlet path:
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.statsMapping&lt;/param-name&gt;
+ *      &lt;param-value&gt;/stats&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
+ * The messages received from a WebSocket are broadcasted, in order, by a pool of Threads (one per core by default)
+ * instead of the container's I/O Thread. A WebSocket with more than 1024 received messages waiting to be broadcasted
+ * is closed. The size of the pool and the limit (-1 for unbounded) can be changed:
+ * <p><pre><code>
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.webSocketInboundThreads&lt;/param-name&gt;
+ *      &lt;param-value&gt;16&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ *  &lt;init-param&gt;
+ *      &lt;param-name&gt;org.atmosphere.cpr.webSocketMaxInFlight&lt;/param-name&gt;
+ *      &lt;param-value&gt;256&lt;/param-value&gt;
+ *  &lt;/init-param&gt;
+ * </code></pre></p>
  * The Atmosphere Framework can also be used as a Servlet Filter ({@link AtmosphereFilter}).
  * <p/>
  * If you are planning to use JSP, Servlet or JSF, you can instead use the
@@ -189,6 +321,9 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
     public final static String BROADCASTER_FACTORY = "org.atmosphere.cpr.broadcasterFactory";
     public final static String BROADCASTER_CLASS = "org.atmosphere.cpr.broadcasterClass";
     public final static String BROADCASTER_CACHE = "org.atmosphere.cpr.broadcasterCacheClass";
+    public final static String BROADCASTER_CACHE_MAX_BYTES = "org.atmosphere.cpr.broadcasterCacheMaxBytes";
+    public final static String BROADCASTER_CACHE_MAX_GLOBAL_BYTES = "org.atmosphere.cpr.broadcasterCacheMaxGlobalBytes";
+    public final static String BROADCASTER_CACHE_DIRECTORY = "org.atmosphere.cpr.broadcasterCacheDirectory";
     public final static String PROPERTY_COMET_SUPPORT = "org.atmosphere.cpr.cometSupport";
     public final static String PROPERTY_SESSION_SUPPORT = "org.atmosphere.cpr.sessionSupport";
     public final static String PRIMEFACES_SERVLET = "org.primefaces.comet.PrimeFacesCometServlet";
@@ -207,6 +342,23 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
     public final static String NO_CACHE_HEADERS = "org.atmosphere.cpr.noCacheHeaders";
     public final static String CONTAINER_RESPONSE = "org.atmosphere.jersey.containerResponse";
     public final static String BROADCASTER_LIFECYCLE_POLICY = "org.atmosphere.cpr.broadcasterLifeCyclePolicy";
+    public final static String BROADCASTER_QUEUE_CAPACITY = "org.atmosphere.cpr.broadcasterQueueCapacity";
+    public final static String BROADCASTER_QUEUE_OVERFLOW_POLICY = "org.atmosphere.cpr.broadcasterQueueOverflowPolicy";
+    public final static String BROADCASTER_QUEUE_OVERFLOW_TIMEOUT = "org.atmosphere.cpr.broadcasterQueueOverflowTimeout";
+    public final static String BROADCASTER_RING_BUFFER = "org.atmosphere.cpr.broadcasterRingBuffer";
+    public final static String MAX_PENDING_WRITES = "org.atmosphere.cpr.maxPendingWrites";
+    public final static String WRITE_TIMEOUT = "org.atmosphere.cpr.writeTimeout";
+    public final static String SLOW_CONSUMER_POLICY = "org.atmosphere.cpr.slowConsumerPolicy";
+    public final static String BROADCASTER_CONFLATION = "org.atmosphere.cpr.broadcasterConflation";
+    public final static String SHARED_DISPATCHER = "org.atmosphere.cpr.sharedDispatcher";
+    public final static String SHARED_DISPATCHER_LANES = "org.atmosphere.cpr.sharedDispatcherLanes";
+    public final static String SHARED_DISPATCHER_WRITE_THREADS = "org.atmosphere.cpr.sharedDispatcherWriteThreads";
+    public final static String BROADCASTER_FAN_OUT_THRESHOLD = "org.atmosphere.cpr.broadcasterFanOutThreshold";
+    public final static String BROADCASTER_FAN_OUT_CHUNK_SIZE = "org.atmosphere.cpr.broadcasterFanOutChunkSize";
+    public final static String BROADCASTER_METRICS = "org.atmosphere.cpr.broadcasterMetrics";
+    public final static String STATS_MAPPING = "org.atmosphere.cpr.statsMapping";
+    public final static String WEBSOCKET_INBOUND_THREADS = "org.atmosphere.cpr.webSocketInboundThreads";
+    public final static String WEBSOCKET_MAX_IN_FLIGHT = "org.atmosphere.cpr.webSocketMaxInFlight";
 
 
     private static final AtmospherePingSupport ATMOSPHERE_PING_SUPPORT = new AtmospherePingSupport();
@@ -240,6 +392,11 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
     protected static String broadcasterCacheClassName;
     private boolean webSocketEnabled = false;
     private String broadcasterLifeCyclePolicy = "NEVER";
+    private SharedDispatcher sharedDispatcher;
+    private int webSocketInboundThreads = Runtime.getRuntime().availableProcessors();
+    private int webSocketMaxInFlight = 1024;
+    private ExecutorService webSocketInboundService;
+    private boolean timerRetained = false;
 
     public static final class AtmosphereHandlerWrapper {
 
@@ -434,7 +591,7 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
 
         Class bc = (b == null ? DefaultBroadcaster.class : b);
         logger.info("using default broadcaster class: {}", bc);
-        BroadcasterFactory.setBroadcasterFactory(new DefaultBroadcasterFactory(bc, broadcasterLifeCyclePolicy), config);
+        BroadcasterFactory.setBroadcasterFactory(new DefaultBroadcasterFactory(bc, broadcasterLifeCyclePolicy, sharedDispatcher), config);
     }
 
 
@@ -564,6 +721,12 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
             super.init(sc);
 
             ServletContextHolder.register(this);
+            synchronized (this) {
+                if (!timerRetained) {
+                    NodeStats.getDefault().startSampling(HashedWheelTimer.retainDefault());
+                    timerRetained = true;
+                }
+            }
 
             ServletConfig scFacade = new ServletConfig() {
 
@@ -593,6 +756,7 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
             doInitParamsForWebSocket(scFacade);
             detectGoogleAppEngine(scFacade);
             loadConfiguration(scFacade);
+            configureStatsHandler(scFacade);
 
             autoDetectContainer();
             configureBroadcaster();
@@ -612,6 +776,19 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
         }
     }
 
+    /**
+     * Mount the {@link StatsAtmosphereHandler} if {@link #STATS_MAPPING} is set.
+     *
+     * @param sc the {@link ServletConfig}
+     */
+    protected void configureStatsHandler(ServletConfig sc) {
+        String s = sc.getInitParameter(STATS_MAPPING);
+        if (s != null && s.trim().length() > 0) {
+            addAtmosphereHandler(s.trim(), new StatsAtmosphereHandler());
+            logger.info("serving statistics under {}", s.trim());
+        }
+    }
+
     protected void configureBroadcaster() throws ClassNotFoundException, InstantiationException, IllegalAccessException {
 
         if (broadcasterFactory == null) {
@@ -620,7 +797,7 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
                             .loadClass(broadcasterClassName);
             logger.info("using broadcaster class: {}", bc.getName());
 
-            broadcasterFactory = new DefaultBroadcasterFactory(bc, broadcasterLifeCyclePolicy);
+            broadcasterFactory = new DefaultBroadcasterFactory(bc, broadcasterLifeCyclePolicy, sharedDispatcher);
             config.broadcasterFactory = broadcasterFactory;
         }
 
@@ -630,7 +807,7 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
         while (i.hasNext()) {
             e = i.next();
             w = e.getValue();
-            BroadcasterConfig broadcasterConfig = new BroadcasterConfig(broadcasterFilters, config);
+            BroadcasterConfig broadcasterConfig = new BroadcasterConfig(broadcasterFilters, config, sharedDispatcher);
 
             if (w.broadcaster == null) {
                 w.broadcaster = broadcasterFactory.get();
@@ -659,6 +836,63 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
             webSocketEnabled = true;
             sessionSupport(false);
         }
+        s = sc.getInitParameter(WEBSOCKET_INBOUND_THREADS);
+        if (s != null) {
+            try {
+                webSocketInboundThreads = Math.max(1, Integer.parseInt(s.trim()));
+            } catch (NumberFormatException ex) {
+                logger.warn("Invalid {} value {}", WEBSOCKET_INBOUND_THREADS, s);
+            }
+        }
+        s = sc.getInitParameter(WEBSOCKET_MAX_IN_FLIGHT);
+        if (s != null) {
+            try {
+                webSocketMaxInFlight = Integer.parseInt(s.trim());
+            } catch (NumberFormatException ex) {
+                logger.warn("Invalid {} value {}", WEBSOCKET_MAX_IN_FLIGHT, s);
+            }
+        }
+    }
+
+    /**
+     * Return the {@link ExecutorService} broadcasting the messages received from the WebSockets, created on first use.
+     *
+     * @return the {@link ExecutorService} broadcasting the messages received from the WebSockets.
+     */
+    public synchronized ExecutorService getWebSocketInboundService() {
+        if (webSocketInboundService == null) {
+            webSocketInboundService = Executors.newFixedThreadPool(webSocketInboundThreads, new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread t = new Thread(runnable, "Atmosphere-WebSocket-Inbound-" + count.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return webSocketInboundService;
+    }
+
+    /**
+     * Return the maximum number of messages received from a WebSocket and not yet broadcasted. Past that number, the
+     * WebSocket is closed. A value lower than 1 means unbounded.
+     *
+     * @return the maximum number of messages received from a WebSocket and not yet broadcasted.
+     */
+    public int getWebSocketMaxInFlight() {
+        return webSocketMaxInFlight;
+    }
+
+    /**
+     * Set the maximum number of messages received from a WebSocket and not yet broadcasted.
+     *
+     * @param webSocketMaxInFlight the maximum number of messages, or a value lower than 1 for unbounded.
+     */
+    public void setWebSocketMaxInFlight(int webSocketMaxInFlight) {
+        this.webSocketMaxInFlight = webSocketMaxInFlight;
     }
 
     /**
@@ -718,6 +952,30 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
         if (s != null) {
             broadcasterLifeCyclePolicy = s;
         }
+        s = sc.getInitParameter(SHARED_DISPATCHER);
+        if (s != null && Boolean.parseBoolean(s) && sharedDispatcher == null) {
+            int lanes = -1;
+            s = sc.getInitParameter(SHARED_DISPATCHER_LANES);
+            if (s != null) {
+                try {
+                    lanes = Integer.parseInt(s.trim());
+                } catch (NumberFormatException ex) {
+                    logger.warn("Invalid {} value {}", SHARED_DISPATCHER_LANES, s);
+                }
+            }
+            int writeThreads = -1;
+            s = sc.getInitParameter(SHARED_DISPATCHER_WRITE_THREADS);
+            if (s != null) {
+                try {
+                    writeThreads = Integer.parseInt(s.trim());
+                } catch (NumberFormatException ex) {
+                    logger.warn("Invalid {} value {}", SHARED_DISPATCHER_WRITE_THREADS, s);
+                }
+            }
+            sharedDispatcher = new SharedDispatcher(lanes, writeThreads);
+            logger.info("using shared dispatcher with {} lanes and {} write Threads", sharedDispatcher.getLaneCount(),
+                    sharedDispatcher.getWriteThreadCount());
+        }
     }
 
     protected void loadConfiguration(ServletConfig sc) throws ServletException {
@@ -857,6 +1115,24 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
             factory.destroy();
             BroadcasterFactory.factory = null;
         }
+
+        if (sharedDispatcher != null) {
+            sharedDispatcher.shutdown();
+            sharedDispatcher = null;
+        }
+
+        synchronized (this) {
+            if (webSocketInboundService != null) {
+                webSocketInboundService.shutdown();
+                webSocketInboundService = null;
+            }
+            // Other AtmosphereServlet may still use the timer.
+            if (timerRetained) {
+                NodeStats.getDefault().stopSampling();
+                HashedWheelTimer.releaseDefault();
+                timerRetained = false;
+            }
+        }
     }
 
     /**
@@ -1430,9 +1706,22 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
 
         return new WebSocket() {
             private WebSocketProcessor webSocketProcessor;
+            private JettyWebSocketSupport webSocketSupport;
 
             public void onConnect(WebSocket.Outbound outbound) {
-                webSocketProcessor = new WebSocketProcessor(AtmosphereServlet.this, new JettyWebSocketSupport(outbound));
+                webSocketSupport = new JettyWebSocketSupport(outbound, new Executor() {
+                    // The queued messages are written by the same Threads as the broadcasted ones.
+                    public void execute(Runnable command) {
+                        AtmosphereResource<?, ?> r =
+                                (AtmosphereResource<?, ?>) request.getAttribute(ATMOSPHERE_RESOURCE);
+                        if (r == null || r.getBroadcaster() == null) {
+                            command.run();
+                            return;
+                        }
+                        r.getBroadcaster().getBroadcasterConfig().getAsyncWriteService().execute(command);
+                    }
+                });
+                webSocketProcessor = new WebSocketProcessor(AtmosphereServlet.this, webSocketSupport);
                 try {
                     webSocketProcessor.connect(new JettyRequestFix(request));
                 } catch (IOException e) {
@@ -1440,12 +1729,15 @@ public class AtmosphereServlet extends AbstractAsyncServlet implements CometProc
                 }
             }
 
+            // The client sent a message, so it is done with the handshake.
             public void onMessage(byte frame, String data) {
+                webSocketSupport.readyAsync();
                 webSocketProcessor.broadcast(frame, data);
             }
 
             public void onMessage(byte frame, byte[] data, int offset, int length) {
-                webSocketProcessor.broadcast(frame, new String(data, offset, length));
+                webSocketSupport.readyAsync();
+                webSocketProcessor.broadcast(frame, data, offset, length);
             }
 
             public void onDisconnect() {
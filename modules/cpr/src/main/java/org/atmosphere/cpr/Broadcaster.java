@@ -102,6 +102,15 @@ public interface Broadcaster {
      */
     <T> Future<T> broadcast(T o);
 
+    /**
+     * Broadcast the {@link Object} to all suspended response, like {@link #broadcast(Object)}, without creating a
+     * {@link Future}. Use it when the result of the broadcast operation isn't needed.
+     *
+     * @param o and {@link Object} to be broadcasted.
+     * @return true if the {@link Object} has been accepted for broadcast.
+     */
+    boolean broadcastAndForget(Object o);
+
     /**
      * Delay the broadcast operation. The {@link Object} will be broadcasted
      * when the first {@link #broadcast(java.lang.Object)}
@@ -180,6 +189,18 @@ public interface Broadcaster {
      */
     <T> Future<T> broadcast(T o, Set<AtmosphereResource<?, ?>> subset);
 
+    /**
+     * Broadcast the {@link Object} to the suspended responses matched by the {@link Selector}. The {@link Selector}
+     * is resolved using the tags of the {@link AtmosphereResource}, see {@link AtmosphereResource#tag(String, String)}
+     *
+     * @param o        and {@link Object} to be broadcasted.
+     * @param selector a {@link Selector}
+     * @return a {@link Future} that can be used to synchronize using the {@link Future#get()}
+     * @throws UnsupportedOperationException if the {@link Broadcaster} can't resolve a {@link Selector}, e.g. the
+     *                                       clustered {@link Broadcaster} of {@link org.atmosphere.util.AbstractBroadcasterProxy}
+     */
+    <T> Future<T> broadcast(T o, Selector selector);
+
     /**
      * Add a {@link AtmosphereResource<?,?>} to the list of item to be notified when
      * the {@link Broadcaster#broadcast} is invoked.
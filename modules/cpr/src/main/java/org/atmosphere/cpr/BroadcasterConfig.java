@@ -39,12 +39,14 @@ package org.atmosphere.cpr;
 
 import org.atmosphere.cpr.BroadcastFilter.BroadcastAction;
 import org.atmosphere.di.InjectorProvider;
+import org.atmosphere.metrics.NodeStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
@@ -63,12 +65,45 @@ public class BroadcasterConfig {
 
     private static final Logger logger = LoggerFactory.getLogger(BroadcasterConfig.class);
 
+    /**
+     * What a {@link Broadcaster} does when its message queue is full.
+     */
+    public enum OVERFLOW_POLICY {
+        /**
+         * Block the publisher until space is available, or the timeout expires. If the timeout expires,
+         * the {@link BroadcasterFuture} fails.
+         */
+        BLOCK,
+        /**
+         * Discard the oldest queued message and cancel its {@link BroadcasterFuture}. Not supported by the
+         * {@link BroadcasterConfig#setRingBuffer(boolean) ring buffer}, which behaves like {@link #BLOCK}.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the message being broadcasted and cancel its {@link BroadcasterFuture}
+         */
+        DROP_NEWEST,
+        /**
+         * Discard the message being broadcasted and fail its {@link BroadcasterFuture} with a
+         * {@link java.util.concurrent.RejectedExecutionException}
+         */
+        FAIL
+    }
+
     protected final ConcurrentLinkedQueue<BroadcastFilter> filters =
             new ConcurrentLinkedQueue<BroadcastFilter>();
 
     protected final ConcurrentLinkedQueue<PerRequestBroadcastFilter> perRequestFilters =
             new ConcurrentLinkedQueue<PerRequestBroadcastFilter>();
 
+    private static final BroadcastFilter[] NO_FILTERS = new BroadcastFilter[0];
+    private static final PerRequestBroadcastFilter[] NO_PER_REQUEST_FILTERS = new PerRequestBroadcastFilter[0];
+
+    // Immutable snapshots of the filters, rebuilt every time a filter is added or removed.
+    private volatile BroadcastFilter[] filterChain = NO_FILTERS;
+    private volatile PerRequestBroadcastFilter[] perRequestFilterChain = NO_PER_REQUEST_FILTERS;
+    private volatile int filterVersion;
+
     private ExecutorService executorService;
 
     private ExecutorService asyncWriteService;
@@ -83,12 +118,95 @@ public class BroadcasterConfig {
 
     private BroadcasterCache broadcasterCache;
     private AtmosphereServlet.AtmosphereConfig config;
+    private final SharedDispatcher sharedDispatcher;
+
+    private int messageQueueCapacity = -1;
+    private OVERFLOW_POLICY overflowPolicy = OVERFLOW_POLICY.BLOCK;
+    private long overflowTimeout = 5000;
+    private boolean ringBuffer = false;
+    private boolean conflation = false;
+    private int fanOutThreshold = 10000;
+    private int fanOutChunkSize = 1024;
 
     public BroadcasterConfig(String[] list, AtmosphereServlet.AtmosphereConfig config) {
+        this(list, config, null);
+    }
+
+    /**
+     * Create a {@link BroadcasterConfig} that use a {@link SharedDispatcher} instead of dedicated Threads.
+     *
+     * @param list             the list of {@link BroadcastFilter} class names.
+     * @param config           the {@link AtmosphereServlet.AtmosphereConfig}
+     * @param sharedDispatcher the {@link SharedDispatcher}, or null to use dedicated {@link ExecutorService}
+     */
+    public BroadcasterConfig(String[] list, AtmosphereServlet.AtmosphereConfig config, SharedDispatcher sharedDispatcher) {
         this.config = config;
+        this.sharedDispatcher = sharedDispatcher;
         configExecutors();
         configureBroadcasterFilter(list);
         configureBroadcasterCache();
+        configureMessageQueue();
+    }
+
+    private void configureMessageQueue() {
+        if (config == null) {
+            return;
+        }
+
+        String s = config.getInitParameter(AtmosphereServlet.BROADCASTER_QUEUE_CAPACITY);
+        if (s != null) {
+            try {
+                messageQueueCapacity = Integer.parseInt(s.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid {} value {}", AtmosphereServlet.BROADCASTER_QUEUE_CAPACITY, s);
+            }
+        }
+
+        s = config.getInitParameter(AtmosphereServlet.BROADCASTER_QUEUE_OVERFLOW_POLICY);
+        if (s != null) {
+            try {
+                overflowPolicy = OVERFLOW_POLICY.valueOf(s.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unsupported {} value {}", AtmosphereServlet.BROADCASTER_QUEUE_OVERFLOW_POLICY, s);
+            }
+        }
+
+        s = config.getInitParameter(AtmosphereServlet.BROADCASTER_QUEUE_OVERFLOW_TIMEOUT);
+        if (s != null) {
+            try {
+                overflowTimeout = Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid {} value {}", AtmosphereServlet.BROADCASTER_QUEUE_OVERFLOW_TIMEOUT, s);
+            }
+        }
+
+        s = config.getInitParameter(AtmosphereServlet.BROADCASTER_RING_BUFFER);
+        if (s != null) {
+            ringBuffer = Boolean.parseBoolean(s.trim());
+        }
+
+        s = config.getInitParameter(AtmosphereServlet.BROADCASTER_CONFLATION);
+        if (s != null) {
+            conflation = Boolean.parseBoolean(s.trim());
+        }
+
+        s = config.getInitParameter(AtmosphereServlet.BROADCASTER_FAN_OUT_THRESHOLD);
+        if (s != null) {
+            try {
+                fanOutThreshold = Integer.parseInt(s.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid {} value {}", AtmosphereServlet.BROADCASTER_FAN_OUT_THRESHOLD, s);
+            }
+        }
+
+        s = config.getInitParameter(AtmosphereServlet.BROADCASTER_FAN_OUT_CHUNK_SIZE);
+        if (s != null) {
+            try {
+                setFanOutChunkSize(Integer.parseInt(s.trim()));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid {} value {}", AtmosphereServlet.BROADCASTER_FAN_OUT_CHUNK_SIZE, s);
+            }
+        }
     }
 
     private void configureBroadcasterCache() {
@@ -118,9 +236,17 @@ public class BroadcasterConfig {
         this.scheduler = scheduler;
         this.asyncWriteService = asyncWriteService;
         this.config = config;
+        this.sharedDispatcher = null;
     }
 
     protected void configExecutors() {
+        if (sharedDispatcher != null) {
+            // The dispatch Thread will only be created if someone explicitly ask for it.
+            asyncWriteService = sharedDispatcher.getAsyncWriteService();
+            scheduler = sharedDispatcher.getScheduledExecutorService();
+            return;
+        }
+
         executorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
 
             private final AtomicInteger count = new AtomicInteger();
@@ -138,7 +264,7 @@ public class BroadcasterConfig {
 
             @Override
             public Thread newThread(final Runnable runnable) {
-                return new Thread(runnable, "Atmosphere-AsyncWrite-" + count.getAndIncrement());
+                return new Thread(NodeStats.getDefault().writeThread(runnable), "Atmosphere-AsyncWrite-" + count.getAndIncrement());
             }
         });
         defaultAsyncWriteService = asyncWriteService;
@@ -152,23 +278,49 @@ public class BroadcasterConfig {
      * @param executorService to be used when broadcasting.
      */
     public BroadcasterConfig setExecutorService(ExecutorService executorService) {
-        if (this.executorService != null) {
-            this.executorService.shutdown();
+        synchronized (lock) {
+            if (this.executorService != null) {
+                this.executorService.shutdown();
+            }
+            this.executorService = executorService;
         }
-        this.executorService = executorService;
         return this;
     }
 
     /**
      * Return the {@link ExecutorService} this {@link Broadcaster} support.
-     * By default it returns {@link java.util.concurrent.Executors#newFixedThreadPool(int)} of size 1.
+     * By default it returns {@link java.util.concurrent.Executors#newFixedThreadPool(int)} of size 1. When a
+     * {@link SharedDispatcher} is used, the {@link ExecutorService} is only created when this method is invoked.
      *
      * @return An ExecutorService.
      */
     public ExecutorService getExecutorService() {
+        synchronized (lock) {
+            if (executorService == null && sharedDispatcher != null) {
+                executorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(runnable, "Atmosphere-BroadcasterConfig-" + count.getAndIncrement());
+                    }
+                });
+            }
+        }
         return executorService;
     }
 
+    /**
+     * Return the {@link SharedDispatcher} used by this {@link Broadcaster}, or null if it use dedicated
+     * {@link ExecutorService}.
+     *
+     * @return the {@link SharedDispatcher}, or null.
+     */
+    public SharedDispatcher getSharedDispatcher() {
+        return sharedDispatcher;
+    }
+
     /**
      * Set an {@link ExecutorService} which can be used to write
      * {@link org.atmosphere.cpr.AtmosphereResourceEvent#getMessage()}. By default, an {@link Executors#newFixedThreadPool}
@@ -177,7 +329,7 @@ public class BroadcasterConfig {
      * @param asyncWriteService to be used when writing events .
      */
     public BroadcasterConfig setAsyncWriteService(ExecutorService asyncWriteService) {
-        if (this.asyncWriteService != null) {
+        if (this.asyncWriteService != null && !isShared(this.asyncWriteService)) {
             this.asyncWriteService.shutdown();
         }
         this.asyncWriteService = asyncWriteService;
@@ -194,6 +346,162 @@ public class BroadcasterConfig {
         return asyncWriteService;
     }
 
+    /**
+     * Set the maximum number of messages a {@link Broadcaster} can queue before applying its
+     * {@link OVERFLOW_POLICY}. A value lower than 1 means unbounded, which is the default. The message queue is
+     * created when the {@link Broadcaster} starts, on its first broadcast, so the value is ignored once the
+     * {@link Broadcaster} has broadcasted a message.
+     *
+     * @param messageQueueCapacity the maximum number of queued messages.
+     * @return this
+     */
+    public BroadcasterConfig setMessageQueueCapacity(int messageQueueCapacity) {
+        this.messageQueueCapacity = messageQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Return the maximum number of messages a {@link Broadcaster} can queue, or -1 if unbounded.
+     *
+     * @return the maximum number of messages a {@link Broadcaster} can queue, or -1 if unbounded.
+     */
+    public int getMessageQueueCapacity() {
+        return messageQueueCapacity;
+    }
+
+    /**
+     * Set the {@link OVERFLOW_POLICY} applied when the message queue is full. Default is {@link OVERFLOW_POLICY#BLOCK}
+     *
+     * @param overflowPolicy the {@link OVERFLOW_POLICY}
+     * @return this
+     */
+    public BroadcasterConfig setOverflowPolicy(OVERFLOW_POLICY overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * Return the {@link OVERFLOW_POLICY} applied when the message queue is full.
+     *
+     * @return the {@link OVERFLOW_POLICY}
+     */
+    public OVERFLOW_POLICY getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Set the maximum time, in milliseconds, a publisher will be blocked when {@link OVERFLOW_POLICY#BLOCK} is used.
+     * A value lower than 1 means the publisher waits until space is available. Default is 5 seconds.
+     *
+     * @param overflowTimeout the time in milliseconds.
+     * @return this
+     */
+    public BroadcasterConfig setOverflowTimeout(long overflowTimeout) {
+        this.overflowTimeout = overflowTimeout;
+        return this;
+    }
+
+    /**
+     * Return the maximum time, in milliseconds, a publisher will be blocked when {@link OVERFLOW_POLICY#BLOCK} is used.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getOverflowTimeout() {
+        return overflowTimeout;
+    }
+
+    /**
+     * Queue the broadcasted messages inside a preallocated {@link RingBuffer} instead of a
+     * {@link java.util.concurrent.BlockingQueue}. The size of the {@link RingBuffer} is the
+     * {@link #getMessageQueueCapacity()}, rounded up to a power of two, or 1024 if unbounded. Like the capacity, the
+     * value is read when the {@link Broadcaster} starts, on its first broadcast.
+     * <p/>
+     * The queued slots belong to the consumer, so {@link OVERFLOW_POLICY#DROP_OLDEST} can't discard them and
+     * behaves like {@link OVERFLOW_POLICY#BLOCK}.
+     *
+     * @param ringBuffer true to use a {@link RingBuffer}
+     * @return this
+     */
+    public BroadcasterConfig setRingBuffer(boolean ringBuffer) {
+        this.ringBuffer = ringBuffer;
+        return this;
+    }
+
+    /**
+     * Return true if the broadcasted messages are queued inside a {@link RingBuffer}.
+     *
+     * @return true if the broadcasted messages are queued inside a {@link RingBuffer}.
+     */
+    public boolean isRingBuffer() {
+        return ringBuffer;
+    }
+
+    /**
+     * Replace a queued {@link Conflatable} message, broadcasted to all the {@link AtmosphereResource}, by a newer
+     * message with the same key. Not supported when the {@link RingBuffer} is used, as its slots can't be replaced
+     * once published.
+     *
+     * @param conflation true to conflate messages by key
+     * @return this
+     */
+    public BroadcasterConfig setConflation(boolean conflation) {
+        this.conflation = conflation;
+        return this;
+    }
+
+    /**
+     * Return true if queued {@link Conflatable} messages are replaced by newer messages with the same key.
+     *
+     * @return true if queued {@link Conflatable} messages are conflated.
+     */
+    public boolean isConflation() {
+        return conflation;
+    }
+
+    /**
+     * Set the number of {@link AtmosphereResource} above which a message is delivered by several Threads in parallel,
+     * each of them processing a chunk of the {@link AtmosphereResource}. A value <= 0 disables the parallel delivery.
+     *
+     * @param fanOutThreshold the number of {@link AtmosphereResource}
+     * @return this
+     */
+    public BroadcasterConfig setFanOutThreshold(int fanOutThreshold) {
+        this.fanOutThreshold = fanOutThreshold;
+        return this;
+    }
+
+    /**
+     * Return the number of {@link AtmosphereResource} above which a message is delivered in parallel.
+     *
+     * @return the number of {@link AtmosphereResource}, or a value <= 0 if disabled.
+     */
+    public int getFanOutThreshold() {
+        return fanOutThreshold;
+    }
+
+    /**
+     * Set the number of {@link AtmosphereResource} processed by a Thread when a message is delivered in parallel.
+     *
+     * @param fanOutChunkSize the size of a chunk
+     * @return this
+     */
+    public BroadcasterConfig setFanOutChunkSize(int fanOutChunkSize) {
+        if (fanOutChunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + fanOutChunkSize);
+        }
+        this.fanOutChunkSize = fanOutChunkSize;
+        return this;
+    }
+
+    /**
+     * Return the number of {@link AtmosphereResource} processed by a Thread when a message is delivered in parallel.
+     *
+     * @return the size of a chunk
+     */
+    public int getFanOutChunkSize() {
+        return fanOutChunkSize;
+    }
+
     /**
      * Add a {@link BroadcastFilter}
      *
@@ -207,11 +515,58 @@ public class BroadcasterConfig {
             ((BroadcastFilterLifecycle) e).init();
         }
 
-        if (e instanceof PerRequestBroadcastFilter) {
-            perRequestFilters.add((PerRequestBroadcastFilter)e);
+        synchronized (filters) {
+            if (e instanceof PerRequestBroadcastFilter) {
+                perRequestFilters.add((PerRequestBroadcastFilter) e);
+            }
+            filters.offer(e);
+            compileFilters();
+        }
+        return true;
+    }
+
+    /**
+     * Snapshot the filters into arrays, so invoking them doesn't iterate a queue or check their type.
+     */
+    private void compileFilters() {
+        filterChain = filters.toArray(NO_FILTERS);
+        perRequestFilterChain = perRequestFilters.toArray(NO_PER_REQUEST_FILTERS);
+        filterVersion++;
+    }
+
+    /**
+     * Return a number that changes every time a {@link BroadcastFilter} is added or removed.
+     *
+     * @return the version of the filter chain.
+     */
+    public int getFilterVersion() {
+        return filterVersion;
+    }
+
+    /**
+     * Return the key under which the result of the {@link PerRequestBroadcastFilter} can be shared between requests,
+     * or null if at least one filter isn't a {@link ClassifiedBroadcastFilter} or can't classify the request.
+     *
+     * @param request the {@link HttpServletRequest}
+     * @return the classification key, or null.
+     */
+    protected Object classify(HttpServletRequest request) {
+        PerRequestBroadcastFilter[] chain = perRequestFilterChain;
+        if (chain.length == 0) {
+            return null;
         }
 
-        return filters.offer(e);
+        Object[] key = new Object[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+            if (!(chain[i] instanceof ClassifiedBroadcastFilter)) {
+                return null;
+            }
+            key[i] = ((ClassifiedBroadcastFilter) chain[i]).classify(request);
+            if (key[i] == null) {
+                return null;
+            }
+        }
+        return Arrays.asList(key);
     }
 
     private boolean checkDuplicateFilter(BroadcastFilter e) {
@@ -231,7 +586,7 @@ public class BroadcasterConfig {
         if (executorService != null) {
             executorService.shutdown();
         }
-        if (asyncWriteService != null) {
+        if (asyncWriteService != null && !isShared(asyncWriteService)) {
             asyncWriteService.shutdown();
         }
         if (defaultExecutorService != null) {
@@ -241,7 +596,7 @@ public class BroadcasterConfig {
             defaultAsyncWriteService.shutdown();
         }
 
-        if (scheduler != null) {
+        if (scheduler != null && !isShared(scheduler)) {
             scheduler.shutdown();
         }
 
@@ -253,6 +608,11 @@ public class BroadcasterConfig {
         removeAllFilters();
     }
 
+    private boolean isShared(ExecutorService e) {
+        return sharedDispatcher != null
+                && (e == sharedDispatcher.getAsyncWriteService() || e == sharedDispatcher.getScheduledExecutorService());
+    }
+
     /**
      * Remove a {@link BroadcastFilter}
      *
@@ -265,11 +625,14 @@ public class BroadcasterConfig {
             ((BroadcastFilterLifecycle) filter).destroy();
         }
 
-        if (filter instanceof PerRequestBroadcastFilter) {
-            perRequestFilters.remove(filter);
+        synchronized (filters) {
+            if (filter instanceof PerRequestBroadcastFilter) {
+                perRequestFilters.remove(filter);
+            }
+            boolean removed = filters.remove(filter);
+            compileFilters();
+            return removed;
         }
-        
-        return filters.remove(filter);
     }
 
     /**
@@ -287,25 +650,16 @@ public class BroadcasterConfig {
      * @return true if this object contains {@link BroadcastFilter}
      */
     public boolean hasFilters() {
-        return !filters.isEmpty();
+        return filterChain.length > 0;
     }
 
     /**
-     * Return true if this object contains {@link BroadcastFilter}
+     * Return true if this object contains {@link PerRequestBroadcastFilter}
      *
-     * @return true if this object contains {@link BroadcastFilter}
+     * @return true if this object contains {@link PerRequestBroadcastFilter}
      */
     public boolean hasPerRequestFilters() {
-        if (filters.isEmpty()) {
-            return false;
-        } else {
-            for(BroadcastFilter b: filters) {
-                if (PerRequestBroadcastFilter.class.isAssignableFrom(b.getClass())) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return perRequestFilterChain.length > 0;
     }
 
     /**
@@ -315,12 +669,19 @@ public class BroadcasterConfig {
      * @return BroadcastAction that tell Atmosphere to invoke the next filter or not.
      */
     protected BroadcastAction filter(Object object) {
-        BroadcastAction transformed = new BroadcastAction(object);
-        for (BroadcastFilter mf : filters) {
-            transformed = mf.filter(object, transformed.message());
+        BroadcastFilter[] chain = filterChain;
+        if (chain.length == 0) {
+            return new BroadcastAction(object);
+        }
+
+        BroadcastAction transformed = null;
+        Object message = object;
+        for (BroadcastFilter mf : chain) {
+            transformed = mf.filter(object, message);
             if (transformed == null || transformed.action() == BroadcastAction.ACTION.ABORT) {
                 return transformed;
             }
+            message = transformed.message();
         }
         return transformed;
     }
@@ -332,12 +693,19 @@ public class BroadcasterConfig {
      * @return BroadcastAction that tell Atmosphere to invoke the next filter or not.
      */
     protected BroadcastAction filter(HttpServletRequest request, HttpServletResponse response, Object object) {
-        BroadcastAction transformed = new BroadcastAction(object);
-        for (PerRequestBroadcastFilter mf : perRequestFilters) {
-            transformed = mf.filter(request, response, transformed.message());
+        PerRequestBroadcastFilter[] chain = perRequestFilterChain;
+        if (chain.length == 0) {
+            return new BroadcastAction(object);
+        }
+
+        BroadcastAction transformed = null;
+        Object message = object;
+        for (PerRequestBroadcastFilter mf : chain) {
+            transformed = mf.filter(request, response, message);
             if (transformed == null || transformed.action() == BroadcastAction.ACTION.ABORT) {
                 return transformed;
             }
+            message = transformed.message();
         }
         return transformed;
     }
@@ -360,7 +728,7 @@ public class BroadcasterConfig {
      * @return this.
      */
     public BroadcasterConfig setScheduledExecutorService(ScheduledExecutorService scheduler) {
-        if (this.scheduler != null) {
+        if (this.scheduler != null && !isShared(this.scheduler)) {
             this.scheduler.shutdown();
         }
         this.scheduler = scheduler;
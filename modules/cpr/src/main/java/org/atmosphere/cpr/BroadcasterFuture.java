@@ -61,6 +61,8 @@ public class BroadcasterFuture<E> implements Future {
 
     private final Future<?> innerFuture;
 
+    private volatile Throwable throwable;
+
     public BroadcasterFuture(E msg) {
         this(null,msg);
     }
@@ -129,6 +131,17 @@ public class BroadcasterFuture<E> implements Future {
         }
     }
 
+    /**
+     * Invoked when a {@link Broadcaster} failed to broadcast the message. Any Thread blocked on {@link #get()}
+     * will get an {@link ExecutionException}
+     *
+     * @param t the cause of the failure.
+     */
+    public void fail(Throwable t) {
+        throwable = t;
+        done();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -139,6 +152,9 @@ public class BroadcasterFuture<E> implements Future {
         }
 
         latch.await();
+        if (throwable != null) {
+            throw new ExecutionException(throwable);
+        }
         return msg;
     }
 
@@ -153,6 +169,9 @@ public class BroadcasterFuture<E> implements Future {
         }
 
         latch.await(l, tu);
+        if (throwable != null) {
+            throw new ExecutionException(throwable);
+        }
         return msg;
     }
 }
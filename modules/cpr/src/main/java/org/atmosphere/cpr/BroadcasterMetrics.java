@@ -0,0 +1,95 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+
+package org.atmosphere.cpr;
+
+/**
+ * Instrumentation hook invoked by a {@link DefaultBroadcaster} while it broadcasts messages. Timings are in
+ * nanoseconds. Implementations are invoked from the Threads publishing, dispatching and writing messages, so they
+ * must be thread safe and must never block.
+ *
+ * @see org.atmosphere.metrics.BroadcasterStats
+ */
+public interface BroadcasterMetrics {
+
+    /**
+     * Invoked when a message has been queued for delivery.
+     *
+     * @param queueDepth the number of messages waiting to be delivered, including this one.
+     */
+    void messageQueued(int queueDepth);
+
+    /**
+     * Invoked when a message has been discarded because the message queue was full.
+     */
+    void messageDropped();
+
+    /**
+     * Invoked when the dispatch Thread has filtered and handed a message to every targeted {@link AtmosphereResource}.
+     *
+     * @param resources the number of {@link AtmosphereResource} targeted.
+     * @param nanos     the time spent delivering the message.
+     */
+    void messageDelivered(int resources, long nanos);
+
+    /**
+     * Invoked when a message has been written to an {@link AtmosphereResource}.
+     *
+     * @param nanos the time elapsed between the delivery of the message and the completion of the write.
+     */
+    void writeCompleted(long nanos);
+
+    /**
+     * Invoked when a message failed to be written to an {@link AtmosphereResource}.
+     */
+    void writeFailed();
+
+    /**
+     * Invoked when messages have been retrieved from the {@link BroadcasterCache} for an {@link AtmosphereResource}.
+     *
+     * @param messages the number of messages retrieved, 0 if none were.
+     */
+    void cacheRetrieved(int messages);
+
+    /**
+     * Invoked when messages expired from the {@link BroadcasterCache}.
+     *
+     * @param messages the number of messages removed.
+     */
+    void cacheEvicted(int messages);
+}
@@ -0,0 +1,66 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+
+package org.atmosphere.cpr;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * A {@link PerRequestBroadcastFilter} whose result only depends on a few properties of the request, like the
+ * User-Agent or the transport used. The {@link DefaultBroadcaster} computes the classification key once per
+ * {@link AtmosphereResource}, then invokes the filter once per distinct key and per message and share the
+ * result with every {@link AtmosphereResource} of the same class.
+ * <p/>
+ * Since the filter is only invoked with the request and response of one member of the class, it must not have
+ * per-response side effects like setting headers or cookies on the {@link javax.servlet.http.HttpServletResponse}:
+ * the other members of the class would never get them.
+ * <p/>
+ * The memoization only happens when all the installed {@link PerRequestBroadcastFilter} implement this interface.
+ */
+public interface ClassifiedBroadcastFilter extends PerRequestBroadcastFilter {
+
+    /**
+     * Return the key identifying the class of the request. The key must implement {@link Object#equals(Object)}
+     * and {@link Object#hashCode()}, and must not change for the life of the request. Returns null if the
+     * request can't be classified, in which case the filter will be invoked for that request.
+     *
+     * @param request The {@link javax.servlet.http.HttpServletRequest} send before the response was suspended/upgraded.
+     * @return the classification key, or null.
+     */
+    Object classify(HttpServletRequest request);
+}
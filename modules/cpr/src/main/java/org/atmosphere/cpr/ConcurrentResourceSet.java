@@ -0,0 +1,269 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A concurrent set of {@link AtmosphereResource} used by {@link DefaultBroadcaster}. Resources are indexed by identity
+ * so {@link #add}, {@link #remove}, {@link #contains} and {@link #size} are O(1), and are kept in insertion order so
+ * {@link #poll()} always returns the oldest resource, as required by {@link Broadcaster.POLICY#FIFO}.
+ * <p/>
+ * Iteration is done over a snapshot which is only rebuilt after the set has been modified, so broadcasting to a stable
+ * set of resources doesn't copy anything. Iterators never throw {@link java.util.ConcurrentModificationException}.
+ */
+public class ConcurrentResourceSet extends AbstractCollection<AtmosphereResource<?, ?>> {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private final ConcurrentHashMap<Node, Node> index = new ConcurrentHashMap<Node, Node>();
+    private final Node head = new Node(null);
+    private final Object lock = new Object();
+    private volatile int size;
+    private volatile Object[] snapshot = EMPTY;
+
+    public ConcurrentResourceSet() {
+        head.next = head;
+        head.prev = head;
+    }
+
+    /**
+     * Add an {@link AtmosphereResource} at the end of this set.
+     *
+     * @param r an {@link AtmosphereResource}
+     * @return false if the {@link AtmosphereResource} was already added.
+     */
+    @Override
+    public boolean add(AtmosphereResource<?, ?> r) {
+        if (r == null) {
+            throw new NullPointerException();
+        }
+
+        Node n = new Node(r);
+        synchronized (lock) {
+            if (index.containsKey(n)) {
+                return false;
+            }
+            index.put(n, n);
+            n.prev = head.prev;
+            n.next = head;
+            head.prev.next = n;
+            head.prev = n;
+            size++;
+            snapshot = null;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove(Object r) {
+        if (r == null) {
+            return false;
+        }
+
+        Node probe = new Node(r);
+        synchronized (lock) {
+            Node n = index.remove(probe);
+            if (n == null) {
+                return false;
+            }
+            unlink(n);
+        }
+        return true;
+    }
+
+    /**
+     * Remove and return the oldest {@link AtmosphereResource}.
+     *
+     * @return the oldest {@link AtmosphereResource}, or null if this set is empty.
+     */
+    public AtmosphereResource<?, ?> poll() {
+        synchronized (lock) {
+            Node n = head.next;
+            if (n == head) {
+                return null;
+            }
+            index.remove(n);
+            unlink(n);
+            return n.resource;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(Object r) {
+        return r != null && index.containsKey(new Node(r));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            index.clear();
+            head.next = head;
+            head.prev = head;
+            size = 0;
+            snapshot = EMPTY;
+        }
+    }
+
+    /**
+     * Return an {@link Iterator} over a snapshot of this set, in insertion order. {@link Iterator#remove()} removes the
+     * {@link AtmosphereResource} from this set.
+     *
+     * @return an {@link Iterator}
+     */
+    @Override
+    public Iterator<AtmosphereResource<?, ?>> iterator() {
+        final Object[] s = snapshot();
+        return new Iterator<AtmosphereResource<?, ?>>() {
+            private int cursor;
+            private Object last;
+
+            public boolean hasNext() {
+                return cursor < s.length;
+            }
+
+            public AtmosphereResource<?, ?> next() {
+                if (cursor >= s.length) {
+                    throw new NoSuchElementException();
+                }
+                last = s[cursor++];
+                return (AtmosphereResource<?, ?>) last;
+            }
+
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                ConcurrentResourceSet.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object[] toArray() {
+        return snapshot().clone();
+    }
+
+    private Object[] snapshot() {
+        Object[] s = snapshot;
+        if (s != null) {
+            return s;
+        }
+
+        synchronized (lock) {
+            s = snapshot;
+            if (s == null) {
+                s = new Object[size];
+                int i = 0;
+                for (Node n = head.next; n != head; n = n.next) {
+                    s[i++] = n.resource;
+                }
+                snapshot = s;
+            }
+            return s;
+        }
+    }
+
+    private void unlink(Node n) {
+        n.prev.next = n.next;
+        n.next.prev = n.prev;
+        n.prev = null;
+        n.next = null;
+        size--;
+        snapshot = null;
+    }
+
+    /**
+     * Identity based index entry, also used as the insertion-order linked list node.
+     */
+    private final static class Node {
+        final AtmosphereResource<?, ?> resource;
+        final Object key;
+        final int hash;
+        Node prev;
+        Node next;
+
+        Node(Object key) {
+            this.key = key;
+            this.resource = key instanceof AtmosphereResource ? (AtmosphereResource<?, ?>) key : null;
+            this.hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Node && ((Node) o).key == key;
+        }
+    }
+}
@@ -37,9 +37,13 @@
  */
 package org.atmosphere.cpr;
 
+import org.atmosphere.cache.BroadcasterCacheBase;
 import org.atmosphere.cpr.BroadcastFilter.BroadcastAction;
 import org.atmosphere.cpr.BroadcasterConfig.DefaultBroadcasterCache;
 import org.atmosphere.di.InjectorProvider;
+import org.atmosphere.metrics.NodeStats;
+import org.atmosphere.websocket.WebSocketHttpServletResponse;
+import org.atmosphere.websocket.WebSocketSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,12 +58,16 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -76,10 +84,13 @@ public class DefaultBroadcaster implements Broadcaster {
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultBroadcaster.class);
 
-    protected final ConcurrentLinkedQueue<AtmosphereResource<?, ?>> resources =
-            new ConcurrentLinkedQueue<AtmosphereResource<?, ?>>();
+    private final static int MAX_DISPATCH_BATCH = 64;
+    private final static int DEFAULT_RING_BUFFER_SIZE = 1024;
+
+    protected final ConcurrentResourceSet resources = new ConcurrentResourceSet();
+    protected final TagIndex tagIndex = new TagIndex();
     protected BroadcasterConfig bc;
-    protected final BlockingQueue<Entry> messages = new LinkedBlockingQueue<Entry>();
+    protected BlockingQueue<Entry> messages = new LinkedBlockingQueue<Entry>();
     protected final AtomicBoolean started = new AtomicBoolean(false);
     protected final AtomicBoolean destroyed = new AtomicBoolean(false);
 
@@ -89,7 +100,25 @@ public class DefaultBroadcaster implements Broadcaster {
     protected final ConcurrentLinkedQueue<Entry> broadcastOnResume = new ConcurrentLinkedQueue<Entry>();
 
     protected Future<?> notifierFuture;
+    protected SharedDispatcher.Strand strand;
+    protected RingBuffer<Entry> ring;
+    // Queued Entry by Conflatable key, when conflation is enabled.
+    protected final ConcurrentHashMap<Object, Entry> pendingByKey = new ConcurrentHashMap<Object, Entry>();
+    private final AtomicLong conflated = new AtomicLong();
+    private final AtomicLong memoizedFilters = new AtomicLong();
+    private final AtomicLong parallelDeliveries = new AtomicLong();
+    // Set while the helpers of a fan-out started by a SharedDispatcher lane deliver the message.
+    private volatile boolean fanOutInFlight;
+    // Numbers the pushed messages, for the ManagedBroadcasterCache.
+    private final AtomicLong broadcasts = new AtomicLong();
+    // Instrumentation, null when disabled.
+    protected volatile BroadcasterMetrics metrics;
+    private final static int FAN_OUT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    // Stands for a message aborted by a PerRequestBroadcastFilter, ConcurrentHashMap doesn't allow null values.
+    private final static Object ABORTED = new Object();
     protected BroadcasterCache broadcasterCache;
+    protected final PayloadCache.Stats payloadCacheStats = new PayloadCache.Stats();
+    protected final AtomicLong droppedMessages = new AtomicLong();
 
     private POLICY policy = POLICY.FIFO;
     private long maxSuspendResource = -1;
@@ -117,6 +146,7 @@ public class DefaultBroadcaster implements Broadcaster {
         if (notifierFuture != null) {
             notifierFuture.cancel(true);
         }
+        strand = null;
 
         if (bc != null && scope != SCOPE.REQUEST) {
             bc.destroy();
@@ -126,8 +156,10 @@ public class DefaultBroadcaster implements Broadcaster {
             broadcasterCache.stop();
         }
         resources.clear();
+        tagIndex.clear();
         broadcastOnResume.clear();
         messages.clear();
+        pendingByKey.clear();
         delayedBroadcast.clear();
         broadcasterCache = null;
         started.set(false);
@@ -245,7 +277,7 @@ public class DefaultBroadcaster implements Broadcaster {
             }
 
             final AtomicReference<Future<?>> ref = new AtomicReference<Future<?>>();
-            currentLifecycleTask = bc.getScheduledExecutorService().scheduleAtFixedRate(new Runnable(){
+            final Runnable applyPolicy = new Runnable() {
 
                 @Override
                 public void run() {
@@ -271,6 +303,21 @@ public class DefaultBroadcaster implements Broadcaster {
                         logger.warn("Scheduled BroadcasterLifeCyclePolicy exception", t);
                     }
                 }
+            };
+
+            // The timer only checks for idleness, the policy is applied outside the timer Thread.
+            currentLifecycleTask = HashedWheelTimer.getDefault().scheduleAtFixedRate(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (resources.isEmpty() && !destroyed.get()) {
+                        try {
+                            bc.getScheduledExecutorService().execute(applyPolicy);
+                        } catch (RejectedExecutionException e) {
+                            logger.debug("Unable to apply BroadcasterLifeCyclePolicy of {}", name, e);
+                        }
+                    }
+                }
 
             }, time, time, lifeCyclePolicy.getTimeUnit());
             ref.set(currentLifecycleTask);
@@ -284,6 +331,10 @@ public class DefaultBroadcaster implements Broadcaster {
         public BroadcasterFuture<?> future;
         public boolean writeLocally;
         public Object originalMessage;
+        public PayloadCache payloadCache;
+        public Object key;
+        public ConcurrentHashMap<Object, Object> filtered;
+        public long broadcast;
 
         public Entry(Object message, Object multipleAtmoResources, BroadcasterFuture<?> future, Object originalMessage) {
             this.message = message;
@@ -300,6 +351,21 @@ public class DefaultBroadcaster implements Broadcaster {
             this.writeLocally = writeLocally;
         }
 
+        /**
+         * Release the references held by this {@link Entry} so it can be reused.
+         */
+        public void clear() {
+            message = null;
+            multipleAtmoResources = null;
+            future = null;
+            originalMessage = null;
+            payloadCache = null;
+            key = null;
+            filtered = null;
+            broadcast = 0;
+            writeLocally = true;
+        }
+
         @Override
         public String toString() {
             return "Entry{" +
@@ -329,17 +395,386 @@ public class DefaultBroadcaster implements Broadcaster {
         };
     }
 
+    /**
+     * Return the {@link Runnable} executed by a {@link SharedDispatcher.Strand} every time a message gets queued.
+     * Contrary to {@link #getBroadcastHandler()}, this {@link Runnable} never blocks: it pushes the queued messages
+     * and returns, leaving the lane to other {@link Broadcaster}.
+     *
+     * @return a {@link Runnable}
+     */
+    protected Runnable getSharedBroadcastHandler() {
+        return new Runnable() {
+            public void run() {
+                // The last chunk of the fan-out signals the strand again.
+                if (fanOutInFlight) {
+                    return;
+                }
+
+                RingBuffer<Entry> r = ring;
+                if (r != null) {
+                    drain(r, MAX_DISPATCH_BATCH);
+                } else {
+                    Entry msg;
+                    int count = 0;
+                    while (count++ < MAX_DISPATCH_BATCH && !fanOutInFlight && (msg = messages.poll()) != null) {
+                        try {
+                            push(msg);
+                        } catch (Throwable ex) {
+                            logger.error("failed to push message: " + msg, ex);
+                        }
+                    }
+                }
+
+                // Give the lane back to other Broadcaster and ask to be rescheduled.
+                SharedDispatcher.Strand s = strand;
+                if (s != null && !fanOutInFlight && (r != null ? !r.isEmpty() : !messages.isEmpty())) {
+                    s.signal();
+                }
+            }
+        };
+    }
+
+    /**
+     * Return the {@link Runnable} used to consume the {@link RingBuffer} when no {@link SharedDispatcher} is used.
+     * The {@link Runnable} owns its Thread until this {@link Broadcaster} is destroyed.
+     *
+     * @return a {@link Runnable}
+     */
+    protected Runnable getRingBroadcastHandler() {
+        return new Runnable() {
+            public void run() {
+                final RingBuffer<Entry> r = ring;
+                while (started.get()) {
+                    try {
+                        if (drain(r, MAX_DISPATCH_BATCH) == 0) {
+                            r.waitFor(r.nextToConsume(), 1, TimeUnit.SECONDS);
+                        }
+                    } catch (InterruptedException ex) {
+                        return;
+                    } catch (Throwable ex) {
+                        // Catch all exception to avoid killing this thread.
+                        logger.error("failed to drain the broadcaster ring buffer", ex);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Push the published {@link Entry} of the {@link RingBuffer}, and release their slot.
+     *
+     * @param r     the {@link RingBuffer}
+     * @param batch the maximum number of {@link Entry} to push.
+     * @return the number of {@link Entry} pushed.
+     */
+    private int drain(RingBuffer<Entry> r, int batch) {
+        long from = r.nextToConsume();
+        long to = r.available(from, batch);
+        for (long seq = from; seq <= to; seq++) {
+            Entry e = r.get(seq);
+            try {
+                push(e);
+            } catch (Throwable ex) {
+                logger.error("failed to push message: " + e, ex);
+            } finally {
+                e.clear();
+            }
+            if (fanOutInFlight) {
+                // The next messages wait for the helpers delivering this one.
+                to = seq;
+                break;
+            }
+        }
+
+        if (to >= from) {
+            r.release(to);
+        }
+        return (int) (to - from + 1);
+    }
+
     protected void start() {
-        if (!started.getAndSet(true)) {
+        if (started.get()) {
+            return;
+        }
+
+        synchronized (started) {
+            if (started.get()) {
+                return;
+            }
+            configureMessageQueue();
 
             broadcasterCache = bc.getBroadcasterCache();
+            if (broadcasterCache instanceof ManagedBroadcasterCache) {
+                ((ManagedBroadcasterCache) broadcasterCache).configure(this, bc.getAtmosphereConfig());
+            }
+            if (broadcasterCache instanceof BroadcasterCacheBase) {
+                ((BroadcasterCacheBase) broadcasterCache).setMetrics(metrics);
+                ((BroadcasterCacheBase) broadcasterCache).setExecutor(bc.getScheduledExecutorService());
+            }
             broadcasterCache.start();
 
-            notifierFuture = bc.getExecutorService().submit(getBroadcastHandler());
+            // Publishers wait for started, so they never see the message queue being replaced.
+            started.set(true);
+
+            SharedDispatcher dispatcher = bc.getSharedDispatcher();
+            if (dispatcher != null) {
+                strand = dispatcher.newStrand(this, getSharedBroadcastHandler());
+                if (!messages.isEmpty() || (ring != null && !ring.isEmpty())) {
+                    strand.signal();
+                }
+            } else if (ring != null) {
+                notifierFuture = bc.getExecutorService().submit(getRingBroadcastHandler());
+            } else {
+                notifierFuture = bc.getExecutorService().submit(getBroadcastHandler());
+            }
         }
     }
 
+    /**
+     * Queue an {@link Entry} for delivery by the dispatch Thread.
+     *
+     * @param entry the {@link Entry}
+     * @return true if the {@link Entry} was queued.
+     */
+    protected boolean dispatch(Entry entry) {
+        boolean queued = messages.offer(entry) || onOverflow(entry);
+        SharedDispatcher.Strand s = strand;
+        if (queued && s != null) {
+            s.signal();
+        }
+        return queued;
+    }
+
+    /**
+     * Queue a message for delivery by the dispatch Thread. When the {@link RingBuffer} is enabled, the message is
+     * copied into a preallocated {@link Entry} slot, otherwise a new {@link Entry} is {@link #dispatch(Entry) dispatched}.
+     *
+     * @param message          the filtered message
+     * @param resources        null, an {@link AtmosphereResource}, a Set of {@link AtmosphereResource} or a {@link Selector}
+     * @param future           the {@link BroadcasterFuture}, or null if the caller doesn't need one.
+     * @param originalMessage  the message before being filtered
+     * @return true if the message was queued.
+     */
+    protected boolean publish(Object message, Object resources, BroadcasterFuture<?> future, Object originalMessage) {
+        boolean queued = enqueue(message, resources, future, originalMessage);
+        if (queued) {
+            NodeStats.getDefault().messagePublished();
+            BroadcasterMetrics m = metrics;
+            if (m != null) {
+                m.messageQueued(getQueueDepth());
+            }
+        }
+        return queued;
+    }
+
+    private boolean enqueue(Object message, Object resources, BroadcasterFuture<?> future, Object originalMessage) {
+        RingBuffer<Entry> r = ring;
+        if (r == null) {
+            Entry entry = new Entry(message, resources, future, originalMessage);
+            if (resources == null && bc.isConflation() && originalMessage instanceof Conflatable) {
+                entry.key = ((Conflatable) originalMessage).getKey();
+                if (conflate(entry)) {
+                    return true;
+                }
+                pendingByKey.put(entry.key, entry);
+            }
+
+            if (!dispatch(entry)) {
+                claim(entry);
+                return false;
+            }
+            return true;
+        }
+
+        long seq = r.tryNext();
+        if (seq == -1) {
+            seq = onRingOverflow(r, message, future);
+            if (seq == -1) {
+                return false;
+            }
+        }
+
+        Entry e = r.get(seq);
+        e.message = message;
+        e.multipleAtmoResources = resources;
+        e.future = future;
+        e.originalMessage = originalMessage;
+        e.writeLocally = true;
+        r.publish(seq);
+
+        SharedDispatcher.Strand s = strand;
+        if (s != null) {
+            s.signal();
+        }
+        return true;
+    }
+
+    /**
+     * Replace the message of the queued {@link Entry} with the same key, if any. The {@link BroadcasterFuture} of the
+     * replaced message is completed.
+     *
+     * @param entry the new {@link Entry}
+     * @return true if a queued {@link Entry} has been updated.
+     */
+    private boolean conflate(Entry entry) {
+        Entry queued = pendingByKey.get(entry.key);
+        if (queued == null) {
+            return false;
+        }
+
+        BroadcasterFuture<?> replaced;
+        synchronized (queued) {
+            if (pendingByKey.get(entry.key) != queued) {
+                return false;
+            }
+            replaced = queued.future;
+            queued.message = entry.message;
+            queued.originalMessage = entry.originalMessage;
+            queued.future = entry.future;
+        }
+
+        conflated.incrementAndGet();
+        if (replaced != null) {
+            replaced.done();
+        }
+        return true;
+    }
+
+    /**
+     * Stop accepting replacements for a dequeued {@link Entry}.
+     *
+     * @param entry the {@link Entry}
+     */
+    private void claim(Entry entry) {
+        if (entry.key != null) {
+            synchronized (entry) {
+                pendingByKey.remove(entry.key, entry);
+            }
+        }
+    }
+
+    /**
+     * Return the number of queued messages replaced by a newer message with the same key.
+     *
+     * @return the number of conflated messages.
+     */
+    public long getConflatedCount() {
+        return conflated.get();
+    }
+
+    /**
+     * Apply the {@link BroadcasterConfig.OVERFLOW_POLICY} when the {@link RingBuffer} is full. The consumer owns the
+     * queued slots, so {@link BroadcasterConfig.OVERFLOW_POLICY#DROP_OLDEST} waits like
+     * {@link BroadcasterConfig.OVERFLOW_POLICY#BLOCK}.
+     *
+     * @return the claimed sequence, or -1 if the message was discarded.
+     */
+    private long onRingOverflow(RingBuffer<Entry> r, Object message, BroadcasterFuture<?> future) {
+        switch (bc.getOverflowPolicy()) {
+            case BLOCK:
+            case DROP_OLDEST:
+                try {
+                    long seq = r.next(bc.getOverflowTimeout(), TimeUnit.MILLISECONDS);
+                    if (seq != -1) {
+                        return seq;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case DROP_NEWEST:
+                discard(message, future, null);
+                return -1;
+            case FAIL:
+                break;
+        }
+
+        discard(message, future, new RejectedExecutionException(
+                String.format("Broadcaster %s message queue is full (%s)", name, r.capacity())));
+        return -1;
+    }
+
+    /**
+     * Apply the {@link BroadcasterConfig.OVERFLOW_POLICY} when the message queue is full.
+     *
+     * @param entry the {@link Entry} that couldn't be queued.
+     * @return true if the {@link Entry} was eventually queued.
+     */
+    protected boolean onOverflow(Entry entry) {
+        switch (bc.getOverflowPolicy()) {
+            case BLOCK:
+                try {
+                    long timeout = bc.getOverflowTimeout();
+                    if (timeout < 1) {
+                        messages.put(entry);
+                        return true;
+                    } else if (messages.offer(entry, timeout, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case DROP_OLDEST:
+                do {
+                    Entry oldest = messages.poll();
+                    if (oldest != null) {
+                        claim(oldest);
+                        discard(oldest.message, oldest.future, null);
+                    }
+                } while (!messages.offer(entry));
+                return true;
+            case DROP_NEWEST:
+                discard(entry.message, entry.future, null);
+                return false;
+            case FAIL:
+                break;
+        }
+
+        discard(entry.message, entry.future, new RejectedExecutionException(
+                String.format("Broadcaster %s message queue is full (%s)", name, bc.getMessageQueueCapacity())));
+        return false;
+    }
+
+    private void discard(Object message, BroadcasterFuture<?> future, Throwable t) {
+        droppedMessages.incrementAndGet();
+        BroadcasterMetrics m = metrics;
+        if (m != null) {
+            m.messageDropped();
+        }
+        logger.debug("Broadcaster {} discarding message {}", name, message);
+        if (future != null) {
+            if (t == null) {
+                future.cancel(true);
+            } else {
+                future.fail(t);
+            }
+        }
+    }
+
+    /**
+     * Return the number of messages waiting to be delivered.
+     *
+     * @return the number of messages waiting to be delivered.
+     */
+    public int getQueueDepth() {
+        RingBuffer<Entry> r = ring;
+        return r != null ? r.size() : messages.size();
+    }
+
+    /**
+     * Return the number of messages discarded because the message queue was full.
+     *
+     * @return the number of messages discarded because the message queue was full.
+     */
+    public long getDroppedMessageCount() {
+        return droppedMessages.get();
+    }
+
     protected void push(Entry entry) {
+        claim(entry);
+        entry.broadcast = broadcasts.incrementAndGet();
+        NodeStats.getDefault().messageDelivered();
         String prevMessage = entry.message.toString();
         if (!delayedBroadcast.isEmpty()) {
             Iterator<Entry> i = delayedBroadcast.iterator();
@@ -366,53 +801,243 @@ public class DefaultBroadcaster implements Broadcaster {
         }
 
         if (resources.isEmpty()) {
-            trackBroadcastMessage(null, entry.message);
-            entry.future.done();
+            trackBroadcastMessage(null, entry.message, entry.broadcast);
+            if (entry.future != null) {
+                entry.future.done();
+            }
             return;
         }
 
+        BroadcasterMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        int targets = 1;
+
         Object finalMsg = translate(entry.message);
         entry.message = finalMsg;
+        // The message is encoded once and the result shared by all resources.
+        entry.payloadCache = new PayloadCache(finalMsg, payloadCacheStats);
+        // The result of the ClassifiedBroadcastFilter is shared by all resources of the same class.
+        entry.filtered = bc.hasPerRequestFilters() ? new ConcurrentHashMap<Object, Object>() : null;
 
         if (entry.multipleAtmoResources == null) {
-            for (AtmosphereResource<?, ?> r : resources) {
-                finalMsg = perRequestFilter(r, entry);
-                if (entry.writeLocally) {
-                    executeAsyncWrite(r, finalMsg, entry.future);
-                }
-            }                                                                                                                                                                               
+            targets = deliver(entry, resources);
         } else if (entry.multipleAtmoResources instanceof AtmosphereResource<?, ?>) {
             finalMsg = perRequestFilter((AtmosphereResource<?, ?>) entry.multipleAtmoResources, entry);
 
             if (entry.writeLocally) {
-                executeAsyncWrite((AtmosphereResource<?, ?>) entry.multipleAtmoResources, finalMsg, entry.future);
+                executeAsyncWrite((AtmosphereResource<?, ?>) entry.multipleAtmoResources, finalMsg, entry.future,
+                        entry.payloadCache);
             }
+        } else if (entry.multipleAtmoResources instanceof Selector) {
+            targets = deliver(entry, ((Selector) entry.multipleAtmoResources).select(tagIndex));
         } else if (entry.multipleAtmoResources instanceof Set) {
-            Set<AtmosphereResource<?, ?>> sub = (Set<AtmosphereResource<?, ?>>) entry.multipleAtmoResources;
-            for (AtmosphereResource<?, ?> r : sub) {
-                finalMsg = perRequestFilter(r, entry);
-                if (entry.writeLocally) {
-                    executeAsyncWrite(r, finalMsg, entry.future);
+            targets = deliver(entry, (Set<AtmosphereResource<?, ?>>) entry.multipleAtmoResources);
+        }
+        entry.message = prevMessage;
+        entry.filtered = null;
+
+        if (m != null) {
+            m.messageDelivered(targets, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Filter and write the message to a group of {@link AtmosphereResource}. Above
+     * {@link BroadcasterConfig#getFanOutThreshold()}, the group is split in chunks processed in parallel.
+     *
+     * @param entry   the {@link Entry}
+     * @param targets the {@link AtmosphereResource}
+     * @return the number of {@link AtmosphereResource} the message has been delivered to.
+     */
+    protected int deliver(Entry entry, Collection<? extends AtmosphereResource<?, ?>> targets) {
+        int threshold = bc.getFanOutThreshold();
+        if (threshold <= 0 || targets.size() <= threshold) {
+            int count = 0;
+            for (AtmosphereResource<?, ?> r : targets) {
+                deliver(entry, r, entry.future);
+                count++;
+            }
+            return count;
+        }
+        AtmosphereResource<?, ?>[] members = targets.toArray(new AtmosphereResource<?, ?>[targets.size()]);
+        fanOut(entry, members);
+        return members.length;
+    }
+
+    private void deliver(Entry entry, AtmosphereResource<?, ?> r, BroadcasterFuture<?> future) {
+        Object finalMsg = perRequestFilter(r, entry);
+        if (entry.writeLocally) {
+            executeAsyncWrite(r, finalMsg, future, entry.payloadCache);
+        }
+    }
+
+    /**
+     * Deliver the message to the {@link AtmosphereResource} by chunks. The dispatch Thread processes chunks
+     * as well, so the delivery always completes even if no other Thread is available. Like with a sequential
+     * delivery, the {@link BroadcasterFuture} is completed by the writes.
+     * <p/>
+     * The next message is never delivered before the last chunk is done. A dedicated dispatch Thread waits for
+     * it, whereas a {@link SharedDispatcher} lane returns to the other {@link Broadcaster}: the {@link SharedDispatcher.Strand} is
+     * signaled again by the last chunk.
+     *
+     * @param entry   the {@link Entry}
+     * @param members a snapshot of the {@link AtmosphereResource}
+     */
+    private void fanOut(Entry entry, final AtmosphereResource<?, ?>[] members) {
+        final int chunkSize = bc.getFanOutChunkSize();
+        final int chunks = (members.length + chunkSize - 1) / chunkSize;
+        final SharedDispatcher.Strand s = strand;
+        // Once pushed, the Entry is reset or reused by the RingBuffer, so the helpers of a lane need their own.
+        final Entry e = s != null ? copy(entry) : entry;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger remaining = new AtomicInteger(chunks);
+        final CountDownLatch done = s != null ? null : new CountDownLatch(1);
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int chunk;
+                while ((chunk = next.getAndIncrement()) < chunks) {
+                    try {
+                        int end = Math.min(members.length, (chunk + 1) * chunkSize);
+                        for (int i = Math.max(1, chunk * chunkSize); i < end; i++) {
+                            try {
+                                deliver(e, members[i], e.future);
+                            } catch (RuntimeException ex) {
+                                logger.warn("failed to deliver message to " + members[i], ex);
+                            }
+                        }
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            parallelDeliveries.incrementAndGet();
+                            if (done != null) {
+                                done.countDown();
+                            } else {
+                                fanOutInFlight = false;
+                                s.signal();
+                            }
+                        }
+                    }
                 }
             }
+        };
+
+        // Deliver to the first resource before forking, so the message is cached before the helpers add it for
+        // their own resources, see ManagedBroadcasterCache.
+        deliver(e, members[0], e.future);
+
+        if (s != null) {
+            fanOutInFlight = true;
         }
-        entry.message = prevMessage;
+        int helpers = Math.min(chunks - 1, FAN_OUT_PARALLELISM);
+        for (int i = 0; i < helpers; i++) {
+            try {
+                bc.getAsyncWriteService().execute(worker);
+            } catch (RejectedExecutionException ex) {
+                break;
+            }
+        }
+        worker.run();
+
+        if (done != null) {
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                logger.debug("Interrupted while waiting for the parallel delivery of {}", e.message);
+            }
+        }
+    }
+
+    private Entry copy(Entry entry) {
+        Entry e = new Entry(entry.message, entry.multipleAtmoResources, entry.future, entry.originalMessage);
+        e.writeLocally = entry.writeLocally;
+        e.payloadCache = entry.payloadCache;
+        e.filtered = entry.filtered;
+        e.broadcast = entry.broadcast;
+        return e;
+    }
+
+    /**
+     * Return the number of messages delivered in parallel, because the number of {@link AtmosphereResource}
+     * exceeded {@link BroadcasterConfig#getFanOutThreshold()}.
+     *
+     * @return the number of messages delivered in parallel.
+     */
+    public long getParallelDeliveryCount() {
+        return parallelDeliveries.get();
+    }
+
+    /**
+     * Return the hit and miss counters of the {@link PayloadCache} used by this {@link Broadcaster}.
+     *
+     * @return the {@link PayloadCache.Stats}
+     */
+    public PayloadCache.Stats getPayloadCacheStats() {
+        return payloadCacheStats;
     }
 
     protected Object perRequestFilter(AtmosphereResource<?, ?> r, Entry msg) {
         Object finalMsg = msg.message;
         if (r.getRequest() instanceof HttpServletRequest && bc.hasPerRequestFilters()) {
-            Object message = msg.originalMessage;
-            BroadcastAction a  = bc.filter( (HttpServletRequest) r.getRequest(), (HttpServletResponse) r.getResponse(), message);
-            if (a.action() == BroadcastAction.ACTION.ABORT || a.message() != null) {
-               finalMsg = a.message();   
+            Object key = msg.filtered != null ? classification(r) : null;
+            if (key == null) {
+                finalMsg = invokePerRequestFilters(r, msg);
+            } else {
+                Object filtered = msg.filtered.get(key);
+                if (filtered == null) {
+                    filtered = invokePerRequestFilters(r, msg);
+                    if (filtered == null) {
+                        filtered = ABORTED;
+                    }
+                    Object previous = msg.filtered.putIfAbsent(key, filtered);
+                    if (previous != null) {
+                        filtered = previous;
+                    }
+                } else {
+                    memoizedFilters.incrementAndGet();
+                }
+                finalMsg = filtered == ABORTED ? null : filtered;
             }
         }
                
-        trackBroadcastMessage(r, finalMsg);
+        trackBroadcastMessage(r, finalMsg, msg.broadcast);
         return finalMsg;
     }
 
+    private Object invokePerRequestFilters(AtmosphereResource<?, ?> r, Entry msg) {
+        Object message = msg.originalMessage;
+        BroadcastAction a  = bc.filter( (HttpServletRequest) r.getRequest(), (HttpServletResponse) r.getResponse(), message);
+        if (a.action() == BroadcastAction.ACTION.ABORT || a.message() != null) {
+           return a.message();
+        }
+        return msg.message;
+    }
+
+    /**
+     * Return the {@link ClassifiedBroadcastFilter} key of an {@link AtmosphereResource}, or null if the
+     * {@link PerRequestBroadcastFilter} must be invoked for that resource.
+     *
+     * @param r an {@link AtmosphereResource}
+     * @return the classification key, or null.
+     */
+    protected Object classification(AtmosphereResource<?, ?> r) {
+        if (r instanceof AtmosphereResourceImpl) {
+            return ((AtmosphereResourceImpl) r).classification(bc);
+        }
+        return null;
+    }
+
+    /**
+     * Return the number of {@link PerRequestBroadcastFilter} invocations saved by sharing the result of a
+     * {@link ClassifiedBroadcastFilter} between {@link AtmosphereResource} of the same class.
+     *
+     * @return the number of memoized filter invocations.
+     */
+    public long getMemoizedFilterCount() {
+        return memoizedFilters.get();
+    }
+
     private Object translate(Object msg) {
         if (Callable.class.isAssignableFrom(msg.getClass())) {
             try {
@@ -424,48 +1049,78 @@ public class DefaultBroadcaster implements Broadcaster {
         return msg;
     }
 
-    protected void executeAsyncWrite(final AtmosphereResource<?, ?> resource, final Object msg, final BroadcasterFuture future) {
+    /**
+     * Write the message using the {@link BroadcasterConfig#getAsyncWriteService()}. The {@link PayloadCache} is only
+     * made available to the {@link AtmosphereHandler} if the message hasn't been transformed for that resource.
+     *
+     * @param resource     the {@link AtmosphereResource}
+     * @param msg          the message
+     * @param future       the {@link BroadcasterFuture}
+     * @param payloadCache the {@link PayloadCache}, or null
+     */
+    protected void executeAsyncWrite(final AtmosphereResource<?, ?> resource, final Object msg,
+                                     final BroadcasterFuture future, final PayloadCache payloadCache) {
 
-        synchronized (resource) {
-            if (resource.getAtmosphereResourceEvent().isCancelled()) {
-                return;
-            }
+        if (resource.getAtmosphereResourceEvent().isCancelled()) {
+            return;
+        }
 
-            final AtmosphereResourceEvent event = resource.getAtmosphereResourceEvent();
-            event.setMessage(msg);
+        final AtmosphereResourceEvent event = resource.getAtmosphereResourceEvent();
+        final PayloadCache cache = payloadCache != null && payloadCache.isFor(msg) ? payloadCache : null;
+        final long queued = metrics != null ? System.nanoTime() : 0;
 
-            if (resource.getAtmosphereResourceEvent() != null && !resource.getAtmosphereResourceEvent().isCancelled()
-                    && HttpServletRequest.class.isAssignableFrom(resource.getRequest().getClass())) {
-                try {
-                    HttpServletRequest.class.cast(resource.getRequest())
-                            .setAttribute(CometSupport.MAX_INACTIVE, System.currentTimeMillis());
-                }
-                catch (Exception t) {
-                    // Shield us from any corrupted Request
-                    logger.warn("Preventing corruption of a recycled request: resource" + resource, event);
-                    resources.remove(resource);
-                    if (future != null) {
-                        future.cancel(true);
-                    }
-                    return;
+        if (resource instanceof AtmosphereResourceImpl) {
+            AtmosphereResourceImpl r = (AtmosphereResourceImpl) resource;
+            r.touch();
+            // Writes are queued and executed in order by a single task, so a slow client never blocks
+            // more than one Thread.
+            r.getMailbox().offer(new Mailbox.Delivery(msg, future) {
+                public void run() {
+                    setMessage(event, msg, cache);
+                    write(resource, event, future, queued);
                 }
-            }
+            }, bc.getAsyncWriteService());
+            return;
+        }
 
-            bc.getAsyncWriteService().execute(new Runnable(){
+        synchronized (resource) {
+            setMessage(event, msg, cache);
+            bc.getAsyncWriteService().execute(new Runnable() {
                 @Override
                 public void run() {
-                    broadcast(resource, event);
-                    if (resource instanceof AtmosphereEventLifecycle) {
-                        ((AtmosphereEventLifecycle) resource).notifyListeners();
-                    }
-                    if (future != null) {
-                        future.done();
-                    }
+                    write(resource, event, future, queued);
                 }
             });
         }
     }
 
+    private void setMessage(AtmosphereResourceEvent event, Object msg, PayloadCache cache) {
+        event.setMessage(msg);
+        if (event instanceof AtmosphereResourceEventImpl) {
+            ((AtmosphereResourceEventImpl) event).setPayloadCache(cache);
+        }
+    }
+
+    private void write(AtmosphereResource<?, ?> resource, AtmosphereResourceEvent event, BroadcasterFuture future,
+                       long queued) {
+        NodeStats.getDefault().writeStarted();
+        try {
+            broadcast(resource, event);
+        } finally {
+            NodeStats.getDefault().writeCompleted();
+        }
+        BroadcasterMetrics m = metrics;
+        if (m != null && queued != 0) {
+            m.writeCompleted(System.nanoTime() - queued);
+        }
+        if (resource instanceof AtmosphereEventLifecycle) {
+            ((AtmosphereEventLifecycle) resource).notifyListeners();
+        }
+        if (future != null) {
+            future.done();
+        }
+    }
+
     protected void checkCachedAndPush(final AtmosphereResource<?, ?> r, final AtmosphereResourceEvent e) {
         retrieveTrackedBroadcast(r, e);
         if (e.getMessage() instanceof List && !((List) e.getMessage()).isEmpty()) {
@@ -475,6 +1130,10 @@ public class DefaultBroadcaster implements Broadcaster {
 
     protected boolean retrieveTrackedBroadcast(final AtmosphereResource<?, ?> r, final AtmosphereResourceEvent e) {
         List<?> missedMsg = broadcasterCache.retrieveFromCache(r);
+        BroadcasterMetrics m = metrics;
+        if (m != null) {
+            m.cacheRetrieved(missedMsg.size());
+        }
         if (!missedMsg.isEmpty()) {
             e.setMessage(missedMsg);
             return true;
@@ -485,10 +1144,40 @@ public class DefaultBroadcaster implements Broadcaster {
     protected void trackBroadcastMessage(final AtmosphereResource<?, ?> r, Object msg) {
         broadcasterCache.addToCache(r, msg);
     }
+
+    /**
+     * Add the message to the {@link BroadcasterCache}. A {@link ManagedBroadcasterCache} also gets the number of the
+     * broadcast, shared by all the {@link AtmosphereResource} receiving the message.
+     *
+     * @param r         the {@link AtmosphereResource}, or null
+     * @param msg       the message
+     * @param broadcast the number of the broadcast
+     */
+    protected void trackBroadcastMessage(final AtmosphereResource<?, ?> r, Object msg, long broadcast) {
+        BroadcasterCache cache = broadcasterCache;
+        if (cache instanceof ManagedBroadcasterCache) {
+            ((ManagedBroadcasterCache) cache).addToCache(r, msg, broadcast);
+        } else {
+            trackBroadcastMessage(r, msg);
+        }
+    }
                                                                                                              
     protected void broadcast(final AtmosphereResource<?, ?> r, final AtmosphereResourceEvent e) {
         try {
+            Object response = r.getResponse();
+            WebSocketHttpServletResponse<?> webSocketResponse = response instanceof WebSocketHttpServletResponse ?
+                    (WebSocketHttpServletResponse<?>) response : null;
+            if (webSocketResponse != null) {
+                webSocketResponse.setFrame(e.getMessage() instanceof byte[] ?
+                        WebSocketSupport.BINARY_FRAME : WebSocketSupport.TEXT_FRAME);
+            }
+
             r.getAtmosphereConfig().getAtmosphereHandler(this).onStateChange(e);
+
+            // A WebSocket frame is only sent when flushed, send whatever the AtmosphereHandler didn't flush.
+            if (webSocketResponse != null) {
+                webSocketResponse.flushBuffer();
+            }
         } catch (IOException ex) {
             if (AtmosphereResourceImpl.class.isAssignableFrom(r.getClass())) {
                 AtmosphereResourceImpl.class.cast(r).notifyListeners(e);
@@ -504,6 +1193,10 @@ public class DefaultBroadcaster implements Broadcaster {
 
     protected void onException(Throwable t, final AtmosphereResource<?, ?> r) {
         logger.debug("onException()", t);
+        BroadcasterMetrics m = metrics;
+        if (m != null) {
+            m.writeFailed();
+        }
 
         if (r instanceof AtmosphereEventLifecycle) {
             ((AtmosphereEventLifecycle) r)
@@ -544,10 +1237,25 @@ public class DefaultBroadcaster implements Broadcaster {
         if (newMsg == null) return null;
 
         BroadcasterFuture<Object> f = new BroadcasterFuture<Object>(newMsg);
-        messages.offer(new Entry(newMsg, null, f, msg));
+        publish(newMsg, null, f, msg);
         return f;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean broadcastAndForget(Object msg) {
+
+        if (destroyed.get()) throw new IllegalStateException("This Broadcaster has been destroyed and cannot be used");
+
+        start();
+        Object newMsg = filter(msg);
+        if (newMsg == null) return false;
+
+        return publish(newMsg, null, null, msg);
+    }
+
     /**
      * Invoke the {@link BroadcastFilter}
      *
@@ -555,6 +1263,10 @@ public class DefaultBroadcaster implements Broadcaster {
      * @return
      */
     protected Object filter(Object msg) {
+        if (!bc.hasFilters()) {
+            return msg;
+        }
+
         BroadcastAction a = bc.filter(msg);
         if (a.action() == BroadcastAction.ACTION.ABORT || msg == null)
             return null;
@@ -575,7 +1287,7 @@ public class DefaultBroadcaster implements Broadcaster {
         if (newMsg == null) return null;
 
         BroadcasterFuture<Object> f = new BroadcasterFuture<Object>(newMsg);
-        messages.offer(new Entry(newMsg, r, f, msg));
+        publish(newMsg, r, f, msg);
         return f;
     }
 
@@ -622,10 +1334,36 @@ public class DefaultBroadcaster implements Broadcaster {
         if (newMsg == null) return null;
 
         BroadcasterFuture<Object> f = new BroadcasterFuture<Object>(newMsg);
-        messages.offer(new Entry(newMsg, subset, f, msg));
+        publish(newMsg, subset, f, msg);
         return f;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> Future<T> broadcast(T msg, Selector selector) {
+
+        if (destroyed.get()) throw new IllegalStateException("This Broadcaster has been destroyed and cannot be used");
+
+        start();
+        Object newMsg = filter(msg);
+        if (newMsg == null) return null;
+
+        BroadcasterFuture<Object> f = new BroadcasterFuture<Object>(newMsg);
+        publish(newMsg, selector, f, msg);
+        return f;
+    }
+
+    /**
+     * Return the {@link TagIndex} used to resolve {@link Selector}.
+     *
+     * @return the {@link TagIndex}
+     */
+    public TagIndex getTagIndex() {
+        return tagIndex;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -639,32 +1377,41 @@ public class DefaultBroadcaster implements Broadcaster {
                     + " cannot be used as its scope is set to REQUEST");
         }
 
-        if (maxSuspendResource > 0 && resources.size() == maxSuspendResource) {
+        if (resources.contains(r)) {
+            return r;
+        }
+
+        if (maxSuspendResource > 0 && resources.size() >= maxSuspendResource) {
             // Resume the first in.
             if (policy == POLICY.FIFO) {
-                // TODO handle null return from poll()
                 AtmosphereResource<?, ?> resource = resources.poll();
-                try {
-                    resource.resume();
-                }
-                catch (Throwable t) {
-                    logger.warn("failed to resume resource: " + resource, t);
+                if (resource != null) {
+                    tagIndex.remove(resource);
+                    try {
+                        resource.resume();
+                    }
+                    catch (Throwable t) {
+                        logger.warn("failed to resume resource: " + resource, t);
+                    }
                 }
             } else if (policy == POLICY.REJECT) {
                 throw new RejectedExecutionException(String.format("Maximum suspended AtmosphereResources %s", maxSuspendResource));
             }
         }
 
-        if (resources.contains(r)) {
-            return r;
-        }
-
         // Re-add yourself
         if (resources.isEmpty()) {
             BroadcasterFactory.getDefault().add(this, name);
         }
 
-        resources.add(r);
+        if (!resources.add(r)) {
+            return r;
+        }
+        tagIndex.add(r);
+        if (bc.hasPerRequestFilters() && r.getRequest() instanceof HttpServletRequest) {
+            // Classify the request once, when it gets suspended.
+            classification(r);
+        }
         checkCachedAndPush(r, r.getAtmosphereResourceEvent());
         return r;
     }
@@ -674,10 +1421,10 @@ public class DefaultBroadcaster implements Broadcaster {
      */
     @Override
     public AtmosphereResource<?, ?> removeAtmosphereResource(AtmosphereResource r) {
-        if (!resources.contains(r)) {
+        if (!resources.remove(r)) {
             return null;
         }
-        resources.remove(r);
+        tagIndex.remove(r);
 
         // Will help preventing OOM.
         if (resources.isEmpty()) {
@@ -699,6 +1446,32 @@ public class DefaultBroadcaster implements Broadcaster {
     @Override
     public void setBroadcasterConfig(BroadcasterConfig bc) {
         this.bc = bc;
+        if (started.get()) {
+            logger.debug("Broadcaster {} already started, the message queue settings will be ignored", name);
+        }
+    }
+
+    /**
+     * Create the message queue, or the {@link RingBuffer}, from the {@link BroadcasterConfig} settings. Invoked once,
+     * when this {@link Broadcaster} starts.
+     */
+    private void configureMessageQueue() {
+        int capacity = bc.getMessageQueueCapacity();
+        if (bc.isRingBuffer()) {
+            if (bc.getOverflowPolicy() == BroadcasterConfig.OVERFLOW_POLICY.DROP_OLDEST) {
+                logger.warn("Broadcaster {} ring buffer doesn't support {}, publishers will block instead",
+                        name, BroadcasterConfig.OVERFLOW_POLICY.DROP_OLDEST);
+            }
+            Entry[] slots = new Entry[RingBuffer.capacityFor(capacity > 0 ? capacity : DEFAULT_RING_BUFFER_SIZE)];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new Entry(null, null, null, null);
+            }
+            ring = new RingBuffer<Entry>(slots);
+        } else if (capacity > 0) {
+            BlockingQueue<Entry> bounded = new LinkedBlockingQueue<Entry>(capacity);
+            messages.drainTo(bounded, capacity);
+            messages = bounded;
+        }
     }
 
     /**
@@ -710,6 +1483,27 @@ public class DefaultBroadcaster implements Broadcaster {
         return bc;
     }
 
+    /**
+     * Set the {@link BroadcasterMetrics} notified of the activity of this {@link Broadcaster}.
+     *
+     * @param metrics the {@link BroadcasterMetrics}, or null to disable the instrumentation.
+     */
+    public void setMetrics(BroadcasterMetrics metrics) {
+        this.metrics = metrics;
+        if (broadcasterCache instanceof BroadcasterCacheBase) {
+            ((BroadcasterCacheBase) broadcasterCache).setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Return the {@link BroadcasterMetrics} notified of the activity of this {@link Broadcaster}.
+     *
+     * @return the {@link BroadcasterMetrics}, or null if not instrumented.
+     */
+    public BroadcasterMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -40,10 +40,13 @@ package org.atmosphere.cpr;
 
 
 import org.atmosphere.di.InjectorProvider;
+import org.atmosphere.metrics.MetricsRegistry;
+import org.atmosphere.metrics.NodeStats;
 import org.atmosphere.util.AbstractBroadcasterProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.ServletConfig;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -71,8 +74,19 @@ public class DefaultBroadcasterFactory extends BroadcasterFactory {
     private BroadcasterLifeCyclePolicy policy =
             new BroadcasterLifeCyclePolicy.Builder().policy(NEVER).build();
 
+    private final SharedDispatcher sharedDispatcher;
+
+    // The scope of the BroadcasterStats registered by this factory, by Broadcaster ID.
+    private final ConcurrentHashMap<String, String> instrumented = new ConcurrentHashMap<String, String>();
+
     protected DefaultBroadcasterFactory(Class<? extends Broadcaster> clazz, String broadcasterLifeCyclePolicy) {
+        this(clazz, broadcasterLifeCyclePolicy, null);
+    }
+
+    protected DefaultBroadcasterFactory(Class<? extends Broadcaster> clazz, String broadcasterLifeCyclePolicy,
+                                        SharedDispatcher sharedDispatcher) {
         this.clazz = clazz;
+        this.sharedDispatcher = sharedDispatcher;
 
         if (factory == null) {
             this.factory = this;
@@ -105,10 +119,11 @@ public class DefaultBroadcasterFactory extends BroadcasterFactory {
         if (AbstractBroadcasterProxy.class.isAssignableFrom(b.getClass())) {
             AbstractBroadcasterProxy.class.cast(b).configure(config);
         }
-        b.setBroadcasterConfig(new BroadcasterConfig(AtmosphereServlet.broadcasterFilters, config));
+        b.setBroadcasterConfig(new BroadcasterConfig(AtmosphereServlet.broadcasterFilters, config, sharedDispatcher));
         b.setID(clazz.getSimpleName() + "-" + UUID.randomUUID());
         b.setBroadcasterLifeCyclePolicy(policy);
-        store.put(b.getID(), b);
+        put(b.getID(), b);
+        instrument(b, b.getID());
         return b;
     }
 
@@ -127,14 +142,25 @@ public class DefaultBroadcasterFactory extends BroadcasterFactory {
         if (AbstractBroadcasterProxy.class.isAssignableFrom(b.getClass())) {
             AbstractBroadcasterProxy.class.cast(b).configure(config);
         }
-        b.setBroadcasterConfig(new BroadcasterConfig(AtmosphereServlet.broadcasterFilters, config));
+        b.setBroadcasterConfig(new BroadcasterConfig(AtmosphereServlet.broadcasterFilters, config, sharedDispatcher));
         b.setID(id.toString());
         b.setBroadcasterLifeCyclePolicy(policy);
 
-        store.put(id, b);
+        put(id, b);
+        instrument(b, id);
         return b;
     }
 
+    /**
+     * Return the {@link SharedDispatcher} used by the {@link Broadcaster} this factory creates, or null if every
+     * {@link Broadcaster} use its own dispatch Thread.
+     *
+     * @return the {@link SharedDispatcher}, or null
+     */
+    public SharedDispatcher getSharedDispatcher() {
+        return sharedDispatcher;
+    }
+
     /**
      * Return a {@link Broadcaster} based on its name.
      *
@@ -149,14 +175,86 @@ public class DefaultBroadcasterFactory extends BroadcasterFactory {
      * {@inheritDoc}
      */
     public boolean add(Broadcaster b, Object id) {
-        return (store.put(id, b) == null);
+        boolean added = put(id, b) == null;
+        instrument(b, id);
+        return added;
     }
 
     /**
      * {@inheritDoc}
      */
     public boolean remove(Broadcaster b, Object id) {
-        return (store.remove(id) != null);
+        Broadcaster previous = store.remove(id);
+        if (previous != null) {
+            NodeStats.getDefault().broadcasterRemoved(previous);
+        }
+        boolean removed = previous != null;
+        if (removed) {
+            uninstrument(id.toString());
+        }
+        return removed;
+    }
+
+    /**
+     * Store a {@link Broadcaster}, keeping the {@link NodeStats} count of {@link Broadcaster} by type up to date.
+     *
+     * @param id the ID
+     * @param b  the {@link Broadcaster}
+     * @return the {@link Broadcaster} previously stored under that ID, or null
+     */
+    private Broadcaster put(Object id, Broadcaster b) {
+        Broadcaster previous = store.put(id, b);
+        if (previous != b) {
+            NodeStats.getDefault().broadcasterAdded(b);
+            if (previous != null) {
+                NodeStats.getDefault().broadcasterRemoved(previous);
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Register the {@link org.atmosphere.metrics.BroadcasterStats} and JMX MBean of a {@link DefaultBroadcaster}
+     * when {@link AtmosphereServlet#BROADCASTER_METRICS} is enabled.
+     *
+     * @param b  the {@link Broadcaster}
+     * @param id its ID
+     */
+    protected void instrument(Broadcaster b, Object id) {
+        if (id != null && b instanceof DefaultBroadcaster && isMetricsEnabled()) {
+            String scope = metricsScope();
+            String previous = instrumented.put(id.toString(), scope);
+            if (previous != null && !previous.equals(scope)) {
+                MetricsRegistry.getDefault().unregister(previous, id.toString());
+            }
+            DefaultBroadcaster.class.cast(b).setMetrics(MetricsRegistry.getDefault().register(scope, id.toString()));
+        }
+    }
+
+    private void uninstrument(String id) {
+        String scope = instrumented.remove(id);
+        if (scope != null) {
+            MetricsRegistry.getDefault().unregister(scope, id);
+        }
+    }
+
+    /**
+     * Return the scope under which the {@link org.atmosphere.metrics.BroadcasterStats} of this factory are
+     * registered: the context path of the web application, so two applications using the same {@link Broadcaster}
+     * ID get their own JMX MBean.
+     *
+     * @return the scope
+     */
+    protected String metricsScope() {
+        ServletConfig sc = config.getServletConfig();
+        if (sc == null || sc.getServletContext() == null) {
+            return "";
+        }
+        return sc.getServletContext().getContextPath();
+    }
+
+    private boolean isMetricsEnabled() {
+        return config != null && Boolean.parseBoolean(config.getInitParameter(AtmosphereServlet.BROADCASTER_METRICS));
     }
 
     /**
@@ -207,7 +305,14 @@ public class DefaultBroadcasterFactory extends BroadcasterFactory {
         while (e.hasMoreElements()) {
             e.nextElement().destroy();
         }
+        for (Broadcaster b : store.values()) {
+            NodeStats.getDefault().broadcasterRemoved(b);
+        }
         store.clear();
+        // Only the stats of this factory, the registry is shared with the other web applications.
+        for (String id : instrumented.keySet()) {
+            uninstrument(id);
+        }
         factory = null;
     }
 
@@ -0,0 +1,475 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed wheel timer shared by the framework's periodic and delayed tasks: {@link BroadcasterCache} reaping,
+ * inactive connections detection, {@link BroadcasterLifeCyclePolicy}, heartbeats, etc. Scheduling and cancelling a
+ * task is O(1), and all the tasks are executed by a single Thread, whatever the number of tasks.
+ * <p/>
+ * The timer has a resolution of one tick: a task is executed at the first tick following its deadline. Tasks are
+ * executed by the timer Thread and must be short; a long task must hand off its work to an
+ * {@link java.util.concurrent.Executor}. The delay between the expected and the real time of every tick is
+ * recorded, see {@link #getLastTickLag()} and {@link #getMaxTickLag()}.
+ */
+public class HashedWheelTimer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private static HashedWheelTimer defaultTimer;
+    // Number of retainDefault() not yet released.
+    private static int defaultTimerUsers;
+
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final long startTime;
+    private final Thread worker;
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger scheduled = new AtomicInteger();
+    private volatile boolean running = true;
+
+    private volatile long tick;
+    private volatile long lastTickLag;
+    private final AtomicLong maxTickLag = new AtomicLong();
+    private final AtomicLong totalTickLag = new AtomicLong();
+
+    /**
+     * Create a {@link HashedWheelTimer}.
+     *
+     * @param name          the name of the timer Thread
+     * @param tickDuration  the duration of a tick
+     * @param unit          the {@link TimeUnit} of the tickDuration
+     * @param ticksPerWheel the number of buckets of the wheel, rounded up to a power of two
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+
+        wheel = new Bucket[RingBuffer.capacityFor(ticksPerWheel)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = wheel.length - 1;
+        tickNanos = unit.toNanos(tickDuration);
+        startTime = System.nanoTime();
+
+        worker = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Return the {@link HashedWheelTimer} shared by the framework. The timer is only created by
+     * {@link #retainDefault()}: once released by all its users, the stopped timer is returned and rejects the tasks.
+     *
+     * @return the {@link HashedWheelTimer} shared by the framework.
+     * @throws RejectedExecutionException if the timer has never been retained.
+     */
+    public static synchronized HashedWheelTimer getDefault() {
+        if (defaultTimer == null) {
+            throw new RejectedExecutionException("The default HashedWheelTimer has not been retained");
+        }
+        return defaultTimer;
+    }
+
+    /**
+     * Return the {@link HashedWheelTimer} shared by the framework, and keep it running until {@link #releaseDefault()}
+     * is invoked. Every {@link AtmosphereServlet} of the JVM retains the timer when initialized.
+     *
+     * @return the {@link HashedWheelTimer} shared by the framework.
+     */
+    public static synchronized HashedWheelTimer retainDefault() {
+        if (defaultTimer == null || !defaultTimer.running) {
+            defaultTimer = new HashedWheelTimer("Atmosphere-Timer", 50, TimeUnit.MILLISECONDS, 512);
+        }
+        defaultTimerUsers++;
+        return defaultTimer;
+    }
+
+    /**
+     * Release the {@link HashedWheelTimer} retained by {@link #retainDefault()}. The timer is stopped once released
+     * by all its users.
+     */
+    public static synchronized void releaseDefault() {
+        if (defaultTimerUsers > 0 && --defaultTimerUsers == 0) {
+            shutdownDefault();
+        }
+    }
+
+    /**
+     * Stop the {@link HashedWheelTimer} shared by the framework, whatever the number of users. The stopped timer is
+     * returned by {@link #getDefault()} until the next invocation of {@link #retainDefault()}.
+     */
+    public static synchronized void shutdownDefault() {
+        if (defaultTimer != null) {
+            defaultTimer.shutdown();
+        }
+        defaultTimerUsers = 0;
+    }
+
+    /**
+     * Execute the task once, after the delay.
+     *
+     * @param task  the task
+     * @param delay the delay
+     * @param unit  the {@link TimeUnit} of the delay
+     * @return a {@link ScheduledFuture} that can be used to cancel the task.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return add(new Timeout(task, deadline(delay, unit), 0));
+    }
+
+    /**
+     * Execute the task periodically, after the initialDelay and then every period, until cancelled.
+     *
+     * @param task         the task
+     * @param initialDelay the delay before the first execution
+     * @param period       the period between successive executions
+     * @param unit         the {@link TimeUnit} of initialDelay and period
+     * @return a {@link ScheduledFuture} that can be used to cancel the task.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be greater than 0: " + period);
+        }
+        return add(new Timeout(task, deadline(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    /**
+     * Stop the timer Thread. Pending tasks are not executed.
+     */
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * Return true if {@link #shutdown()} has been invoked.
+     *
+     * @return true if {@link #shutdown()} has been invoked.
+     */
+    public boolean isShutdown() {
+        return !running;
+    }
+
+    /**
+     * Return the number of tasks scheduled and not yet expired or cancelled.
+     *
+     * @return the number of scheduled tasks.
+     */
+    public int getScheduledTasks() {
+        return scheduled.get();
+    }
+
+    /**
+     * Return the number of ticks since the timer started.
+     *
+     * @return the number of ticks since the timer started.
+     */
+    public long getTicks() {
+        return tick;
+    }
+
+    /**
+     * Return the delay, in milliseconds, between the expected and the real time of the last tick.
+     *
+     * @return the last tick lag in milliseconds.
+     */
+    public long getLastTickLag() {
+        return TimeUnit.NANOSECONDS.toMillis(lastTickLag);
+    }
+
+    /**
+     * Return the maximum delay, in milliseconds, between the expected and the real time of a tick.
+     *
+     * @return the maximum tick lag in milliseconds.
+     */
+    public long getMaxTickLag() {
+        return TimeUnit.NANOSECONDS.toMillis(maxTickLag.get());
+    }
+
+    /**
+     * Return the average delay, in milliseconds, between the expected and the real time of a tick.
+     *
+     * @return the average tick lag in milliseconds.
+     */
+    public double getAverageTickLag() {
+        long ticks = tick;
+        return ticks == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(totalTickLag.get()) / ticks / 1000;
+    }
+
+    private long deadline(long delay, TimeUnit unit) {
+        return System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+    }
+
+    private Timeout add(Timeout t) {
+        if (!running) {
+            throw new RejectedExecutionException("HashedWheelTimer has been shutdown");
+        }
+        scheduled.incrementAndGet();
+        pending.offer(t);
+        return t;
+    }
+
+    private void work() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long now;
+            while ((now = System.nanoTime() - startTime) < deadline) {
+                LockSupport.parkNanos(this, deadline - now);
+                if (!running) {
+                    return;
+                }
+            }
+
+            long lag = now - deadline;
+            lastTickLag = lag;
+            totalTickLag.addAndGet(lag);
+            if (lag > maxTickLag.get()) {
+                maxTickLag.set(lag);
+            }
+
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire(now);
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void transferPending() {
+        Timeout t;
+        // Bound the work done per tick so the wheel keeps ticking under a burst of scheduled tasks.
+        for (int i = 0; i < 100000 && (t = pending.poll()) != null; i++) {
+            if (t.state.get() == CANCELLED) {
+                continue;
+            }
+
+            long calculated = t.deadline / tickNanos;
+            t.remainingRounds = (calculated - tick) / wheel.length;
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(t);
+        }
+    }
+
+    private void expired(Timeout t) {
+        try {
+            t.task.run();
+        } catch (Throwable e) {
+            logger.warn("Timer task {} failed", t.task, e);
+        }
+
+        if (t.period > 0 && t.state.get() == INIT && running) {
+            t.deadline += t.period;
+            pending.offer(t);
+        } else if (t.state.compareAndSet(INIT, EXPIRED)) {
+            scheduled.decrementAndGet();
+            t.done();
+        }
+    }
+
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) {
+                t.prev.next = next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+            if (t == head) {
+                head = next;
+            }
+            if (t == tail) {
+                tail = t.prev;
+            }
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+
+        void expire(long now) {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.state.get() == CANCELLED) {
+                    remove(t);
+                } else if (t.remainingRounds <= 0) {
+                    remove(t);
+                    expired(t);
+                } else {
+                    t.remainingRounds--;
+                }
+                t = next;
+            }
+        }
+    }
+
+    private final class Timeout implements ScheduledFuture<Object> {
+        private final Runnable task;
+        private final long period;
+        private final AtomicInteger state = new AtomicInteger(INIT);
+        private volatile long deadline;
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+        private boolean done;
+
+        Timeout(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!state.compareAndSet(INIT, CANCELLED)) {
+                return false;
+            }
+            scheduled.decrementAndGet();
+            cancelled.offer(this);
+            done();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isDone() {
+            return state.get() != INIT;
+        }
+
+        public Object get() throws InterruptedException, ExecutionException {
+            synchronized (this) {
+                while (!done) {
+                    wait();
+                }
+            }
+            return result();
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long end = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this) {
+                while (!done) {
+                    long remaining = end - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new TimeoutException();
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+            return result();
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - (System.nanoTime() - startTime), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            long d = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+            return d < 0 ? -1 : d > 0 ? 1 : 0;
+        }
+
+        synchronized void done() {
+            done = true;
+            notifyAll();
+        }
+
+        private Object result() {
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "Timeout{task=" + task + ", period=" + period + ", state=" + state.get() + "}";
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detect inactive keys (usually suspended {@link AtmosphereResource}) without scanning all of them. Tracked keys are
+ * stored in buckets ordered by deadline, and only the buckets whose deadline has passed are examined. Marking a key
+ * as active with {@link #touch(Object)} is a timestamp update: the key isn't moved, and is re-bucketed lazily when its
+ * old deadline is reached.
+ *
+ * @param <K> the tracked key
+ */
+public abstract class InactivityTracker<K> {
+
+    private static final Logger logger = LoggerFactory.getLogger(InactivityTracker.class);
+
+    private final long maxInactive;
+    private final long resolution;
+    private final ConcurrentHashMap<K, Entry<K>> index = new ConcurrentHashMap<K, Entry<K>>();
+    // Bucket number -> entries whose deadline falls in that bucket. Guarded by this.
+    private final TreeMap<Long, List<Entry<K>>> buckets = new TreeMap<Long, List<Entry<K>>>();
+    private ScheduledFuture<?> future;
+
+    /**
+     * Create a tracker.
+     *
+     * @param maxInactive the maximum inactivity time, in milliseconds
+     * @param resolution  the precision of the detection, in milliseconds
+     */
+    public InactivityTracker(long maxInactive, long resolution) {
+        if (maxInactive <= 0 || resolution <= 0) {
+            throw new IllegalArgumentException("maxInactive and resolution must be positive");
+        }
+        this.maxInactive = maxInactive;
+        this.resolution = resolution;
+    }
+
+    /**
+     * Invoked, from the timer Thread, when a key has been inactive for more than the maximum inactivity time. The key
+     * is no longer tracked.
+     *
+     * @param key the inactive key
+     */
+    protected abstract void expired(K key);
+
+    /**
+     * Periodically look for inactive keys using the {@link HashedWheelTimer}.
+     *
+     * @param timer the {@link HashedWheelTimer}
+     * @return this
+     */
+    public synchronized InactivityTracker<K> start(HashedWheelTimer timer) {
+        if (future == null) {
+            future = timer.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    expire(System.currentTimeMillis());
+                }
+            }, resolution, resolution, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Stop the detection and forget all the tracked keys.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+            buckets.clear();
+        }
+        index.clear();
+    }
+
+    /**
+     * Start tracking a key, active now.
+     *
+     * @param key the key
+     */
+    public void track(K key) {
+        Entry<K> e = new Entry<K>(key, System.currentTimeMillis());
+        Entry<K> old = index.put(key, e);
+        if (old != null) {
+            old.tracked = false;
+        }
+        schedule(e, e.lastActive + maxInactive);
+    }
+
+    /**
+     * Mark a key as active now. Does nothing if the key isn't tracked.
+     *
+     * @param key the key
+     */
+    public void touch(K key) {
+        Entry<K> e = index.get(key);
+        if (e != null) {
+            e.lastActive = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Stop tracking a key.
+     *
+     * @param key the key
+     */
+    public void untrack(K key) {
+        Entry<K> e = index.remove(key);
+        if (e != null) {
+            e.tracked = false;
+        }
+    }
+
+    /**
+     * Return the number of tracked keys.
+     *
+     * @return the number of tracked keys.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Examine the buckets whose deadline is before {@code now}, and invoke {@link #expired(Object)} for every key
+     * inactive for more than the maximum inactivity time. Keys active since they were bucketed are moved to the
+     * bucket of their new deadline.
+     *
+     * @param now the current time, in milliseconds
+     * @return the number of expired keys
+     */
+    public int expire(long now) {
+        List<Entry<K>> due = new ArrayList<Entry<K>>();
+        synchronized (this) {
+            Iterator<List<Entry<K>>> i = buckets.headMap(now / resolution, true).values().iterator();
+            while (i.hasNext()) {
+                due.addAll(i.next());
+                i.remove();
+            }
+        }
+
+        int expired = 0;
+        for (Entry<K> e : due) {
+            if (!e.tracked) {
+                continue;
+            }
+
+            long deadline = e.lastActive + maxInactive;
+            if (deadline > now) {
+                schedule(e, deadline);
+            } else if (index.remove(e.key, e)) {
+                e.tracked = false;
+                expired++;
+                try {
+                    expired(e.key);
+                } catch (Throwable t) {
+                    logger.debug("failed to expire " + e.key, t);
+                }
+            }
+        }
+        return expired;
+    }
+
+    private void schedule(Entry<K> e, long deadline) {
+        // Round up, a key must never be examined before its deadline.
+        Long bucket = (deadline + resolution - 1) / resolution;
+        synchronized (this) {
+            List<Entry<K>> l = buckets.get(bucket);
+            if (l == null) {
+                l = new ArrayList<Entry<K>>();
+                buckets.put(bucket, l);
+            }
+            l.add(e);
+        }
+    }
+
+    private final static class Entry<K> {
+
+        final K key;
+        volatile long lastActive;
+        volatile boolean tracked = true;
+
+        Entry(K key, long lastActive) {
+            this.key = key;
+            this.lastActive = lastActive;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The outbound queue of an {@link AtmosphereResourceImpl}. Messages broadcasted to an {@link AtmosphereResource}
+ * are queued inside its {@link Mailbox} and written, in order, by a single task executed by the
+ * {@link BroadcasterConfig#getAsyncWriteService()}. At most one task per {@link AtmosphereResource} is executing at the
+ * same time, so a slow client never holds more than one write Thread.
+ * <p/>
+ * When more than {@link #getMaxPending()} messages are waiting, or when a write takes more than
+ * {@link #getWriteTimeout()} milliseconds, the {@link POLICY} is applied. {@link POLICY#DISCONNECT} is also applied by
+ * the {@link HashedWheelTimer} when a write times out, so a consumer stuck in a write is disconnected even if no
+ * other message is broadcasted to it.
+ * <p/>
+ * When {@link #setConflation(boolean) conflation} is enabled, a {@link Conflatable} message replaces, in place, the
+ * pending message with the same key.
+ */
+public class Mailbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(Mailbox.class);
+
+    /**
+     * What to do with a slow consumer.
+     */
+    public enum POLICY {
+        /**
+         * Discard the pending messages and only keep the last one.
+         */
+        CONFLATE,
+        /**
+         * Discard the new messages until the consumer catch up.
+         */
+        DROP,
+        /**
+         * Notify {@link AtmosphereResourceEventListener#onThrowable} and resume the {@link AtmosphereResource}
+         */
+        DISCONNECT
+    }
+
+    private final AtmosphereResourceImpl resource;
+    private final ConcurrentLinkedQueue<Delivery> queue = new ConcurrentLinkedQueue<Delivery>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile boolean discarding;
+    private volatile long writeStartedAt;
+    // The Executor draining this Mailbox, also used to disconnect on a write timeout.
+    private volatile Executor executor;
+
+    private int maxPending = -1;
+    private long writeTimeout = -1;
+    private POLICY policy = POLICY.DISCONNECT;
+    private boolean conflation = false;
+    // Pending Delivery by Conflatable key.
+    private final ConcurrentHashMap<Object, Delivery> pendingByKey = new ConcurrentHashMap<Object, Delivery>();
+
+    private final Runnable drainer = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable writeTimedOut = new Runnable() {
+        public void run() {
+            final Executor e = executor;
+            // Executed by the timer Thread, disconnecting notifies the listeners.
+            Runnable disconnect = new Runnable() {
+                public void run() {
+                    if (isWriteTimedOut()) {
+                        disconnect(e, "Slow consumer: write pending for more than " + writeTimeout + " ms");
+                    }
+                }
+            };
+            try {
+                e.execute(disconnect);
+            } catch (RejectedExecutionException ex) {
+                disconnect.run();
+            }
+        }
+    };
+
+    public Mailbox(AtmosphereResourceImpl resource) {
+        this.resource = resource;
+    }
+
+    /**
+     * Queue a {@link Delivery}. The {@link Delivery} will be executed using the {@link Executor}
+     *
+     * @param d        the {@link Delivery}
+     * @param executor the {@link Executor} used to drain this {@link Mailbox}
+     * @return true if the {@link Delivery} was queued, false if it was discarded.
+     */
+    public boolean offer(Delivery d, Executor executor) {
+        if (closed.get()) {
+            d.discard();
+            return false;
+        }
+
+        this.executor = executor;
+        if (isSlow()) {
+            switch (policy) {
+                case CONFLATE:
+                    discardPending();
+                    break;
+                case DROP:
+                    d.discard();
+                    return false;
+                case DISCONNECT:
+                    d.discard();
+                    disconnect(executor, "Slow consumer: " + pending.get() + " pending messages");
+                    return false;
+            }
+        }
+
+        if (conflation && d.message instanceof Conflatable) {
+            Object key = ((Conflatable) d.message).getKey();
+            Delivery prev = pendingByKey.get(key);
+            if (prev != null && prev.replace(d)) {
+                return true;
+            }
+            d.key = key;
+            pendingByKey.put(key, d);
+        }
+
+        queue.offer(d);
+        pending.incrementAndGet();
+        if (wip.getAndIncrement() == 0) {
+            try {
+                executor.execute(drainer);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Unable to drain mailbox of {}", resource, e);
+                wip.set(0);
+                discardPending();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the consumer has too many pending messages, or if its current write is taking too long.
+     *
+     * @return true if the consumer is considered slow.
+     */
+    public boolean isSlow() {
+        return maxPending > 0 && pending.get() >= maxPending || isWriteTimedOut();
+    }
+
+    private boolean isWriteTimedOut() {
+        long started = writeStartedAt;
+        return writeTimeout > 0 && started > 0 && System.currentTimeMillis() - started >= writeTimeout;
+    }
+
+    /**
+     * Return the number of messages waiting to be written.
+     *
+     * @return the number of messages waiting to be written.
+     */
+    public int size() {
+        return pending.get();
+    }
+
+    /**
+     * Discard all pending messages and stop accepting new one.
+     */
+    public void close() {
+        close(true);
+    }
+
+    /**
+     * Stop accepting new messages.
+     *
+     * @param discardPending true to discard the pending messages, false to still write them.
+     */
+    public void close(boolean discardPending) {
+        closed.set(true);
+        if (discardPending) {
+            discarding = true;
+            discardPending();
+        }
+    }
+
+    /**
+     * Return true once this {@link Mailbox} no longer accepts messages.
+     *
+     * @return true if closed.
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    void drain() {
+        int missed = 1;
+        do {
+            Delivery d;
+            while ((d = queue.poll()) != null) {
+                pending.decrementAndGet();
+                Delivery latest = claim(d);
+                if (discarding) {
+                    latest.discard();
+                    continue;
+                }
+
+                writeStartedAt = System.currentTimeMillis();
+                ScheduledFuture<?> timeout = scheduleWriteTimeout();
+                try {
+                    latest.run();
+                } catch (Throwable t) {
+                    logger.debug("failed to write to {}", resource, t);
+                } finally {
+                    writeStartedAt = 0;
+                    if (timeout != null) {
+                        timeout.cancel(false);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private ScheduledFuture<?> scheduleWriteTimeout() {
+        // The other policies only apply to new messages, see offer().
+        if (writeTimeout <= 0 || policy != POLICY.DISCONNECT || resource == null) {
+            return null;
+        }
+        try {
+            return HashedWheelTimer.getDefault().schedule(writeTimedOut, writeTimeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // No timer outside of an AtmosphereServlet: the timeout is only checked when a message is offered.
+            return null;
+        }
+    }
+
+    private void discardPending() {
+        Delivery d;
+        while ((d = queue.poll()) != null) {
+            pending.decrementAndGet();
+            claim(d).discard();
+        }
+    }
+
+    /**
+     * Stop accepting replacements for a queued {@link Delivery}, and return the {@link Delivery} to execute.
+     */
+    private Delivery claim(Delivery d) {
+        if (d.key == null) {
+            return d;
+        }
+        Delivery latest = d.latest.getAndSet(null);
+        pendingByKey.remove(d.key, d);
+        return latest;
+    }
+
+    private void disconnect(Executor e, String reason) {
+        if (closed.getAndSet(true)) {
+            return;
+        }
+        discarding = true;
+        discardPending();
+
+        logger.debug("Disconnecting slow consumer {}", resource);
+        resource.onThrowable(new IOException(reason));
+        Runnable resume = new Runnable() {
+            public void run() {
+                resource.resume();
+            }
+        };
+
+        try {
+            e.execute(resume);
+        } catch (RejectedExecutionException ex) {
+            resume.run();
+        }
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Set the maximum number of messages waiting to be written before applying the {@link POLICY}. A value lower than
+     * 1 means unbounded.
+     *
+     * @param maxPending the maximum number of pending messages.
+     * @return this
+     */
+    public Mailbox setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * Set the maximum time, in milliseconds, a write can take before applying the {@link POLICY}. A value lower than
+     * 1 means no timeout.
+     *
+     * @param writeTimeout the time in milliseconds
+     * @return this
+     */
+    public Mailbox setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+        return this;
+    }
+
+    public POLICY getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Set the {@link POLICY} applied to a slow consumer. Default is {@link POLICY#DISCONNECT}
+     *
+     * @param policy the {@link POLICY}
+     * @return this
+     */
+    public Mailbox setPolicy(POLICY policy) {
+        this.policy = policy;
+        return this;
+    }
+
+    public boolean isConflation() {
+        return conflation;
+    }
+
+    /**
+     * Replace a pending {@link Conflatable} message by a newer one with the same key. Default is false.
+     *
+     * @param conflation true to conflate messages by key
+     * @return this
+     */
+    public Mailbox setConflation(boolean conflation) {
+        this.conflation = conflation;
+        return this;
+    }
+
+    /**
+     * A message waiting to be written.
+     */
+    public static abstract class Delivery implements Runnable {
+
+        protected final Object message;
+        protected final BroadcasterFuture<?> future;
+        // The Delivery to execute in place of this one, null once dequeued.
+        private final AtomicReference<Delivery> latest = new AtomicReference<Delivery>(this);
+        private Object key;
+
+        protected Delivery(Object message, BroadcasterFuture<?> future) {
+            this.message = message;
+            this.future = future;
+        }
+
+        private boolean replace(Delivery d) {
+            for (;;) {
+                Delivery current = latest.get();
+                if (current == null) {
+                    return false;
+                }
+                if (latest.compareAndSet(current, d)) {
+                    current.discard();
+                    return true;
+                }
+            }
+        }
+
+        public Object message() {
+            return message;
+        }
+
+        /**
+         * Invoked when the message will never be written.
+         */
+        protected void discard() {
+            if (future != null) {
+                future.done();
+            }
+        }
+    }
+}
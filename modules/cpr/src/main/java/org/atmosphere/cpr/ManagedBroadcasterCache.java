@@ -0,0 +1,69 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+/**
+ * A {@link BroadcasterCache} configured by, and aware of the broadcasts of, the {@link Broadcaster} using it.
+ * <p/>
+ * A broadcasted message is added to the cache once per {@link AtmosphereResource} it is written to. The
+ * {@link Broadcaster} identifies every broadcast with a number, so the cache can store the message once per broadcast
+ * instead of guessing from the message instance: the same instance broadcasted twice is cached twice.
+ *
+ * @param <V>
+ * @param <W>
+ */
+public interface ManagedBroadcasterCache<V, W> extends BroadcasterCache<V, W> {
+
+    /**
+     * Invoked by the {@link Broadcaster} before {@link #start()}.
+     *
+     * @param broadcaster the {@link Broadcaster} using this cache
+     * @param config      the {@link AtmosphereServlet.AtmosphereConfig}, or null if not available
+     */
+    void configure(Broadcaster broadcaster, AtmosphereServlet.AtmosphereConfig config);
+
+    /**
+     * Start tracking messages associated with {@link AtmosphereResource} from the cache
+     *
+     * @param r         {@link AtmosphereResource}, or null if the message wasn't written to any resource.
+     * @param e         a broadcasted message.
+     * @param broadcast the number of the broadcast, identical for all the {@link AtmosphereResource} receiving it.
+     */
+    void addToCache(AtmosphereResource<V, W> r, Object e, long broadcast);
+
+}
@@ -0,0 +1,235 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache the encoded form of a broadcasted message so it is encoded once, and not once per
+ * {@link AtmosphereResource}. A {@link PayloadCache} is attached to every {@link DefaultBroadcaster.Entry} and is
+ * made available to {@link AtmosphereHandler} via {@link #of(AtmosphereResourceEvent)}.
+ * <p/>
+ * The encoded value are stored by key, which can be a {@link Serializer}, a charset or a media type. The byte array
+ * returned by this class are shared between all {@link AtmosphereResource} and must never be modified.
+ */
+public class PayloadCache {
+
+    private final Object message;
+    private final Stats stats;
+    private volatile String asString;
+    private volatile ConcurrentHashMap<Object, byte[]> encoded;
+
+    public PayloadCache(Object message) {
+        this(message, null);
+    }
+
+    public PayloadCache(Object message, Stats stats) {
+        this.message = message;
+        this.stats = stats;
+    }
+
+    /**
+     * Return the {@link PayloadCache} associated with the current message of an {@link AtmosphereResourceEvent}, or
+     * null if the message is not cacheable or has been transformed for that {@link AtmosphereResource}.
+     *
+     * @param event an {@link AtmosphereResourceEvent}
+     * @return the {@link PayloadCache}, or null
+     */
+    public static PayloadCache of(AtmosphereResourceEvent<?, ?> event) {
+        if (!(event instanceof AtmosphereResourceEventImpl)) {
+            return null;
+        }
+        PayloadCache cache = ((AtmosphereResourceEventImpl) event).getPayloadCache();
+        if (cache != null && cache.isFor(event.getMessage())) {
+            return cache;
+        }
+        return null;
+    }
+
+    /**
+     * Return true if this cache has been created for that message.
+     *
+     * @param o a message
+     * @return true if this cache has been created for that message.
+     */
+    public boolean isFor(Object o) {
+        return o != null && o == message;
+    }
+
+    /**
+     * Return the message associated with this cache.
+     *
+     * @return the message associated with this cache.
+     */
+    public Object message() {
+        return message;
+    }
+
+    /**
+     * Return the cached result of invoking message.toString()
+     *
+     * @return the cached result of invoking message.toString()
+     */
+    public String asString() {
+        String s = asString;
+        if (s == null) {
+            miss();
+            s = string();
+        } else {
+            hit();
+        }
+        return s;
+    }
+
+    /**
+     * Return the bytes of message.toString() encoded using the charset.
+     *
+     * @param charset the charset
+     * @return the encoded bytes. The array must not be modified.
+     * @throws UnsupportedEncodingException
+     */
+    public byte[] getBytes(String charset) throws UnsupportedEncodingException {
+        byte[] b = lookup(charset);
+        if (b == null) {
+            miss();
+            b = put(charset, string().getBytes(charset));
+        } else {
+            hit();
+        }
+        return b;
+    }
+
+    /**
+     * Return the encoded bytes stored under the key, or null if the message hasn't been encoded yet.
+     *
+     * @param key the key, e.g a {@link Serializer}, charset or media type.
+     * @return the encoded bytes, or null. The array must not be modified.
+     */
+    public byte[] get(Object key) {
+        byte[] b = lookup(key);
+        if (b == null) {
+            miss();
+        } else {
+            hit();
+        }
+        return b;
+    }
+
+    /**
+     * Store the encoded bytes. If another Thread already stored a value for that key, that value is returned and
+     * must be used instead.
+     *
+     * @param key   the key, e.g a {@link Serializer}, charset or media type.
+     * @param bytes the encoded bytes.
+     * @return the bytes to use.
+     */
+    public byte[] put(Object key, byte[] bytes) {
+        ConcurrentHashMap<Object, byte[]> m = encoded;
+        if (m == null) {
+            synchronized (this) {
+                m = encoded;
+                if (m == null) {
+                    m = new ConcurrentHashMap<Object, byte[]>(2);
+                    encoded = m;
+                }
+            }
+        }
+        byte[] b = m.putIfAbsent(key, bytes);
+        return b == null ? bytes : b;
+    }
+
+    private String string() {
+        String s = asString;
+        if (s == null) {
+            s = message.toString();
+            asString = s;
+        }
+        return s;
+    }
+
+    private byte[] lookup(Object key) {
+        ConcurrentHashMap<Object, byte[]> m = encoded;
+        return m == null ? null : m.get(key);
+    }
+
+    private void hit() {
+        if (stats != null) {
+            stats.hits.incrementAndGet();
+        }
+    }
+
+    private void miss() {
+        if (stats != null) {
+            stats.misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Hit and miss counters, usually shared by all {@link PayloadCache} of a {@link Broadcaster}.
+     */
+    public static class Stats {
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        /**
+         * Return the number of time an encoded message was reused.
+         *
+         * @return the number of time an encoded message was reused.
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /**
+         * Return the number of time a message had to be encoded.
+         *
+         * @return the number of time a message had to be encoded.
+         */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        @Override
+        public String toString() {
+            return "PayloadCache.Stats{hits=" + hits + ", misses=" + misses + "}";
+        }
+    }
+}
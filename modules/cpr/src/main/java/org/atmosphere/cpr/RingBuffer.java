@@ -0,0 +1,266 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated, multiple producers / single consumer ring of reusable slots, used by {@link DefaultBroadcaster}
+ * instead of a {@link java.util.concurrent.BlockingQueue} to avoid allocating a node and taking a lock per message.
+ * <p/>
+ * A producer {@link #tryNext() claims} a sequence, fills the slot returned by {@link #get(long)} and
+ * {@link #publish(long) publishes} it. The consumer reads the published slots in sequence order, using
+ * {@link #available(long, int)} to drain them by batch, and {@link #release(long) releases} them so the slots can be
+ * reused by producers.
+ *
+ * @param <T> the slot type
+ */
+public class RingBuffer<T> {
+
+    private static final int SPIN_TRIES = 100;
+
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final AtomicLong released = new AtomicLong(-1);
+    private final AtomicLongArray published;
+    private volatile Thread waiter;
+
+    /**
+     * Create a {@link RingBuffer}.
+     *
+     * @param slots the preallocated slots. The length must be a power of two.
+     */
+    public RingBuffer(T[] slots) {
+        if (slots.length == 0 || Integer.bitCount(slots.length) != 1) {
+            throw new IllegalArgumentException("RingBuffer size must be a power of two: " + slots.length);
+        }
+        this.slots = slots;
+        this.mask = slots.length - 1;
+        this.published = new AtomicLongArray(slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Return the smallest power of two greater or equal to size.
+     *
+     * @param size a size
+     * @return a power of two
+     */
+    public static int capacityFor(int size) {
+        int n = 1;
+        while (n < size && n < (1 << 30)) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * Claim the next sequence.
+     *
+     * @return the claimed sequence, or -1 if the ring is full.
+     */
+    public long tryNext() {
+        long current;
+        long next;
+        do {
+            current = cursor.get();
+            next = current + 1;
+            if (next - slots.length > released.get()) {
+                return -1;
+            }
+        } while (!cursor.compareAndSet(current, next));
+        return next;
+    }
+
+    /**
+     * Claim the next sequence, waiting up to timeout for a slot to be released.
+     *
+     * @param timeout the maximum time to wait, or a value lower than 1 to wait forever.
+     * @param unit    the {@link TimeUnit}
+     * @return the claimed sequence, or -1 if no slot was released in time.
+     * @throws InterruptedException if the Thread is interrupted while waiting
+     */
+    public long next(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = timeout > 0 ? System.nanoTime() + unit.toNanos(timeout) : 0;
+        int tries = 0;
+        long seq;
+        while ((seq = tryNext()) == -1) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                return -1;
+            }
+            if (tries++ < SPIN_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+        return seq;
+    }
+
+    /**
+     * Return the slot associated with a sequence.
+     *
+     * @param sequence the sequence
+     * @return the slot
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long sequence) {
+        return (T) slots[(int) sequence & mask];
+    }
+
+    /**
+     * Make the slot associated with the sequence visible to the consumer.
+     *
+     * @param sequence a sequence returned by {@link #tryNext()}
+     */
+    public void publish(long sequence) {
+        published.set((int) sequence & mask, sequence);
+        Thread t = waiter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Return the highest sequence, starting at from, that can be consumed without gap.
+     *
+     * @param from  the first sequence to consume
+     * @param batch the maximum number of sequences to return
+     * @return the highest available sequence, or from - 1 if from hasn't been published yet.
+     */
+    public long available(long from, int batch) {
+        long last = from - 1;
+        long max = from + batch;
+        for (long s = from; s < max && published.get((int) s & mask) == s; s++) {
+            last = s;
+        }
+        return last;
+    }
+
+    /**
+     * Wait until the sequence gets published. Must only be invoked by the consumer Thread.
+     *
+     * @param sequence the sequence
+     * @param timeout  the maximum time to wait
+     * @param unit     the {@link TimeUnit}
+     * @return true if the sequence was published.
+     * @throws InterruptedException if the Thread is interrupted while waiting
+     */
+    public boolean waitFor(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        int index = (int) sequence & mask;
+        for (int i = 0; i < SPIN_TRIES; i++) {
+            if (published.get(index) == sequence) {
+                return true;
+            }
+            Thread.yield();
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiter = Thread.currentThread();
+        try {
+            while (published.get(index) != sequence) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return true;
+        } finally {
+            waiter = null;
+        }
+    }
+
+    /**
+     * Release all the slots up to sequence so they can be reused by producers. Must only be invoked by the consumer
+     * Thread.
+     *
+     * @param sequence the last consumed sequence
+     */
+    public void release(long sequence) {
+        released.lazySet(sequence);
+    }
+
+    /**
+     * Return the next sequence to consume.
+     *
+     * @return the next sequence to consume.
+     */
+    public long nextToConsume() {
+        return released.get() + 1;
+    }
+
+    /**
+     * Return the number of claimed slots not yet released.
+     *
+     * @return the number of claimed slots not yet released.
+     */
+    public int size() {
+        return (int) (cursor.get() - released.get());
+    }
+
+    /**
+     * Return true if there is no slot to consume.
+     *
+     * @return true if there is no slot to consume.
+     */
+    public boolean isEmpty() {
+        return cursor.get() == released.get();
+    }
+
+    /**
+     * Return the number of slots.
+     *
+     * @return the number of slots.
+     */
+    public int capacity() {
+        return slots.length;
+    }
+}
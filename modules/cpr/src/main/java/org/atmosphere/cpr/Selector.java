@@ -0,0 +1,154 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Select a subset of the {@link AtmosphereResource} associated with a {@link Broadcaster} using the tags set by
+ * {@link AtmosphereResource#tag(String, String)}, e.g.
+ * <p><pre><code>
+ *     broadcaster.broadcast(message, Selector.tag("room", "lobby").and(Selector.tag("locale", "fr")));
+ * </code></pre></p>
+ * A {@link Selector} is resolved against the {@link TagIndex} of the {@link Broadcaster} when the message is
+ * delivered, so the cost of a targeted broadcast depends on the number of matching {@link AtmosphereResource}, not
+ * on the number of {@link AtmosphereResource} associated with the {@link Broadcaster}.
+ */
+public abstract class Selector {
+
+    /**
+     * Select the {@link AtmosphereResource} tagged with name and value.
+     *
+     * @param name  the tag's name
+     * @param value the tag's value
+     * @return a {@link Selector}
+     */
+    public static Selector tag(final String name, final String value) {
+        return new Selector() {
+            @Override
+            public Collection<AtmosphereResource<?, ?>> select(TagIndex index) {
+                return index.get(name, value);
+            }
+
+            @Override
+            public String toString() {
+                return name + "=" + value;
+            }
+        };
+    }
+
+    /**
+     * Select the {@link AtmosphereResource} matched by this {@link Selector} and by s.
+     *
+     * @param s a {@link Selector}
+     * @return a {@link Selector}
+     */
+    public Selector and(final Selector s) {
+        final Selector self = this;
+        return new Selector() {
+            @Override
+            public Collection<AtmosphereResource<?, ?>> select(TagIndex index) {
+                Collection<AtmosphereResource<?, ?>> left = self.select(index);
+                Collection<AtmosphereResource<?, ?>> right = s.select(index);
+                if (left.isEmpty() || right.isEmpty()) {
+                    return Collections.emptySet();
+                }
+
+                // Iterate over the smallest collection.
+                if (left.size() > right.size()) {
+                    Collection<AtmosphereResource<?, ?>> c = left;
+                    left = right;
+                    right = c;
+                }
+
+                Set<AtmosphereResource<?, ?>> result = newSet();
+                for (AtmosphereResource<?, ?> r : left) {
+                    if (right.contains(r)) {
+                        result.add(r);
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public String toString() {
+                return "(" + self + " and " + s + ")";
+            }
+        };
+    }
+
+    /**
+     * Select the {@link AtmosphereResource} matched by this {@link Selector} or by s.
+     *
+     * @param s a {@link Selector}
+     * @return a {@link Selector}
+     */
+    public Selector or(final Selector s) {
+        final Selector self = this;
+        return new Selector() {
+            @Override
+            public Collection<AtmosphereResource<?, ?>> select(TagIndex index) {
+                Set<AtmosphereResource<?, ?>> result = newSet();
+                result.addAll(self.select(index));
+                result.addAll(s.select(index));
+                return result;
+            }
+
+            @Override
+            public String toString() {
+                return "(" + self + " or " + s + ")";
+            }
+        };
+    }
+
+    /**
+     * Resolve this {@link Selector}. The returned {@link Collection} supports constant time
+     * {@link Collection#contains(Object)} and must not be modified.
+     *
+     * @param index the {@link TagIndex} of a {@link Broadcaster}
+     * @return the matching {@link AtmosphereResource}
+     */
+    public abstract Collection<AtmosphereResource<?, ?>> select(TagIndex index);
+
+    private static Set<AtmosphereResource<?, ?>> newSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<AtmosphereResource<?, ?>, Boolean>());
+    }
+}
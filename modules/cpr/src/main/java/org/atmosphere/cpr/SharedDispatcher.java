@@ -0,0 +1,358 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+import org.atmosphere.metrics.NodeStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A dispatch engine shared by all {@link Broadcaster} created by a {@link DefaultBroadcasterFactory}. Instead of
+ * creating one dispatch Thread per {@link Broadcaster}, a fixed number of lanes (one per core by default) are
+ * started and every {@link Broadcaster} is hashed onto one of them using a {@link Strand}.
+ * <p/>
+ * A {@link Strand} is never executed by more than one lane at the same time, hence messages broadcasted by the
+ * same {@link Broadcaster} are always delivered in the order they were received. When a lane runs out of work, it
+ * steals pending {@link Strand} from the other lanes.
+ * <p/>
+ * This engine is enabled by setting the {@link AtmosphereServlet#SHARED_DISPATCHER} init-param to true.
+ */
+public class SharedDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedDispatcher.class);
+
+    private final static long IDLE_WAIT_MS = 100;
+    private final static long WRITE_THREAD_KEEP_ALIVE_MS = 60000;
+
+    private final Lane[] lanes;
+    private final ConcurrentLinkedQueue<Lane> idleLanes = new ConcurrentLinkedQueue<Lane>();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicBoolean shutdown = new AtomicBoolean(false);
+    private final AtomicLong steals = new AtomicLong();
+    private final ExecutorService asyncWriteService;
+    private final ScheduledExecutorService scheduler;
+    private final Strand wakeUp = new Strand(null, null);
+
+    /**
+     * Create a dispatcher with one lane per available processor.
+     */
+    public SharedDispatcher() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a dispatcher with eight asynchronous write Threads per available processor.
+     *
+     * @param laneCount the number of lanes, e.g the number of Threads used to dispatch messages.
+     */
+    public SharedDispatcher(int laneCount) {
+        this(laneCount, -1);
+    }
+
+    /**
+     * Create a dispatcher.
+     *
+     * @param laneCount        the number of lanes, e.g the number of Threads used to dispatch messages.
+     * @param writeThreadCount the maximum number of Threads writing messages. Once all are busy, the writes are
+     *                         queued. A value lower than 1 means eight per available processor.
+     */
+    public SharedDispatcher(int laneCount, int writeThreadCount) {
+        if (laneCount < 1) {
+            laneCount = Runtime.getRuntime().availableProcessors();
+        }
+        if (writeThreadCount < 1) {
+            writeThreadCount = Runtime.getRuntime().availableProcessors() * 8;
+        }
+
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+        }
+
+        // Every Broadcaster writes through this pool, so a burst of slow writes must not start one Thread each.
+        ThreadPoolExecutor writePool = new ThreadPoolExecutor(writeThreadCount, writeThreadCount,
+                WRITE_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(NodeStats.getDefault().writeThread(runnable), "Atmosphere-Shared-AsyncWrite-" + count.getAndIncrement());
+            }
+        });
+        writePool.allowCoreThreadTimeOut(true);
+        asyncWriteService = writePool;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(runnable, "Atmosphere-Shared-Scheduler-" + count.getAndIncrement());
+            }
+        });
+    }
+
+    /**
+     * Create a new {@link Strand}. All {@link Strand} created using the same key share the same home lane.
+     *
+     * @param key  the object used to select the home lane, usually the {@link Broadcaster}.
+     * @param task the task to execute every time the {@link Strand} gets signaled.
+     * @return a new {@link Strand}
+     */
+    public Strand newStrand(Object key, Runnable task) {
+        start();
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return new Strand(lanes[(h & 0x7fffffff) % lanes.length], task);
+    }
+
+    /**
+     * Return the {@link ExecutorService} shared by all {@link Broadcaster} for writing messages.
+     *
+     * @return the {@link ExecutorService} shared by all {@link Broadcaster} for writing messages.
+     */
+    public ExecutorService getAsyncWriteService() {
+        return asyncWriteService;
+    }
+
+    /**
+     * Return the {@link ScheduledExecutorService} shared by all {@link Broadcaster}.
+     *
+     * @return the {@link ScheduledExecutorService} shared by all {@link Broadcaster}.
+     */
+    public ScheduledExecutorService getScheduledExecutorService() {
+        return scheduler;
+    }
+
+    /**
+     * Return the number of lanes.
+     *
+     * @return the number of lanes.
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Return the maximum number of Threads writing messages.
+     *
+     * @return the maximum number of Threads writing messages.
+     */
+    public int getWriteThreadCount() {
+        return ((ThreadPoolExecutor) asyncWriteService).getMaximumPoolSize();
+    }
+
+    /**
+     * Return the number of {@link Strand} executed by a lane other than their home lane.
+     *
+     * @return the number of stolen {@link Strand}
+     */
+    public long getStealCount() {
+        return steals.get();
+    }
+
+    /**
+     * Stop all lanes and shared {@link ExecutorService}.
+     */
+    public void shutdown() {
+        if (shutdown.getAndSet(true)) {
+            return;
+        }
+
+        for (Lane l : lanes) {
+            l.queue.offerFirst(wakeUp);
+        }
+        asyncWriteService.shutdown();
+        scheduler.shutdown();
+    }
+
+    public boolean isShutdown() {
+        return shutdown.get();
+    }
+
+    private void start() {
+        if (!started.getAndSet(true)) {
+            for (Lane l : lanes) {
+                Thread t = new Thread(l, "Atmosphere-SharedDispatcher-Lane-" + l.index);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    void schedule(Strand s) {
+        if (shutdown.get()) {
+            logger.debug("SharedDispatcher is shutdown, dropping {}", s);
+            return;
+        }
+
+        s.home.queue.offerLast(s);
+
+        // Wake up an idle lane so it can steal the work if the home lane is busy.
+        if (s.home.busy) {
+            Lane idle = idleLanes.poll();
+            if (idle != null && idle != s.home) {
+                idle.queue.offerFirst(wakeUp);
+            }
+        }
+    }
+
+    Strand steal(Lane thief) {
+        for (int i = 1; i < lanes.length; i++) {
+            Lane victim = lanes[(thief.index + i) % lanes.length];
+            Strand s = victim.queue.pollLast();
+            if (s != null) {
+                if (s == wakeUp) {
+                    continue;
+                }
+                steals.incrementAndGet();
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A serial unit of work bound to a home lane. The associated task is never executed concurrently, and
+     * every {@link #signal()} guarantees the task will be executed at least once after the signal.
+     */
+    public final class Strand {
+
+        private final Lane home;
+        private final Runnable task;
+        private final AtomicInteger pending = new AtomicInteger();
+
+        Strand(Lane home, Runnable task) {
+            this.home = home;
+            this.task = task;
+        }
+
+        /**
+         * Request the execution of the task. Signals received while the task is already scheduled or running are
+         * coalesced.
+         */
+        public void signal() {
+            if (pending.getAndIncrement() == 0) {
+                schedule(this);
+            }
+        }
+
+        void run() {
+            int n = pending.get();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error("failed to execute strand task", t);
+            } finally {
+                // Signals received while running means new work was published. Reschedule
+                // at the end of the lane so other strands get a chance to execute.
+                if (pending.addAndGet(-n) > 0) {
+                    schedule(this);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Strand{lane=" + home.index + ", task=" + task + "}";
+        }
+    }
+
+    private final class Lane implements Runnable {
+
+        final int index;
+        final LinkedBlockingDeque<Strand> queue = new LinkedBlockingDeque<Strand>();
+        volatile boolean busy;
+
+        Lane(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            while (!shutdown.get()) {
+                try {
+                    Strand s = queue.pollFirst();
+                    if (s == null) {
+                        s = steal(this);
+                    }
+
+                    if (s == null) {
+                        idleLanes.offer(this);
+                        try {
+                            s = queue.pollFirst(IDLE_WAIT_MS, TimeUnit.MILLISECONDS);
+                        } finally {
+                            idleLanes.remove(this);
+                        }
+                    }
+
+                    if (s == null || s == wakeUp) {
+                        continue;
+                    }
+
+                    busy = true;
+                    try {
+                        s.run();
+                    } finally {
+                        busy = false;
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Throwable t) {
+                    logger.error("unexpected exception in dispatcher lane " + index, t);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+package org.atmosphere.cpr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted indexes of the tags of the {@link AtmosphereResource} associated with a {@link DefaultBroadcaster}. For
+ * every tag (name, value), the index keeps the set of {@link AtmosphereResource} carrying that tag, so a
+ * {@link Selector} can be resolved in O(matches) instead of scanning all the {@link AtmosphereResource}.
+ * <p/>
+ * Lookups are lock-free. Updates are serialized, and only happen when an {@link AtmosphereResource} is added to or
+ * removed from the {@link Broadcaster}, or when its tags change.
+ */
+public class TagIndex {
+
+    private static final String[] NO_TAGS = new String[0];
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentResourceSet>> index =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentResourceSet>>();
+
+    // The tags used when the AtmosphereResource was indexed.
+    private final Map<AtmosphereResource<?, ?>, String[]> indexed = new IdentityHashMap<AtmosphereResource<?, ?>, String[]>();
+
+    /**
+     * Index the tags of an {@link AtmosphereResource}.
+     *
+     * @param r an {@link AtmosphereResource}
+     */
+    public synchronized void add(AtmosphereResource<?, ?> r) {
+        if (indexed.containsKey(r)) {
+            return;
+        }
+
+        Map<String, Set<String>> tags = r.getTags();
+        if (tags.isEmpty()) {
+            // Remember the resource so it gets indexed if tagged later.
+            indexed.put(r, NO_TAGS);
+            return;
+        }
+
+        List<String> pairs = new ArrayList<String>();
+        for (Map.Entry<String, Set<String>> e : tags.entrySet()) {
+            for (String value : e.getValue()) {
+                ConcurrentHashMap<String, ConcurrentResourceSet> values = index.get(e.getKey());
+                if (values == null) {
+                    values = new ConcurrentHashMap<String, ConcurrentResourceSet>();
+                    index.put(e.getKey(), values);
+                }
+
+                ConcurrentResourceSet set = values.get(value);
+                if (set == null) {
+                    set = new ConcurrentResourceSet();
+                    values.put(value, set);
+                }
+                set.add(r);
+                pairs.add(e.getKey());
+                pairs.add(value);
+            }
+        }
+        indexed.put(r, pairs.toArray(new String[pairs.size()]));
+    }
+
+    /**
+     * Remove an {@link AtmosphereResource} from the index.
+     *
+     * @param r an {@link AtmosphereResource}
+     */
+    public synchronized void remove(AtmosphereResource<?, ?> r) {
+        String[] pairs = indexed.remove(r);
+        if (pairs == null) {
+            return;
+        }
+
+        for (int i = 0; i < pairs.length; i += 2) {
+            ConcurrentHashMap<String, ConcurrentResourceSet> values = index.get(pairs[i]);
+            if (values == null) {
+                continue;
+            }
+
+            ConcurrentResourceSet set = values.get(pairs[i + 1]);
+            if (set != null) {
+                set.remove(r);
+                if (set.isEmpty()) {
+                    values.remove(pairs[i + 1]);
+                    if (values.isEmpty()) {
+                        index.remove(pairs[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-index an {@link AtmosphereResource} after its tags changed. Does nothing if the {@link AtmosphereResource}
+     * hasn't been {@link #add added}.
+     *
+     * @param r an {@link AtmosphereResource}
+     */
+    public synchronized void update(AtmosphereResource<?, ?> r) {
+        if (indexed.containsKey(r)) {
+            remove(r);
+            add(r);
+        }
+    }
+
+    /**
+     * Return the {@link AtmosphereResource} tagged with name and value. The returned {@link Collection} is live and
+     * must not be modified.
+     *
+     * @param name  the tag's name
+     * @param value the tag's value
+     * @return the {@link AtmosphereResource} tagged with name and value.
+     */
+    public Collection<AtmosphereResource<?, ?>> get(String name, String value) {
+        ConcurrentHashMap<String, ConcurrentResourceSet> values = index.get(name);
+        if (values != null) {
+            ConcurrentResourceSet set = values.get(value);
+            if (set != null) {
+                return set;
+            }
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Remove all the {@link AtmosphereResource} from the index.
+     */
+    public synchronized void clear() {
+        index.clear();
+        indexed.clear();
+    }
+}
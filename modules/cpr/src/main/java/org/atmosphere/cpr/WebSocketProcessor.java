@@ -46,11 +46,19 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Like the {@link AsynchronousProcessor} class, this class is responsible for dispatching WebSocket request to the
  * proper {@link WebSocketSupport} implementation.
+ * <p/>
+ * The messages received from the WebSocket are queued and broadcasted, in order, by a single task executed by the
+ * {@link AtmosphereServlet#getWebSocketInboundService()}, so the container's I/O Thread never runs the
+ * {@link BroadcastFilter} or a clustered {@link Broadcaster}. When more than
+ * {@link AtmosphereServlet#getWebSocketMaxInFlight()} messages are waiting, the WebSocket is closed.
  *
  * @author Jeanfrancois Arcand
  */
@@ -63,6 +71,17 @@ public class WebSocketProcessor implements Serializable {
 
     private final AtomicBoolean loggedMsg = new AtomicBoolean(false);
 
+    private final ConcurrentLinkedQueue<Object> inbound = new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean overflowed = new AtomicBoolean(false);
+
+    private final Runnable drainer = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
     private AtmosphereResource resource;
     private AtmosphereHandler handler;
 
@@ -77,9 +96,11 @@ public class WebSocketProcessor implements Serializable {
         }
 
         request.setAttribute(WebSocketSupport.WEBSOCKET_SUSPEND, "true");
+        WebSocketHttpServletResponse<WebSocketSupport> response =
+                new WebSocketHttpServletResponse<WebSocketSupport>(webSocketSupport);
         try {
-            atmosphereServlet
-                    .doCometSupport(request, new WebSocketHttpServletResponse<WebSocketSupport>(webSocketSupport));
+            atmosphereServlet.doCometSupport(request, response);
+            response.flushBuffer();
         }
         catch (IOException e) {
             logger.info("failed invoking atmosphere servlet doCometSupport()", e);
@@ -96,14 +117,91 @@ public class WebSocketProcessor implements Serializable {
     }
 
     public void broadcast(byte frame, String data) {
-        resource.getBroadcaster().broadcast(data);
+        dispatch(data);
     }
 
     public void broadcast(byte frame, byte[] data, int offset, int length) {
-
+        // The container reuses its buffer once the frame has been dispatched, and the broadcast is asynchronous.
         byte[] b = new byte[length];
         System.arraycopy(data, offset, b, 0, length);
-        resource.getBroadcaster().broadcast(b);
+        dispatch(b);
+    }
+
+    /**
+     * Return the number of received messages not yet broadcasted.
+     *
+     * @return the number of received messages not yet broadcasted.
+     */
+    public int getInFlight() {
+        return pending.get();
+    }
+
+    /**
+     * Broadcast a message received from the WebSocket.
+     *
+     * @param message the message
+     */
+    protected void deliver(Object message) {
+        if (resource == null) {
+            logger.debug("message received from a WebSocket without AtmosphereResource: {}", message);
+            return;
+        }
+        resource.getBroadcaster().broadcast(message);
+    }
+
+    private void dispatch(Object message) {
+        if (overflowed.get()) {
+            return;
+        }
+
+        int maxInFlight = atmosphereServlet.getWebSocketMaxInFlight();
+        if (maxInFlight > 0 && pending.get() >= maxInFlight) {
+            overflow(maxInFlight);
+            return;
+        }
+
+        inbound.offer(message);
+        pending.incrementAndGet();
+        if (wip.getAndIncrement() == 0) {
+            try {
+                atmosphereServlet.getWebSocketInboundService().execute(drainer);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Unable to broadcast the messages of {}", webSocketSupport, e);
+                wip.set(0);
+                inbound.clear();
+                pending.set(0);
+            }
+        }
+    }
+
+    void drain() {
+        int missed = 1;
+        do {
+            Object message;
+            while ((message = inbound.poll()) != null) {
+                pending.decrementAndGet();
+                try {
+                    deliver(message);
+                } catch (Throwable t) {
+                    logger.debug("failed to broadcast {}", message, t);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void overflow(int maxInFlight) {
+        if (overflowed.getAndSet(true)) {
+            return;
+        }
+
+        logger.warn("Closing WebSocket {}: more than {} received messages waiting to be broadcasted",
+                webSocketSupport, maxInFlight);
+        try {
+            webSocketSupport.close();
+        } catch (IOException e) {
+            logger.debug("failed to close {}", webSocketSupport, e);
+        }
     }
 
     public void close() {
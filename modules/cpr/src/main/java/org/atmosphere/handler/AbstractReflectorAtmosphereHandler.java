@@ -41,12 +41,17 @@ import org.atmosphere.cpr.AtmosphereHandler;
 import org.atmosphere.cpr.AtmosphereResourceEvent;
 import org.atmosphere.cpr.AtmosphereServlet;
 import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.PayloadCache;
+import org.atmosphere.cpr.Serializer;
+import org.atmosphere.websocket.WebSocketHttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.List;
 
 /**
@@ -62,6 +67,8 @@ public abstract class AbstractReflectorAtmosphereHandler
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractReflectorAtmosphereHandler.class);
 
+    private final static String DEFAULT_CHARSET = Charset.defaultCharset().name();
+
     /**
      * Write the {@link AtmosphereResourceEvent#getMessage()} back to the client using
      * the {@link HttpServletResponse#getOutputStream()} or {@link HttpServletResponse#getWriter()}.
@@ -79,9 +86,24 @@ public abstract class AbstractReflectorAtmosphereHandler
         Object message = event.getMessage();
         if (message == null || event.isCancelled()) return;
 
+        // Non null if the message is broadcasted to more than one resource, in which case we encode it only once.
+        PayloadCache cache = PayloadCache.of(event);
+
         if (event.getResource().getSerializer() != null) {
             try{
-                event.getResource().getSerializer().write(event.getResource().getResponse().getOutputStream(), message);
+                Serializer serializer = event.getResource().getSerializer();
+                if (cache != null) {
+                    byte[] bytes = cache.get(serializer);
+                    if (bytes == null) {
+                        ByteArrayOutputStream b = new ByteArrayOutputStream();
+                        serializer.write(b, message);
+                        bytes = cache.put(serializer, b.toByteArray());
+                    }
+                    event.getResource().getResponse().getOutputStream().write(bytes);
+                } else {
+                    serializer.write(event.getResource().getResponse().getOutputStream(), message);
+                }
+                event.getResource().getResponse().getOutputStream().flush();
             } catch (Throwable ex){
                 logger.warn("Serializer exception: message: " + message, ex);
                 throw new IOException(ex);
@@ -94,7 +116,16 @@ public abstract class AbstractReflectorAtmosphereHandler
                 isUsingStream = true;
             }
 
-            if (message instanceof List) {
+            if (message instanceof byte[]) {
+                // Binary messages are written as they are when possible, a WebSocket sends them as a binary frame.
+                if (isUsingStream || event.getResource().getResponse() instanceof WebSocketHttpServletResponse) {
+                    event.getResource().getResponse().getOutputStream().write((byte[]) message);
+                    event.getResource().getResponse().getOutputStream().flush();
+                } else {
+                    event.getResource().getResponse().getWriter().write(new String((byte[]) message, DEFAULT_CHARSET));
+                    event.getResource().getResponse().getWriter().flush();
+                }
+            } else if (message instanceof List) {
                 for (String s : (List<String>) message) {
                     if (isUsingStream) {
                         event.getResource().getResponse().getOutputStream().write(s.getBytes());
@@ -106,10 +137,11 @@ public abstract class AbstractReflectorAtmosphereHandler
                 }
             } else {
                 if (isUsingStream) {
-                    event.getResource().getResponse().getOutputStream().write(message.toString().getBytes());
+                    byte[] bytes = cache != null ? cache.getBytes(DEFAULT_CHARSET) : message.toString().getBytes();
+                    event.getResource().getResponse().getOutputStream().write(bytes);
                     event.getResource().getResponse().getOutputStream().flush();
                 } else {
-                    event.getResource().getResponse().getWriter().write(message.toString());
+                    event.getResource().getResponse().getWriter().write(cache != null ? cache.asString() : message.toString());
                     event.getResource().getResponse().getWriter().flush();
                 }
             }
@@ -0,0 +1,307 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+
+package org.atmosphere.metrics;
+
+import org.atmosphere.cpr.BroadcasterMetrics;
+
+/**
+ * The default {@link BroadcasterMetrics}, which keeps the counters and latency {@link Histogram} of a
+ * {@link org.atmosphere.cpr.Broadcaster} in memory. Instances are obtained from a {@link MetricsRegistry}.
+ */
+public class BroadcasterStats implements BroadcasterMetrics, BroadcasterStatsMBean {
+
+    private final String id;
+    private final StripedCounter queued = new StripedCounter();
+    private final StripedCounter dropped = new StripedCounter();
+    private final StripedCounter writeFailures = new StripedCounter();
+    private final StripedCounter cacheHits = new StripedCounter();
+    private final StripedCounter cacheMisses = new StripedCounter();
+    private final StripedCounter cacheEvictions = new StripedCounter();
+    private final Histogram delivery = new Histogram();
+    private final Histogram writes = new Histogram();
+    private volatile int queueDepth;
+    private volatile int maxQueueDepth;
+
+    public BroadcasterStats(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Return the ID of the {@link org.atmosphere.cpr.Broadcaster}.
+     *
+     * @return the ID of the {@link org.atmosphere.cpr.Broadcaster}.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void messageQueued(int queueDepth) {
+        queued.increment();
+        this.queueDepth = queueDepth;
+        if (queueDepth > maxQueueDepth) {
+            // Racy, but only ever a few messages off.
+            maxQueueDepth = queueDepth;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void messageDropped() {
+        dropped.increment();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void messageDelivered(int resources, long nanos) {
+        delivery.record(nanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeCompleted(long nanos) {
+        writes.record(nanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeFailed() {
+        writeFailures.increment();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void cacheRetrieved(int messages) {
+        if (messages > 0) {
+            cacheHits.increment();
+        } else {
+            cacheMisses.increment();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void cacheEvicted(int messages) {
+        cacheEvictions.add(messages);
+    }
+
+    /**
+     * Return the {@link Histogram} of the time spent by the dispatch Thread to deliver a message.
+     *
+     * @return the {@link Histogram} of the delivery time.
+     */
+    public Histogram getDeliveryHistogram() {
+        return delivery;
+    }
+
+    /**
+     * Return the {@link Histogram} of the time elapsed between the delivery of a message and its write.
+     *
+     * @return the {@link Histogram} of the write latency.
+     */
+    public Histogram getWriteHistogram() {
+        return writes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMessagesQueued() {
+        return queued.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMessagesDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMessagesDelivered() {
+        return delivery.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getDeliveryMeanNanos() {
+        return delivery.getMean();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDeliveryP99Nanos() {
+        return delivery.getValueAtPercentile(99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDeliveryMaxNanos() {
+        return delivery.getMax();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWrites() {
+        return writes.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriteFailures() {
+        return writeFailures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getWriteMeanNanos() {
+        return writes.getMean();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriteP50Nanos() {
+        return writes.getValueAtPercentile(50);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriteP99Nanos() {
+        return writes.getValueAtPercentile(99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriteMaxNanos() {
+        return writes.getMax();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getCacheHitRatio() {
+        long hits = cacheHits.get();
+        long total = hits + cacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCacheEvictions() {
+        return cacheEvictions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        queued.reset();
+        dropped.reset();
+        writeFailures.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        cacheEvictions.reset();
+        delivery.reset();
+        writes.reset();
+        maxQueueDepth = queueDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "BroadcasterStats{" +
+                "id='" + id + '\'' +
+                ", queued=" + queued +
+                ", queueDepth=" + queueDepth +
+                ", dropped=" + dropped +
+                ", delivered=" + delivery.getCount() +
+                ", writes=" + writes.getCount() +
+                ", writeFailures=" + writeFailures +
+                ", cacheHits=" + cacheHits +
+                ", cacheMisses=" + cacheMisses +
+                '}';
+    }
+}
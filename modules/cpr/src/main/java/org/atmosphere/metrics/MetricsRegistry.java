@@ -0,0 +1,199 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+
+package org.atmosphere.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory registry of the {@link BroadcasterStats} of every instrumented {@link org.atmosphere.cpr.Broadcaster},
+ * which can be read programmatically. A {@link org.atmosphere.cpr.Broadcaster} is identified by its ID and a scope,
+ * usually the context path of the web application, since two applications may use the same ID. Every
+ * {@link BroadcasterStats} is also exposed as a JMX MBean named
+ * <code>org.atmosphere:type=Broadcaster,context="&lt;scope&gt;",name="&lt;Broadcaster ID&gt;"</code>.
+ */
+public class MetricsRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    public final static String JMX_DOMAIN = "org.atmosphere";
+
+    private final static MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, BroadcasterStats>> scopes
+            = new ConcurrentHashMap<String, ConcurrentHashMap<String, BroadcasterStats>>();
+
+    private volatile boolean jmx = true;
+
+    /**
+     * Return the registry shared by all {@link org.atmosphere.cpr.Broadcaster}.
+     *
+     * @return the default {@link MetricsRegistry}
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Enable or disable the registration of JMX MBeans. Already registered MBeans are left untouched.
+     *
+     * @param jmx true to register a MBean per {@link org.atmosphere.cpr.Broadcaster}
+     * @return this
+     */
+    public MetricsRegistry setJmx(boolean jmx) {
+        this.jmx = jmx;
+        return this;
+    }
+
+    /**
+     * Return the {@link BroadcasterStats} of a {@link org.atmosphere.cpr.Broadcaster}, creating and registering
+     * it if needed.
+     *
+     * @param scope the scope of the {@link org.atmosphere.cpr.Broadcaster}
+     * @param id    the ID of the {@link org.atmosphere.cpr.Broadcaster}
+     * @return the {@link BroadcasterStats}
+     */
+    public BroadcasterStats register(String scope, String id) {
+        ConcurrentHashMap<String, BroadcasterStats> stats = scopes.get(scope);
+        if (stats == null) {
+            stats = new ConcurrentHashMap<String, BroadcasterStats>();
+            ConcurrentHashMap<String, BroadcasterStats> previous = scopes.putIfAbsent(scope, stats);
+            if (previous != null) {
+                stats = previous;
+            }
+        }
+
+        BroadcasterStats s = stats.get(id);
+        if (s != null) {
+            return s;
+        }
+
+        s = new BroadcasterStats(id);
+        BroadcasterStats previous = stats.putIfAbsent(id, s);
+        if (previous != null) {
+            return previous;
+        }
+
+        if (jmx) {
+            try {
+                ObjectName name = objectName(scope, id);
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(s, name);
+                }
+            } catch (JMException e) {
+                logger.warn("Unable to register the MBean of Broadcaster " + id, e);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Remove the {@link BroadcasterStats} of a {@link org.atmosphere.cpr.Broadcaster} and unregister its MBean.
+     *
+     * @param scope the scope of the {@link org.atmosphere.cpr.Broadcaster}
+     * @param id    the ID of the {@link org.atmosphere.cpr.Broadcaster}
+     * @return the removed {@link BroadcasterStats}, or null.
+     */
+    public BroadcasterStats unregister(String scope, String id) {
+        ConcurrentHashMap<String, BroadcasterStats> stats = scopes.get(scope);
+        BroadcasterStats s = stats != null ? stats.remove(id) : null;
+        if (s == null) {
+            return null;
+        }
+
+        try {
+            ObjectName name = objectName(scope, id);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.warn("Unable to unregister the MBean of Broadcaster " + id, e);
+        }
+        return s;
+    }
+
+    /**
+     * Return the {@link BroadcasterStats} of a {@link org.atmosphere.cpr.Broadcaster}.
+     *
+     * @param scope the scope of the {@link org.atmosphere.cpr.Broadcaster}
+     * @param id    the ID of the {@link org.atmosphere.cpr.Broadcaster}
+     * @return the {@link BroadcasterStats}, or null if the {@link org.atmosphere.cpr.Broadcaster} isn't instrumented.
+     */
+    public BroadcasterStats lookup(String scope, String id) {
+        ConcurrentHashMap<String, BroadcasterStats> stats = scopes.get(scope);
+        return stats != null ? stats.get(id) : null;
+    }
+
+    /**
+     * Return the {@link BroadcasterStats} of all the instrumented {@link org.atmosphere.cpr.Broadcaster} of a scope.
+     *
+     * @param scope the scope
+     * @return the {@link BroadcasterStats}
+     */
+    public Collection<BroadcasterStats> lookupAll(String scope) {
+        ConcurrentHashMap<String, BroadcasterStats> stats = scopes.get(scope);
+        if (stats == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(stats.values());
+    }
+
+    /**
+     * Return the JMX name of the MBean of a {@link org.atmosphere.cpr.Broadcaster}.
+     *
+     * @param scope the scope of the {@link org.atmosphere.cpr.Broadcaster}
+     * @param id    the ID of the {@link org.atmosphere.cpr.Broadcaster}
+     * @return the {@link ObjectName}
+     * @throws JMException if the name is invalid
+     */
+    public static ObjectName objectName(String scope, String id) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Broadcaster,context=" + ObjectName.quote(scope)
+                + ",name=" + ObjectName.quote(id));
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+
+package org.atmosphere.metrics;
+
+import org.atmosphere.cache.RingBufferBroadcasterCache;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.DefaultBroadcaster;
+import org.atmosphere.cpr.HashedWheelTimer;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counters describing the state of this node: suspended {@link org.atmosphere.cpr.AtmosphereResource} by transport
+ * and container, {@link Broadcaster} by type, messages throughput and asynchronous write Threads. The counters are
+ * updated incrementally when a resource is suspended or resumed, a {@link Broadcaster} is created or removed and a
+ * message is delivered, so taking a {@link #toJSON(Collection) snapshot} never iterates the connections.
+ * <p/>
+ * The delivery rate is sampled by the {@link HashedWheelTimer} every {@link #SAMPLE_PERIOD} seconds between
+ * {@link #startSampling(HashedWheelTimer)} and {@link #stopSampling()}, so concurrent scrapes all read the same value.
+ */
+public class NodeStats {
+
+    /**
+     * The period, in seconds, of the window used to compute {@link #messagesPerSecond()}.
+     */
+    public final static int SAMPLE_PERIOD = 5;
+
+    private final static NodeStats DEFAULT = new NodeStats();
+
+    private final ConcurrentHashMap<String, AtomicInteger> suspendedByTransport = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentHashMap<String, AtomicInteger> suspendedByContainer = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentHashMap<String, AtomicInteger> broadcastersByType = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger suspended = new AtomicInteger();
+    private final StripedCounter published = new StripedCounter();
+    private final StripedCounter delivered = new StripedCounter();
+    private final AtomicInteger writeThreads = new AtomicInteger();
+    private final AtomicInteger activeWrites = new AtomicInteger();
+
+    // The delivered count and time of the previous sample, and the rate of the last window. Guarded by this.
+    private long lastDelivered;
+    private long lastSample = System.nanoTime();
+    private double rate;
+    private boolean sampled;
+    private int samplingUsers;
+    private ScheduledFuture<?> sampler;
+
+    /**
+     * Return the {@link NodeStats} of this node.
+     *
+     * @return the {@link NodeStats} of this node.
+     */
+    public static NodeStats getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Invoked when an {@link org.atmosphere.cpr.AtmosphereResource} gets suspended.
+     *
+     * @param container the name of the container
+     * @param transport the transport, like websocket, long-polling or streaming
+     */
+    public void resourceSuspended(String container, String transport) {
+        suspended.incrementAndGet();
+        counter(suspendedByContainer, container).incrementAndGet();
+        counter(suspendedByTransport, transport).incrementAndGet();
+    }
+
+    /**
+     * Invoked when a suspended {@link org.atmosphere.cpr.AtmosphereResource} gets resumed, cancelled or times out.
+     *
+     * @param container the name of the container
+     * @param transport the transport passed to {@link #resourceSuspended(String, String)}
+     */
+    public void resourceResumed(String container, String transport) {
+        suspended.decrementAndGet();
+        counter(suspendedByContainer, container).decrementAndGet();
+        counter(suspendedByTransport, transport).decrementAndGet();
+    }
+
+    /**
+     * Invoked when a {@link Broadcaster} is added to the {@link org.atmosphere.cpr.BroadcasterFactory}.
+     *
+     * @param b the {@link Broadcaster}
+     */
+    public void broadcasterAdded(Broadcaster b) {
+        counter(broadcastersByType, b.getClass().getName()).incrementAndGet();
+    }
+
+    /**
+     * Invoked when a {@link Broadcaster} is removed from the {@link org.atmosphere.cpr.BroadcasterFactory}.
+     *
+     * @param b the {@link Broadcaster}
+     */
+    public void broadcasterRemoved(Broadcaster b) {
+        counter(broadcastersByType, b.getClass().getName()).decrementAndGet();
+    }
+
+    /**
+     * Invoked when a message has been queued by a {@link Broadcaster}.
+     */
+    public void messagePublished() {
+        published.increment();
+    }
+
+    /**
+     * Invoked when a message has been delivered to the {@link org.atmosphere.cpr.AtmosphereResource}.
+     */
+    public void messageDelivered() {
+        delivered.increment();
+    }
+
+    /**
+     * Invoked when an asynchronous write starts.
+     */
+    public void writeStarted() {
+        activeWrites.incrementAndGet();
+    }
+
+    /**
+     * Invoked when an asynchronous write completes.
+     */
+    public void writeCompleted() {
+        activeWrites.decrementAndGet();
+    }
+
+    /**
+     * Wrap the {@link Runnable} of an asynchronous write Thread, so the number of live Threads is counted.
+     *
+     * @param runnable the {@link Runnable} passed to the {@link java.util.concurrent.ThreadFactory}
+     * @return the {@link Runnable} to run.
+     */
+    public Runnable writeThread(final Runnable runnable) {
+        return new Runnable() {
+            public void run() {
+                writeThreads.incrementAndGet();
+                try {
+                    runnable.run();
+                } finally {
+                    writeThreads.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Return the number of suspended {@link org.atmosphere.cpr.AtmosphereResource}.
+     *
+     * @return the number of suspended {@link org.atmosphere.cpr.AtmosphereResource}.
+     */
+    public int getSuspended() {
+        return suspended.get();
+    }
+
+    /**
+     * Return the number of suspended {@link org.atmosphere.cpr.AtmosphereResource} by transport.
+     *
+     * @return the number of suspended {@link org.atmosphere.cpr.AtmosphereResource} by transport.
+     */
+    public Map<String, Integer> getSuspendedByTransport() {
+        return snapshot(suspendedByTransport);
+    }
+
+    /**
+     * Return the number of suspended {@link org.atmosphere.cpr.AtmosphereResource} by container.
+     *
+     * @return the number of suspended {@link org.atmosphere.cpr.AtmosphereResource} by container.
+     */
+    public Map<String, Integer> getSuspendedByContainer() {
+        return snapshot(suspendedByContainer);
+    }
+
+    /**
+     * Return the number of {@link Broadcaster} by class name.
+     *
+     * @return the number of {@link Broadcaster} by class name.
+     */
+    public Map<String, Integer> getBroadcastersByType() {
+        return snapshot(broadcastersByType);
+    }
+
+    /**
+     * Return the number of messages queued since startup.
+     *
+     * @return the number of messages queued since startup.
+     */
+    public long getMessagesPublished() {
+        return published.get();
+    }
+
+    /**
+     * Return the number of messages delivered since startup.
+     *
+     * @return the number of messages delivered since startup.
+     */
+    public long getMessagesDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Return the number of live asynchronous write Threads.
+     *
+     * @return the number of live asynchronous write Threads.
+     */
+    public int getWriteThreads() {
+        return writeThreads.get();
+    }
+
+    /**
+     * Return the number of writes in progress.
+     *
+     * @return the number of writes in progress.
+     */
+    public int getActiveWrites() {
+        return activeWrites.get();
+    }
+
+    /**
+     * Return the number of messages delivered per second during the last sampled window, or since this
+     * {@link NodeStats} was created if no window has been sampled yet. Reading the rate doesn't reset the window.
+     *
+     * @return the number of messages delivered per second.
+     */
+    public synchronized double messagesPerSecond() {
+        if (sampled) {
+            return rate;
+        }
+        double elapsed = (System.nanoTime() - lastSample) / 1e9;
+        return elapsed > 0 ? (delivered.get() - lastDelivered) / elapsed : 0;
+    }
+
+    /**
+     * Close the current window and compute its rate. Invoked by the {@link HashedWheelTimer} every
+     * {@link #SAMPLE_PERIOD} seconds.
+     */
+    public synchronized void sample() {
+        long now = System.nanoTime();
+        long count = delivered.get();
+        double elapsed = (now - lastSample) / 1e9;
+        if (elapsed > 0) {
+            rate = (count - lastDelivered) / elapsed;
+            sampled = true;
+        }
+        lastSample = now;
+        lastDelivered = count;
+    }
+
+    /**
+     * Sample the delivery rate with the {@link HashedWheelTimer} until {@link #stopSampling()} has been invoked as
+     * many times as this method. Every {@link org.atmosphere.cpr.AtmosphereServlet} of the JVM starts the sampling
+     * of the {@link #getDefault() default} {@link NodeStats} when initialized.
+     *
+     * @param timer the {@link HashedWheelTimer} used to sample the rate
+     */
+    public synchronized void startSampling(HashedWheelTimer timer) {
+        if (samplingUsers++ > 0 && sampler != null) {
+            return;
+        }
+        try {
+            sampler = timer.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    sample();
+                }
+            }, SAMPLE_PERIOD, SAMPLE_PERIOD, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // The timer is stopped: messagesPerSecond() keeps reporting the rate since the last sample.
+            sampler = null;
+        }
+    }
+
+    /**
+     * Stop the sampling started by {@link #startSampling(HashedWheelTimer)} once invoked by all its users.
+     */
+    public synchronized void stopSampling() {
+        if (samplingUsers > 0 && --samplingUsers == 0 && sampler != null) {
+            sampler.cancel(false);
+            sampler = null;
+        }
+    }
+
+    /**
+     * Return a JSON snapshot of this node. The queue depth is the sum of the queues of the {@link Broadcaster}, all
+     * other values are read from counters. The cached bytes are the ones of the {@link RingBufferBroadcasterCache},
+     * the only cache sharing a global budget.
+     *
+     * @param broadcasters the {@link Broadcaster} of this node, or null.
+     * @return a JSON document
+     */
+    public String toJSON(Collection<Broadcaster> broadcasters) {
+        long queueDepth = 0;
+        if (broadcasters != null) {
+            for (Broadcaster b : broadcasters) {
+                if (b instanceof DefaultBroadcaster) {
+                    queueDepth += ((DefaultBroadcaster) b).getQueueDepth();
+                }
+            }
+        }
+
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"timestamp\":").append(System.currentTimeMillis());
+        json.append(",\"suspended\":{\"total\":").append(getSuspended());
+        json.append(",\"byTransport\":");
+        append(json, getSuspendedByTransport());
+        json.append(",\"byContainer\":");
+        append(json, getSuspendedByContainer());
+        json.append("},\"broadcasters\":");
+        append(json, getBroadcastersByType());
+        json.append(",\"messages\":{\"published\":").append(getMessagesPublished())
+                .append(",\"delivered\":").append(getMessagesDelivered())
+                .append(",\"perSecond\":").append(Math.round(messagesPerSecond() * 100) / 100.0)
+                .append(",\"queueDepth\":").append(queueDepth).append('}');
+        json.append(",\"asyncWrite\":{\"threads\":").append(getWriteThreads())
+                .append(",\"active\":").append(getActiveWrites()).append('}');
+        json.append(",\"ringBufferCache\":{\"bytes\":").append(RingBufferBroadcasterCache.getGlobalBytes())
+                .append(",\"maxBytes\":").append(RingBufferBroadcasterCache.getMaxGlobalBytes()).append('}');
+        return json.append('}').toString();
+    }
+
+    private static AtomicInteger counter(ConcurrentHashMap<String, AtomicInteger> counters, String key) {
+        if (key == null) {
+            key = "unknown";
+        }
+        AtomicInteger c = counters.get(key);
+        if (c == null) {
+            c = new AtomicInteger();
+            AtomicInteger previous = counters.putIfAbsent(key, c);
+            if (previous != null) {
+                c = previous;
+            }
+        }
+        return c;
+    }
+
+    private static Map<String, Integer> snapshot(ConcurrentHashMap<String, AtomicInteger> counters) {
+        TreeMap<String, Integer> m = new TreeMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> e : counters.entrySet()) {
+            int value = e.getValue().get();
+            if (value != 0) {
+                m.put(e.getKey(), value);
+            }
+        }
+        return m;
+    }
+
+    private static void append(StringBuilder json, Map<String, Integer> values) {
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Integer> e : values.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            quote(json, e.getKey());
+            json.append(':').append(e.getValue());
+        }
+        json.append('}');
+    }
+
+    static void quote(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
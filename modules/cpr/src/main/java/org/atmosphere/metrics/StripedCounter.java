@@ -0,0 +1,112 @@
+/*
+ *
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2007-2008 Sun Microsystems, Inc. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License. You can obtain
+ * a copy of the License at https://glassfish.dev.java.net/public/CDDL+GPL.html
+ * or glassfish/bootstrap/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/bootstrap/legal/LICENSE.txt.
+ * Sun designates this particular file as subject to the "Classpath" exception
+ * as provided by Sun in the GPL Version 2 section of the License file that
+ * accompanied this code.  If applicable, add the following below the License
+ * Header, with the fields enclosed by brackets [] replaced by your own
+ * identifying information: "Portions Copyrighted [year]
+ * [name of copyright owner]"
+ *
+ * Contributor(s):
+ *
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ *
+ */
+
+package org.atmosphere.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that can be incremented by many Threads with little contention. Each Thread updates one of several
+ * cells, spaced apart so they don't share a cache line, and the cells are summed when the counter is read.
+ */
+public class StripedCounter {
+
+    // 8 longs, so two cells are never on the same 64 bytes cache line.
+    private final static int STRIDE = 8;
+    private final static int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIDE);
+
+    private static int stripes() {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() * 2) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        // Spread the ids, consecutive Threads end up on different cells.
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h >>> 16) & (STRIPES - 1)) * STRIDE;
+    }
+
+    /**
+     * Increment the counter by one.
+     */
+    public void increment() {
+        cells.getAndIncrement(index());
+    }
+
+    /**
+     * Add a value to the counter.
+     *
+     * @param delta the value to add.
+     */
+    public void add(long delta) {
+        cells.getAndAdd(index(), delta);
+    }
+
+    /**
+     * Return the sum of all cells. The value is not an atomic snapshot if the counter is updated concurrently.
+     *
+     * @return the value of the counter.
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += STRIDE) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Reset the counter to 0.
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += STRIDE) {
+            cells.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(get());
+    }
+}
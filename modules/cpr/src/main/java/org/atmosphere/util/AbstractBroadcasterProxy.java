@@ -42,6 +42,7 @@ import org.atmosphere.cpr.AtmosphereResourceEvent;
 import org.atmosphere.cpr.AtmosphereServlet;
 import org.atmosphere.cpr.BroadcasterFuture;
 import org.atmosphere.cpr.DefaultBroadcaster;
+import org.atmosphere.cpr.Selector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -194,4 +195,27 @@ public abstract class AbstractBroadcasterProxy extends DefaultBroadcaster {
         }
         return f;
     }
+
+    /**
+     * Not supported: the message is delivered locally when received back from the external source, without the
+     * {@link Selector}, hence to every suspended response.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public <T> Future<T> broadcast(T msg, Selector selector) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't broadcast to a Selector");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean broadcastAndForget(Object msg) {
+        Object newMsg = filter(msg);
+        if (newMsg == null) return false;
+        outgoingBroadcast(msg);
+        push(new Entry(newMsg, null, null, false));
+        return true;
+    }
 }
@@ -42,6 +42,7 @@ import org.atmosphere.cpr.AtmosphereResource;
 import org.atmosphere.cpr.BroadcasterConfig;
 import org.atmosphere.cpr.BroadcasterFuture;
 import org.atmosphere.cpr.DefaultBroadcaster;
+import org.atmosphere.cpr.Selector;
 
 import java.util.Set;
 import java.util.concurrent.Executors;
@@ -114,4 +115,28 @@ public class SimpleBroadcaster extends DefaultBroadcaster {
         push(new Entry(newMsg, subset, f, msg));
         return f;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> Future<T> broadcast(T msg, Selector selector) {
+        Object newMsg = filter(msg);
+        if (newMsg == null) return null;
+        BroadcasterFuture<Object> f = new BroadcasterFuture<Object>(newMsg);
+        f.done();
+        push(new Entry(newMsg, selector, f, msg));
+        return f;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean broadcastAndForget(Object msg) {
+        Object newMsg = filter(msg);
+        if (newMsg == null) return false;
+        push(new Entry(newMsg, null, null, msg));
+        return true;
+    }
 }
\ No newline at end of file
@@ -43,6 +43,7 @@ import org.atmosphere.cpr.AtmosphereServlet;
 import org.atmosphere.cpr.Broadcaster;
 import org.atmosphere.cpr.BroadcasterFuture;
 import org.atmosphere.cpr.DefaultBroadcaster;
+import org.atmosphere.cpr.Selector;
 
 import java.util.Set;
 import java.util.concurrent.Future;
@@ -107,6 +108,30 @@ public class GAEDefaultBroadcaster extends DefaultBroadcaster {
         return f;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> Future<T> broadcast(T msg, Selector selector) {
+        Object newMsg = filter(msg);
+        if (newMsg == null) return null;
+        BroadcasterFuture<Object> f = new BroadcasterFuture<Object>(newMsg);
+        f.done();
+        push(new Entry(newMsg, selector, f, msg));
+        return f;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean broadcastAndForget(Object msg) {
+        Object newMsg = filter(msg);
+        if (newMsg == null) return false;
+        push(new Entry(newMsg, null, null, msg));
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
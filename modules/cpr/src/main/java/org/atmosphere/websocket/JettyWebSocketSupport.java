@@ -36,24 +36,82 @@
  */
 package org.atmosphere.websocket;
 
+import org.atmosphere.cpr.HashedWheelTimer;
 import org.eclipse.jetty.websocket.WebSocket.Outbound;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Jetty 7 & 8 WebSocket support.
+ * <p/>
+ * There is an issue in Jetty where the Websocket connection gets closed just after the handshake and the
+ * first broadcast occurs quickly after the handshake. If Chrome is processing the handshake and received messages,
+ * it close the connection. Hence the messages written during the first second of the connection are queued, and
+ * sent once the connection is considered ready, without blocking the writing Thread. Past 32 queued messages, the
+ * oldest ones are dropped.
  *
  * @author Jeanfrancois Arcand
  */
 public class JettyWebSocketSupport implements WebSocketSupport {
 
+    private static final Logger logger = LoggerFactory.getLogger(JettyWebSocketSupport.class);
+
+    private static final long HANDSHAKE_LATENCY = 1000;
+
+    // Past that many queued messages, the oldest are dropped.
+    private static final int MAX_PENDING_MESSAGES = 32;
+
     private final Outbound outbound;
 
-    private AtomicBoolean webSocketLatencyCheck = new AtomicBoolean(false);
+    // Guarded by itself. Once ready, it stays empty.
+    private final LinkedList<Frame> pending = new LinkedList<Frame>();
+
+    private volatile boolean ready;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Executor executor;
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            try {
+                ready();
+            } catch (IOException e) {
+                logger.debug("failed to write queued messages", e);
+            }
+        }
+    };
+    private final ScheduledFuture<?> readyTask;
 
     public JettyWebSocketSupport(Outbound outbound) {
+        this(outbound, null);
+    }
+
+    /**
+     * Create the support of a WebSocket connection.
+     *
+     * @param outbound the {@link Outbound}
+     * @param executor the {@link Executor} writing the queued messages once the handshake latency elapsed, usually
+     *                 the asynchronous write service of the {@link org.atmosphere.cpr.Broadcaster}, or null to write
+     *                 them from the {@link HashedWheelTimer} Thread.
+     */
+    public JettyWebSocketSupport(Outbound outbound, Executor executor) {
         this.outbound = outbound;
+        this.executor = executor;
+        readyTask = HashedWheelTimer.getDefault().schedule(new Runnable() {
+            public void run() {
+                // Writing may block, which would delay every other task of the timer.
+                readyAsync();
+            }
+        }, HANDSHAKE_LATENCY, TimeUnit.MILLISECONDS);
     }
 
     public void writeError(int errorCode, String message) throws IOException {
@@ -63,41 +121,146 @@ public class JettyWebSocketSupport implements WebSocketSupport {
     }
 
     public void write(byte frame, String data) throws IOException {
-        checkWebSocketLatencyCheck();
-        if (!outbound.isOpen()) throw new IOException("Connection closed");
-        outbound.sendMessage(frame, data);
+        if (!ready && queue(new Frame(frame, data, null))) {
+            return;
+        }
+        send(frame, data);
     }
 
     public void write(byte frame, byte[] data) throws IOException {
-        checkWebSocketLatencyCheck();
-        if (!outbound.isOpen()) throw new IOException("Connection closed");
-        outbound.sendMessage(frame, data, 0, data.length);
+        write(frame, data, 0, data.length);
     }
 
     public void write(byte frame, byte[] data, int offset, int length) throws IOException {
-        checkWebSocketLatencyCheck();        
-        if (!outbound.isOpen()) throw new IOException("Connection closed");
-        outbound.sendMessage(frame, data, offset, length);
+        if (!ready) {
+            // The caller may reuse its array once we return.
+            byte[] b = new byte[length];
+            System.arraycopy(data, offset, b, 0, length);
+            if (queue(new Frame(frame, null, b))) {
+                return;
+            }
+        }
+        send(frame, data, offset, length);
     }
 
     public void close() throws IOException {
+        readyTask.cancel(false);
+        synchronized (pending) {
+            pending.clear();
+        }
         outbound.disconnect();
     }
 
     /**
-     * There is an issue in Jetty where the Websocket connection gets closed just after the handshake and the
-     * first broadcast occurs quickly after the handshake. If Chrome is processing the handshake and received messages,
-     * it close the connection.
+     * Consider the connection ready, writing the queued messages.
+     *
+     * @throws IOException if the connection is closed
      */
-    private void checkWebSocketLatencyCheck() {
-        if (!webSocketLatencyCheck.getAndSet(true)) {
+    public void ready() throws IOException {
+        synchronized (pending) {
+            if (ready) {
+                return;
+            }
+
             try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                ;
+                Frame f;
+                while ((f = pending.poll()) != null) {
+                    if (f.bytes != null) {
+                        send(f.frame, f.bytes, 0, f.bytes.length);
+                    } else {
+                        send(f.frame, f.text);
+                    }
+                }
+            } finally {
+                pending.clear();
+                // Only now, so a writer never sends a message before the queued ones. Writers which saw the
+                // connection not ready wait for the lock in queue(), then send their message themselves.
+                ready = true;
             }
         }
+        readyTask.cancel(false);
     }
 
+    /**
+     * Consider the connection ready, writing the queued messages with the {@link Executor} given to the constructor,
+     * so the calling Thread (the timer, or the container's I/O Thread when the client sends a message) never blocks
+     * on the writes. Without an {@link Executor}, or if it rejects the task, they are written by the calling Thread.
+     */
+    public void readyAsync() {
+        if (ready || drainScheduled.getAndSet(true)) {
+            return;
+        }
+        if (executor != null) {
+            try {
+                executor.execute(drain);
+                return;
+            } catch (RejectedExecutionException e) {
+                logger.debug("unable to write queued messages asynchronously", e);
+            }
+        }
+        drain.run();
+    }
+
+    /**
+     * Return the number of messages dropped because too many were queued before the connection got ready.
+     *
+     * @return the number of dropped messages.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
 
+    /**
+     * Return true if the connection is ready.
+     *
+     * @return true if the connection is ready.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Queue the message until the connection is ready.
+     *
+     * @return false if the connection got ready, in which case the message must be sent.
+     */
+    private boolean queue(Frame f) {
+        synchronized (pending) {
+            if (ready) {
+                return false;
+            }
+
+            if (pending.size() >= MAX_PENDING_MESSAGES) {
+                // Writing now could close the connection, keep the most recent messages instead.
+                pending.poll();
+                dropped.incrementAndGet();
+                logger.debug("Too many messages written during the handshake, dropping the oldest");
+            }
+            pending.add(f);
+            return true;
+        }
+    }
+
+    private void send(byte frame, String data) throws IOException {
+        if (!outbound.isOpen()) throw new IOException("Connection closed");
+        outbound.sendMessage(frame, data);
+    }
+
+    private void send(byte frame, byte[] data, int offset, int length) throws IOException {
+        if (!outbound.isOpen()) throw new IOException("Connection closed");
+        outbound.sendMessage(frame, data, offset, length);
+    }
+
+    private final static class Frame {
+
+        final byte frame;
+        final String text;
+        final byte[] bytes;
+
+        Frame(byte frame, String text, byte[] bytes) {
+            this.frame = frame;
+            this.text = text;
+            this.bytes = bytes;
+        }
+    }
 }
@@ -43,6 +43,13 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -52,22 +59,45 @@ import java.util.Locale;
 /**
  * Wrapper around an {@link HttpServletResponse} which use an instance of {@link WebSocketSupport}
  * as a writer.
+ * <p/>
+ * The {@link #getWriter()} and {@link #getOutputStream()} are created once and share a buffer. Nothing is written to
+ * the {@link WebSocketSupport} until they are flushed, or {@link #flushBuffer()} is invoked, which sends everything
+ * written since the previous flush as a single frame.
  *
  * @param <A>
  */
 public class WebSocketHttpServletResponse<A extends WebSocketSupport> extends HttpServletResponseWrapper {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int MIN_BUFFER_SIZE = 256;
+
+    // Larger buffers are released after a flush instead of being kept for the lifetime of the connection.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 8192;
+
+    // CharsetEncoder aren't thread safe, and too expensive to create for every write.
+    private static final ThreadLocal<CharsetEncoder> encoders = new ThreadLocal<CharsetEncoder>();
+
     private final ArrayList<Cookie> cookies = new ArrayList<Cookie>();
     private final HashMap<String, String> headers = new HashMap<String, String>();
     private final A webSocketSupport;
     private int status = 200;
     private String statusMessage = "";
     private String charSet = "UTF-8";
-    private byte frame;
+    private byte frame = WebSocketSupport.TEXT_FRAME;
     private long contentLength = -1;
     private String contentType = "txt/html";
     private boolean isCommited = false;
     private Locale locale;
+    private Charset charset = UTF_8;
+
+    // The bytes written since the last flush, sent as a single frame.
+    private byte[] buffer = EMPTY;
+    private int count;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
 
     public WebSocketHttpServletResponse(A webSocketSupport) {
         super(new HttpServletResponse() {
@@ -375,7 +405,12 @@ public class WebSocketHttpServletResponse<A extends WebSocketSupport> extends Ht
      * {@inheritDoc}
      */
     public void setCharacterEncoding(String charset) {
-        this.charSet = charSet;
+        try {
+            this.charset = Charset.forName(charset);
+            this.charSet = charset;
+        } catch (IllegalArgumentException e) {
+            // Unsupported or illegal, keep the current one.
+        }
     }
 
     /**
@@ -389,60 +424,20 @@ public class WebSocketHttpServletResponse<A extends WebSocketSupport> extends Ht
      * {@inheritDoc}
      */
     public ServletOutputStream getOutputStream() throws IOException {
-        return new ServletOutputStream() {
-
-            public void write(int i) throws java.io.IOException {
-                webSocketSupport.write(frame, new byte[]{(byte) i});
-            }
-
-
-            public void write(byte[] bytes) throws java.io.IOException {
-                webSocketSupport.write(frame, bytes);
-            }
-
-            public void write(byte[] bytes, int start, int offset) throws java.io.IOException {
-                webSocketSupport.write(frame, bytes, start, offset);
-            }
-        };
+        if (outputStream == null) {
+            outputStream = new WebSocketOutputStream();
+        }
+        return outputStream;
     }
 
     /**
      * {@inheritDoc}
      */
     public PrintWriter getWriter() throws IOException {
-        return new PrintWriter(getOutputStream()) {
-            public void write(char[] chars, int offset, int lenght) {
-                try {
-                    webSocketSupport.write(frame, new String(chars, offset, lenght));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-
-            public void write(char[] chars) {
-                try {
-                    webSocketSupport.write(frame, new String(chars));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-
-            public void write(String s, int offset, int lenght) {
-                try {
-                    webSocketSupport.write(frame, new String(s.substring(offset, lenght)));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-
-            public void write(java.lang.String s) {
-                try {
-                    webSocketSupport.write(frame, new String(s));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        };
+        if (writer == null) {
+            writer = new WebSocketPrintWriter();
+        }
+        return writer;
     }
 
     /**
@@ -483,7 +478,20 @@ public class WebSocketHttpServletResponse<A extends WebSocketSupport> extends Ht
     /**
      * {@inheritDoc}
      */
-    public void flushBuffer() throws IOException {
+    public synchronized void flushBuffer() throws IOException {
+        if (count == 0) {
+            return;
+        }
+
+        isCommited = true;
+        try {
+            webSocketSupport.write(frame, buffer, 0, count);
+        } finally {
+            count = 0;
+            if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+                buffer = EMPTY;
+            }
+        }
     }
 
     /**
@@ -497,12 +505,14 @@ public class WebSocketHttpServletResponse<A extends WebSocketSupport> extends Ht
      * {@inheritDoc}
      */
     public void reset() {
+        resetBuffer();
     }
 
     /**
      * {@inheritDoc}
      */
-    public void resetBuffer() {
+    public synchronized void resetBuffer() {
+        count = 0;
     }
 
     /**
@@ -533,6 +543,74 @@ public class WebSocketHttpServletResponse<A extends WebSocketSupport> extends Ht
         return false;
     }
 
+    private synchronized void write(int b) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) b;
+    }
+
+    private synchronized void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    private synchronized void write(CharBuffer chars) {
+        CharsetEncoder encoder = encoder();
+        ensureCapacity((int) (chars.remaining() * encoder.averageBytesPerChar()));
+
+        encoder.reset();
+        for (; ;) {
+            ByteBuffer out = ByteBuffer.wrap(buffer, count, buffer.length - count);
+            CoderResult result = encoder.encode(chars, out, true);
+            if (result.isUnderflow()) {
+                result = encoder.flush(out);
+            }
+            count = out.position();
+
+            if (result.isUnderflow()) {
+                return;
+            }
+            ensureCapacity(Math.max(MIN_BUFFER_SIZE, (int) (chars.remaining() * encoder.maxBytesPerChar())));
+        }
+    }
+
+    private CharsetEncoder encoder() {
+        CharsetEncoder encoder = encoders.get();
+        if (encoder == null || !encoder.charset().equals(charset)) {
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encoders.set(encoder);
+        }
+        return encoder;
+    }
+
+    private void ensureCapacity(int length) {
+        if (count + length > buffer.length) {
+            byte[] b = new byte[Math.max(Math.max(buffer.length << 1, count + length), MIN_BUFFER_SIZE)];
+            System.arraycopy(buffer, 0, b, 0, count);
+            buffer = b;
+        }
+    }
+
+    /**
+     * Set the frame type of the next flushed frame, {@link WebSocketSupport#TEXT_FRAME} by default.
+     *
+     * @param frame {@link WebSocketSupport#TEXT_FRAME} or {@link WebSocketSupport#BINARY_FRAME}
+     */
+    public synchronized void setFrame(byte frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * Return the frame type of the next flushed frame.
+     *
+     * @return the frame type of the next flushed frame.
+     */
+    public synchronized byte getFrame() {
+        return frame;
+    }
+
     /**
      * Return the underlying {@link WebSocketSupport}
      *
@@ -541,4 +619,105 @@ public class WebSocketHttpServletResponse<A extends WebSocketSupport> extends Ht
     public A getWebSocketSupport() {
         return webSocketSupport;
     }
+
+    private final class WebSocketOutputStream extends ServletOutputStream {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(int i) throws IOException {
+            WebSocketHttpServletResponse.this.write(i);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            WebSocketHttpServletResponse.this.write(bytes, offset, length);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            flushBuffer();
+        }
+    }
+
+    private final class WebSocketWriter extends Writer {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            WebSocketHttpServletResponse.this.write(CharBuffer.wrap(chars, offset, length));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(String s, int offset, int length) {
+            WebSocketHttpServletResponse.this.write(CharBuffer.wrap(s, offset, offset + length));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Unlike a {@link PrintWriter}, an {@link IOException} isn't swallowed but thrown as a {@link RuntimeException}
+     * so the {@link org.atmosphere.cpr.Broadcaster} notices the connection is gone.
+     */
+    private final class WebSocketPrintWriter extends PrintWriter {
+
+        WebSocketPrintWriter() {
+            super(new WebSocketWriter());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flush() {
+            try {
+                flushBuffer();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            flush();
+        }
+    }
 }
@@ -51,6 +51,16 @@ public interface WebSocketSupport {
     public final static String WEBSOCKET_SUSPEND = WebSocketSupport.class.getName() + ".suspend";
     public final static String WEBSOCKET_RESUME = WebSocketSupport.class.getName() + ".resume";
 
+    /**
+     * The frame type of a text message.
+     */
+    public final static byte TEXT_FRAME = 0x00;
+
+    /**
+     * The frame type of a binary message, which are broadcasted as byte[].
+     */
+    public final static byte BINARY_FRAME = (byte) 0x80;
+
     void writeError(int errorCode, String message) throws IOException;
 
     void redirect(String location) throws IOException;
@@ -0,0 +1,281 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.BroadcastFilter;
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction;
+import org.atmosphere.cpr.BroadcasterConfig;
+import org.atmosphere.cpr.PerRequestBroadcastFilter;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class BroadcastFilterTest {
+
+    private static final String[] BEHAVIOURS = {"append", "abort", "null"};
+
+    private Config config;
+    private List<String> invoked;
+
+    @BeforeMethod
+    public void setUp() {
+        config = new Config();
+        invoked = new ArrayList<String>();
+    }
+
+    @Test
+    public void abortShortCircuitsLikeTheOriginalLoop() {
+        for (int length = 0; length <= 3; length++) {
+            for (int[] combination : combinations(length)) {
+                setUp();
+                List<BroadcastFilter> chain = new ArrayList<BroadcastFilter>();
+                for (int i = 0; i < length; i++) {
+                    Step step = newStep(i, BEHAVIOURS[combination[i]]);
+                    assertTrue(config.addFilter(step));
+                    chain.add(step);
+                }
+
+                String description = Arrays.toString(combination);
+                BroadcastAction expected = loop(chain, "m");
+                List<String> expectedInvocations = new ArrayList<String>(invoked);
+                invoked.clear();
+
+                assertSameAction(config.filter("m"), expected, description);
+                assertEquals(invoked, expectedInvocations, description);
+                invoked.clear();
+
+                assertSameAction(config.filter(null, null, "m"), expected, description);
+                assertEquals(invoked, expectedInvocations, description);
+            }
+        }
+    }
+
+    @Test
+    public void filtersAfterAbortAreNotInvoked() {
+        config.addFilter(newStep(0, "append"));
+        config.addFilter(newStep(1, "abort"));
+        config.addFilter(newStep(2, "append"));
+
+        BroadcastAction a = config.filter("m");
+        assertEquals(a.action(), BroadcastAction.ACTION.ABORT);
+        assertEquals(a.message(), "m0");
+        assertEquals(invoked.toString(), "[0, 1]");
+    }
+
+    @Test
+    public void emptyChainContinuesWithTheMessage() {
+        BroadcastAction a = config.filter("m");
+        assertEquals(a.action(), BroadcastAction.ACTION.CONTINUE);
+        assertEquals(a.message(), "m");
+
+        a = config.filter(null, null, "m");
+        assertEquals(a.action(), BroadcastAction.ACTION.CONTINUE);
+        assertEquals(a.message(), "m");
+    }
+
+    @Test
+    public void addAndRemoveWhileFiltering() throws Exception {
+        final Step first = new First("append", null);
+        final Step second = new Second("append", null);
+        final Step third = new Third("append", null);
+        config.addFilter(first);
+
+        // The first filter is always installed, the others come and go in any order.
+        final Set<Object> valid = new HashSet<Object>(Arrays.asList("m0", "m01", "m02", "m012", "m021"));
+        final ConcurrentLinkedQueue<Object> unexpected = new ConcurrentLinkedQueue<Object>();
+        final AtomicBoolean done = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(4);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < 2; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            Object m = config.filter("m").message();
+                            if (!valid.contains(m)) {
+                                unexpected.add(m);
+                            }
+                            m = config.filter(null, null, "m").message();
+                            if (!valid.contains(m)) {
+                                unexpected.add(m);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        unexpected.add(t);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            };
+        }
+        threads[2] = new Toggle(second, done, unexpected, finished);
+        threads[3] = new Toggle(third, done, unexpected, finished);
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(500);
+        done.set(true);
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(unexpected.toString(), "[]");
+        assertEquals(config.filter("m").message(), "m0");
+    }
+
+    /**
+     * The loop {@link BroadcasterConfig} used before the filters were compiled into an array.
+     */
+    private static BroadcastAction loop(List<BroadcastFilter> filters, Object object) {
+        BroadcastAction transformed = new BroadcastAction(object);
+        for (BroadcastFilter mf : filters) {
+            transformed = mf.filter(object, transformed.message());
+            if (transformed == null || transformed.action() == BroadcastAction.ACTION.ABORT) {
+                return transformed;
+            }
+        }
+        return transformed;
+    }
+
+    private static void assertSameAction(BroadcastAction a, BroadcastAction expected, String description) {
+        if (expected == null) {
+            assertNull(a, description);
+            return;
+        }
+        assertEquals(a.action(), expected.action(), description);
+        assertEquals(a.message(), expected.message(), description);
+    }
+
+    private static List<int[]> combinations(int length) {
+        List<int[]> l = new ArrayList<int[]>();
+        int total = (int) Math.pow(BEHAVIOURS.length, length);
+        for (int n = 0; n < total; n++) {
+            int[] c = new int[length];
+            for (int i = 0, v = n; i < length; i++, v /= BEHAVIOURS.length) {
+                c[i] = v % BEHAVIOURS.length;
+            }
+            l.add(c);
+        }
+        return l;
+    }
+
+    /**
+     * {@link BroadcasterConfig} refuses two filters of the same class, so each position gets its own class.
+     */
+    private Step newStep(int position, String behaviour) {
+        switch (position) {
+            case 0:
+                return new First(behaviour, invoked);
+            case 1:
+                return new Second(behaviour, invoked);
+            default:
+                return new Third(behaviour, invoked);
+        }
+    }
+
+    private final static class Config extends BroadcasterConfig {
+
+        Config() {
+            super(null, null, null, null);
+        }
+
+        @Override
+        public BroadcastAction filter(Object object) {
+            return super.filter(object);
+        }
+
+        @Override
+        public BroadcastAction filter(HttpServletRequest request, HttpServletResponse response, Object object) {
+            return super.filter(request, response, object);
+        }
+    }
+
+    private static class Step implements PerRequestBroadcastFilter {
+
+        private final String id;
+        private final String behaviour;
+        private final List<String> invoked;
+
+        Step(String id, String behaviour, List<String> invoked) {
+            this.id = id;
+            this.behaviour = behaviour;
+            this.invoked = invoked;
+        }
+
+        public BroadcastAction filter(Object originalMessage, Object message) {
+            if (invoked != null) {
+                invoked.add(id);
+            }
+            if (behaviour.equals("abort")) {
+                return new BroadcastAction(BroadcastAction.ACTION.ABORT, message);
+            } else if (behaviour.equals("null")) {
+                return null;
+            }
+            return new BroadcastAction(message + id);
+        }
+
+        public BroadcastAction filter(HttpServletRequest request, HttpServletResponse response, Object message) {
+            return filter(message, message);
+        }
+    }
+
+    private final static class First extends Step {
+        First(String behaviour, List<String> invoked) {
+            super("0", behaviour, invoked);
+        }
+    }
+
+    private final static class Second extends Step {
+        Second(String behaviour, List<String> invoked) {
+            super("1", behaviour, invoked);
+        }
+    }
+
+    private final static class Third extends Step {
+        Third(String behaviour, List<String> invoked) {
+            super("2", behaviour, invoked);
+        }
+    }
+
+    private final class Toggle extends Thread {
+
+        private final Step step;
+        private final AtomicBoolean done;
+        private final ConcurrentLinkedQueue<Object> unexpected;
+        private final CountDownLatch finished;
+
+        Toggle(Step step, AtomicBoolean done, ConcurrentLinkedQueue<Object> unexpected, CountDownLatch finished) {
+            this.step = step;
+            this.done = done;
+            this.unexpected = unexpected;
+            this.finished = finished;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!done.get()) {
+                    config.addFilter(step);
+                    config.removeFilter(step);
+                }
+            } catch (Throwable t) {
+                unexpected.add(t);
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.BroadcasterConfig;
+import org.atmosphere.cpr.BroadcasterFuture;
+import org.atmosphere.cpr.DefaultBroadcaster;
+import org.atmosphere.cpr.DefaultBroadcasterFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class BroadcasterOverflowTest {
+
+    private static final int CAPACITY = 2;
+
+    private GatedBroadcaster broadcaster;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        DefaultBroadcasterFactory.buildAndReplaceDefaultfactory(DefaultBroadcaster.class, null);
+        broadcaster = new GatedBroadcaster();
+        broadcaster.setBroadcasterConfig(new BroadcasterConfig(new String[0], null));
+        // Set after setBroadcasterConfig: the queue is only created when the Broadcaster starts.
+        broadcaster.getBroadcasterConfig().setMessageQueueCapacity(CAPACITY);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        broadcaster.gate.countDown();
+        broadcaster.destroy();
+    }
+
+    @Test
+    public void blockFailsAfterTimeout() throws Exception {
+        broadcaster.getBroadcasterConfig().setOverflowPolicy(BroadcasterConfig.OVERFLOW_POLICY.BLOCK)
+                .setOverflowTimeout(100);
+        fill();
+
+        long start = System.currentTimeMillis();
+        Future<String> f = broadcaster.broadcast("overflow");
+        assertTrue(System.currentTimeMillis() - start >= 90);
+        assertRejected(f);
+        assertEquals(broadcaster.getDroppedMessageCount(), 1);
+
+        broadcaster.gate.countDown();
+        assertDelivered("first", "second", "third");
+    }
+
+    @Test
+    public void blockWaitsForSpace() throws Exception {
+        broadcaster.getBroadcasterConfig().setOverflowPolicy(BroadcasterConfig.OVERFLOW_POLICY.BLOCK)
+                .setOverflowTimeout(0);
+        fill();
+
+        final CountDownLatch published = new CountDownLatch(1);
+        final Future<?>[] f = new Future<?>[1];
+        Thread publisher = new Thread() {
+            public void run() {
+                f[0] = broadcaster.broadcast("fourth");
+                published.countDown();
+            }
+        };
+        publisher.start();
+        assertFalse(published.await(200, TimeUnit.MILLISECONDS));
+
+        broadcaster.gate.countDown();
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        assertEquals(f[0].get(5, TimeUnit.SECONDS), "fourth");
+        assertEquals(broadcaster.getDroppedMessageCount(), 0);
+        assertDelivered("first", "second", "third", "fourth");
+    }
+
+    @Test
+    public void dropOldestDiscardsTheHeadOfTheQueue() throws Exception {
+        broadcaster.getBroadcasterConfig().setOverflowPolicy(BroadcasterConfig.OVERFLOW_POLICY.DROP_OLDEST);
+        List<Future<String>> queued = fill();
+
+        Future<String> f = broadcaster.broadcast("fourth");
+        assertTrue(queued.get(0).isCancelled());
+        assertFalse(queued.get(1).isCancelled());
+        assertFalse(f.isCancelled());
+        assertEquals(broadcaster.getDroppedMessageCount(), 1);
+
+        broadcaster.gate.countDown();
+        assertEquals(f.get(5, TimeUnit.SECONDS), "fourth");
+        assertDelivered("first", "third", "fourth");
+    }
+
+    @Test
+    public void dropNewestDiscardsTheMessage() throws Exception {
+        broadcaster.getBroadcasterConfig().setOverflowPolicy(BroadcasterConfig.OVERFLOW_POLICY.DROP_NEWEST);
+        List<Future<String>> queued = fill();
+
+        Future<String> f = broadcaster.broadcast("fourth");
+        assertTrue(f.isCancelled());
+        assertFalse(queued.get(0).isCancelled());
+        assertFalse(queued.get(1).isCancelled());
+        assertEquals(broadcaster.getDroppedMessageCount(), 1);
+
+        broadcaster.gate.countDown();
+        assertDelivered("first", "second", "third");
+    }
+
+    @Test
+    public void failRejectsTheMessage() throws Exception {
+        broadcaster.getBroadcasterConfig().setOverflowPolicy(BroadcasterConfig.OVERFLOW_POLICY.FAIL)
+                .setOverflowTimeout(10000);
+        fill();
+
+        long start = System.currentTimeMillis();
+        Future<String> f = broadcaster.broadcast("fourth");
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertRejected(f);
+        assertEquals(broadcaster.getDroppedMessageCount(), 1);
+
+        broadcaster.gate.countDown();
+        assertDelivered("first", "second", "third");
+    }
+
+    @Test
+    public void failedFutureThrowsExecutionException() throws Exception {
+        BroadcasterFuture<String> f = new BroadcasterFuture<String>("message");
+        RejectedExecutionException cause = new RejectedExecutionException();
+        f.fail(cause);
+
+        assertFalse(f.isCancelled());
+        try {
+            f.get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() == cause);
+        }
+        try {
+            f.get(1, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() == cause);
+        }
+    }
+
+    /**
+     * Block the dispatch Thread on a first message, then fill the message queue.
+     *
+     * @return the {@link Future} of the queued messages.
+     */
+    private List<Future<String>> fill() throws InterruptedException {
+        broadcaster.broadcast("first");
+        assertTrue(broadcaster.pushing.await(5, TimeUnit.SECONDS));
+
+        List<Future<String>> queued = new CopyOnWriteArrayList<Future<String>>();
+        queued.add(broadcaster.broadcast("second"));
+        queued.add(broadcaster.broadcast("third"));
+        assertEquals(broadcaster.getQueueDepth(), CAPACITY);
+        return queued;
+    }
+
+    private void assertRejected(Future<?> f) throws Exception {
+        try {
+            f.get(5, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private void assertDelivered(String... messages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (broadcaster.pushed.size() < messages.length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(broadcaster.pushed.toString(), Arrays.asList(messages).toString());
+    }
+
+    /**
+     * A {@link DefaultBroadcaster} whose dispatch Thread waits for the gate to open before pushing a message.
+     */
+    private final static class GatedBroadcaster extends DefaultBroadcaster {
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch pushing = new CountDownLatch(1);
+        final List<Object> pushed = new CopyOnWriteArrayList<Object>();
+
+        GatedBroadcaster() {
+            super("overflow");
+        }
+
+        @Override
+        protected void push(Entry entry) {
+            pushing.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pushed.add(entry.message);
+            super.push(entry);
+        }
+    }
+}
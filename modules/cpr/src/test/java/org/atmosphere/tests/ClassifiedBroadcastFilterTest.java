@@ -0,0 +1,238 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResourceImpl;
+import org.atmosphere.cpr.AtmosphereServlet;
+import org.atmosphere.cpr.BroadcastFilter.BroadcastAction;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterConfig;
+import org.atmosphere.cpr.ClassifiedBroadcastFilter;
+import org.atmosphere.cpr.CometSupport;
+import org.atmosphere.cpr.DefaultBroadcaster;
+import org.atmosphere.cpr.DefaultBroadcasterFactory;
+import org.atmosphere.cpr.PerRequestBroadcastFilter;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class ClassifiedBroadcastFilterTest {
+
+    private FilteringBroadcaster broadcaster;
+    private AtmosphereServlet servlet;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        DefaultBroadcasterFactory.buildAndReplaceDefaultfactory(DefaultBroadcaster.class, null);
+        broadcaster = new FilteringBroadcaster();
+        broadcaster.setBroadcasterConfig(new BroadcasterConfig(new String[0], null));
+        servlet = new AtmosphereServlet() {
+            @Override
+            public String getInitParameter(String name) {
+                return null;
+            }
+        };
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        broadcaster.destroy();
+    }
+
+    @Test
+    public void invokeOncePerClass() {
+        UserAgentFilter filter = new UserAgentFilter();
+        broadcaster.getBroadcasterConfig().addFilter(filter);
+        List<AtmosphereResource<?, ?>> resources = resources("a", "a", "b", "a", "b");
+
+        List<Object> delivered = broadcast("m", resources);
+
+        assertEquals(delivered.toString(), "[m/a, m/a, m/b, m/a, m/b]");
+        assertEquals(filter.invocations.get(), 2);
+        assertEquals(broadcaster.getMemoizedFilterCount(), 3);
+    }
+
+    @Test
+    public void eachBroadcastInvokesTheFilterAgain() {
+        UserAgentFilter filter = new UserAgentFilter();
+        broadcaster.getBroadcasterConfig().addFilter(filter);
+        List<AtmosphereResource<?, ?>> resources = resources("a", "a");
+
+        assertEquals(broadcast("m", resources).toString(), "[m/a, m/a]");
+        assertEquals(broadcast("n", resources).toString(), "[n/a, n/a]");
+        assertEquals(filter.invocations.get(), 2);
+        assertEquals(broadcaster.getMemoizedFilterCount(), 2);
+    }
+
+    @Test
+    public void fallbackWhenAFilterIsNotClassified() {
+        UserAgentFilter filter = new UserAgentFilter();
+        broadcaster.getBroadcasterConfig().addFilter(filter);
+        broadcaster.getBroadcasterConfig().addFilter(new UnclassifiedFilter());
+        List<AtmosphereResource<?, ?>> resources = resources("a", "a", "a");
+
+        List<Object> delivered = broadcast("m", resources);
+
+        assertEquals(delivered.toString(), "[m/a!, m/a!, m/a!]");
+        assertEquals(filter.invocations.get(), 3);
+        assertEquals(broadcaster.getMemoizedFilterCount(), 0);
+    }
+
+    @Test
+    public void fallbackWhenTheRequestIsNotClassified() {
+        UserAgentFilter filter = new UserAgentFilter();
+        broadcaster.getBroadcasterConfig().addFilter(filter);
+        List<AtmosphereResource<?, ?>> resources = resources(null, "a", null, "a");
+
+        List<Object> delivered = broadcast("m", resources);
+
+        assertEquals(delivered.toString(), "[m/null, m/a, m/null, m/a]");
+        assertEquals(filter.invocations.get(), 3);
+        assertEquals(broadcaster.getMemoizedFilterCount(), 1);
+    }
+
+    @Test
+    public void abortIsShared() {
+        UserAgentFilter filter = new UserAgentFilter();
+        broadcaster.getBroadcasterConfig().addFilter(filter);
+        List<AtmosphereResource<?, ?>> resources = resources(UserAgentFilter.BLOCKED, "a", UserAgentFilter.BLOCKED,
+                UserAgentFilter.BLOCKED);
+
+        List<Object> delivered = broadcast("m", resources);
+
+        assertNull(delivered.get(0));
+        assertEquals(delivered.get(1), "m/a");
+        assertNull(delivered.get(2));
+        assertNull(delivered.get(3));
+        assertEquals(filter.invocations.get(), 2);
+        assertEquals(broadcaster.getMemoizedFilterCount(), 2);
+    }
+
+    @Test
+    public void reclassifyWhenTheFiltersChange() {
+        BroadcasterConfig bc = broadcaster.getBroadcasterConfig();
+        UserAgentFilter filter = new UserAgentFilter();
+        bc.addFilter(filter);
+        List<AtmosphereResource<?, ?>> resources = resources("a");
+
+        int version = bc.getFilterVersion();
+        assertEquals(broadcaster.classification(resources.get(0)).toString(), "[a]");
+        assertEquals(broadcaster.classification(resources.get(0)).toString(), "[a]");
+        assertEquals(filter.classifications.get(), 1);
+
+        LanguageFilter language = new LanguageFilter();
+        bc.addFilter(language);
+        assertEquals(bc.getFilterVersion(), version + 1);
+        assertEquals(broadcaster.classification(resources.get(0)).toString(), "[a, en]");
+        assertEquals(filter.classifications.get(), 2);
+        assertEquals(broadcast("m", resources).toString(), "[m/a@en]");
+
+        bc.removeFilter(language);
+        assertEquals(bc.getFilterVersion(), version + 2);
+        assertEquals(broadcaster.classification(resources.get(0)).toString(), "[a]");
+        assertEquals(filter.classifications.get(), 3);
+        assertEquals(broadcast("m", resources).toString(), "[m/a]");
+    }
+
+    private List<Object> broadcast(Object message, List<AtmosphereResource<?, ?>> resources) {
+        DefaultBroadcaster.Entry entry = broadcaster.new Entry(message, null, null, message);
+        entry.filtered = new ConcurrentHashMap<Object, Object>();
+        List<Object> delivered = new ArrayList<Object>();
+        for (AtmosphereResource<?, ?> r : resources) {
+            delivered.add(broadcaster.perRequestFilter(r, entry));
+        }
+        return delivered;
+    }
+
+    private List<AtmosphereResource<?, ?>> resources(String... userAgents) {
+        List<AtmosphereResource<?, ?>> l = new ArrayList<AtmosphereResource<?, ?>>();
+        for (String userAgent : userAgents) {
+            HttpServletRequest request = mock(HttpServletRequest.class);
+            when(request.getHeader("User-Agent")).thenReturn(userAgent);
+            when(request.getHeader("Accept-Language")).thenReturn("en");
+            l.add(new AtmosphereResourceImpl(servlet.getAtmosphereConfig(), mock(Broadcaster.class), request,
+                    mock(HttpServletResponse.class), mock(CometSupport.class)));
+        }
+        return l;
+    }
+
+    private final static class FilteringBroadcaster extends DefaultBroadcaster {
+
+        FilteringBroadcaster() {
+            super("classified");
+        }
+
+        @Override
+        public Object perRequestFilter(AtmosphereResource<?, ?> r, Entry msg) {
+            return super.perRequestFilter(r, msg);
+        }
+
+        @Override
+        public Object classification(AtmosphereResource<?, ?> r) {
+            return super.classification(r);
+        }
+    }
+
+    private final static class UserAgentFilter implements ClassifiedBroadcastFilter {
+
+        static final String BLOCKED = "blocked";
+
+        final AtomicInteger invocations = new AtomicInteger();
+        final AtomicInteger classifications = new AtomicInteger();
+
+        public Object classify(HttpServletRequest request) {
+            classifications.incrementAndGet();
+            return request.getHeader("User-Agent");
+        }
+
+        public BroadcastAction filter(HttpServletRequest request, HttpServletResponse response, Object message) {
+            invocations.incrementAndGet();
+            String userAgent = request.getHeader("User-Agent");
+            if (BLOCKED.equals(userAgent)) {
+                return new BroadcastAction(BroadcastAction.ACTION.ABORT, null);
+            }
+            return new BroadcastAction(message + "/" + userAgent);
+        }
+
+        public BroadcastAction filter(Object originalMessage, Object message) {
+            return new BroadcastAction(message);
+        }
+    }
+
+    private final static class LanguageFilter implements ClassifiedBroadcastFilter {
+
+        public Object classify(HttpServletRequest request) {
+            return request.getHeader("Accept-Language");
+        }
+
+        public BroadcastAction filter(HttpServletRequest request, HttpServletResponse response, Object message) {
+            return new BroadcastAction(message + "@" + request.getHeader("Accept-Language"));
+        }
+
+        public BroadcastAction filter(Object originalMessage, Object message) {
+            return new BroadcastAction(message);
+        }
+    }
+
+    private final static class UnclassifiedFilter implements PerRequestBroadcastFilter {
+
+        public BroadcastAction filter(HttpServletRequest request, HttpServletResponse response, Object message) {
+            return new BroadcastAction(message + "!");
+        }
+
+        public BroadcastAction filter(Object originalMessage, Object message) {
+            return new BroadcastAction(message);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.ConcurrentResourceSet;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ConcurrentResourceSetTest {
+
+    @Test
+    public void addRemoveContains() {
+        ConcurrentResourceSet set = new ConcurrentResourceSet();
+        AtmosphereResource<?, ?> a = mock(AtmosphereResource.class);
+        AtmosphereResource<?, ?> b = mock(AtmosphereResource.class);
+
+        assertTrue(set.add(a));
+        assertFalse(set.add(a));
+        assertTrue(set.add(b));
+        assertEquals(set.size(), 2);
+        assertTrue(set.contains(a));
+
+        assertTrue(set.remove(a));
+        assertFalse(set.remove(a));
+        assertFalse(set.contains(a));
+        assertEquals(set.size(), 1);
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.iterator().hasNext());
+    }
+
+    @Test
+    public void pollReturnsOldest() {
+        ConcurrentResourceSet set = new ConcurrentResourceSet();
+        List<AtmosphereResource<?, ?>> added = new ArrayList<AtmosphereResource<?, ?>>();
+        for (int i = 0; i < 10; i++) {
+            AtmosphereResource<?, ?> r = mock(AtmosphereResource.class);
+            added.add(r);
+            set.add(r);
+        }
+        set.remove(added.get(0));
+        set.remove(added.get(5));
+
+        assertSame(set.poll(), added.get(1));
+        assertSame(set.poll(), added.get(2));
+
+        Iterator<AtmosphereResource<?, ?>> i = set.iterator();
+        assertSame(i.next(), added.get(3));
+        assertSame(i.next(), added.get(4));
+        assertSame(i.next(), added.get(6));
+        i.remove();
+        assertFalse(set.contains(added.get(6)));
+        assertEquals(set.size(), 5);
+
+        while (set.poll() != null) {
+        }
+        assertTrue(set.isEmpty());
+        assertNull(set.poll());
+    }
+
+    @Test
+    public void iterationIsASnapshot() {
+        ConcurrentResourceSet set = new ConcurrentResourceSet();
+        for (int i = 0; i < 5; i++) {
+            set.add(mock(AtmosphereResource.class));
+        }
+
+        int count = 0;
+        for (AtmosphereResource<?, ?> r : set) {
+            set.remove(r);
+            set.add(mock(AtmosphereResource.class));
+            count++;
+        }
+        assertEquals(count, 5);
+        assertEquals(set.size(), 5);
+    }
+
+    @Test
+    public void concurrentJoinLeave() throws Exception {
+        final ConcurrentResourceSet set = new ConcurrentResourceSet();
+        final int threads = 8;
+        final int perThread = 2000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        List<AtmosphereResource<?, ?>> mine = new ArrayList<AtmosphereResource<?, ?>>();
+                        for (int i = 0; i < perThread; i++) {
+                            AtmosphereResource<?, ?> r = mock(AtmosphereResource.class);
+                            mine.add(r);
+                            set.add(r);
+                        }
+                        for (int i = 0; i < perThread; i += 2) {
+                            set.remove(mine.get(i));
+                        }
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(set.size(), threads * perThread / 2);
+        int count = 0;
+        for (AtmosphereResource<?, ?> r : set) {
+            count++;
+        }
+        assertEquals(count, set.size());
+    }
+}
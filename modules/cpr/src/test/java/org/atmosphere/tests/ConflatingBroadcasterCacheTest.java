@@ -0,0 +1,71 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cache.ConflatingBroadcasterCache;
+import org.atmosphere.cpr.Conflatable;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ConflatingBroadcasterCacheTest {
+
+    @Test
+    public void keepLastValuePerKey() {
+        ConflatingBroadcasterCache cache = new ConflatingBroadcasterCache();
+        cache.addToCache(null, new Presence("alice", "online"));
+        cache.addToCache(null, new Presence("bob", "online"));
+        cache.addToCache(null, new Presence("alice", "away"));
+        cache.addToCache(null, "not cached");
+
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.retrieve(0).toString(), "[bob=online, alice=away]");
+    }
+
+    @Test
+    public void updatedSince() {
+        ConflatingBroadcasterCache cache = new ConflatingBroadcasterCache();
+        cache.addToCache(null, new Presence("alice", "online"));
+        cache.addToCache(null, new Presence("bob", "online"));
+        cache.addToCache(null, new Presence("carol", "online"));
+        cache.addToCache(null, new Presence("alice", "offline"));
+
+        assertEquals(cache.retrieve(2).toString(), "[carol=online, alice=offline]");
+        assertTrue(cache.retrieve(4).isEmpty());
+
+        cache.remove("alice");
+        assertEquals(cache.retrieve(0).toString(), "[bob=online, carol=online]");
+    }
+
+    @Test
+    public void versionedOncePerBroadcast() {
+        ConflatingBroadcasterCache cache = new ConflatingBroadcasterCache();
+        Presence online = new Presence("alice", "online");
+        cache.addToCache(null, online, 1);
+        cache.addToCache(null, online, 1);
+        assertTrue(cache.retrieve(1).isEmpty());
+
+        // The same instance broadcasted again is a new version.
+        cache.addToCache(null, online, 2);
+        assertEquals(cache.retrieve(1).toString(), "[alice=online]");
+        assertTrue(cache.retrieve(2).isEmpty());
+    }
+
+    private static final class Presence implements Conflatable {
+
+        private final String user;
+        private final String status;
+
+        Presence(String user, String status) {
+            this.user = user;
+            this.status = status;
+        }
+
+        public Object getKey() {
+            return user;
+        }
+
+        public String toString() {
+            return user + "=" + status;
+        }
+    }
+}
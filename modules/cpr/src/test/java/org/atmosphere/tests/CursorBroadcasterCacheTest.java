@@ -0,0 +1,108 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cache.CursorBroadcasterCache;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class CursorBroadcasterCacheTest {
+
+    @Test
+    public void resumeFromCursor() {
+        CursorBroadcasterCache cache = new CursorBroadcasterCache();
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> client = resource(null);
+
+        cache.addToCache(client, "a");
+        cache.addToCache(client, "b");
+        String cursor = cursor(client);
+        assertNotNull(cursor);
+
+        cache.addToCache(null, "c");
+        cache.addToCache(null, "d");
+
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> reconnected = resource(cursor);
+        List<Object> l = cache.retrieveFromCache(reconnected);
+        assertEquals(l.toString(), "[c, d]");
+
+        // The new cursor points after d.
+        assertTrue(cache.retrieveFromCache(resource(cursor(reconnected))).isEmpty());
+    }
+
+    @Test
+    public void cursorFromAnotherInstanceUsesTime() {
+        CursorBroadcasterCache before = new CursorBroadcasterCache();
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> client = resource(null);
+        before.addToCache(client, "a");
+        String[] cursor = cursor(client).split("\\.");
+
+        CursorBroadcasterCache after = new CursorBroadcasterCache();
+        after.addToCache(null, "b");
+        after.addToCache(null, "c");
+
+        // "a" was received a second before "b" was cached.
+        long time = Long.parseLong(cursor[2], Character.MAX_RADIX) - 1000;
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> reconnected =
+                resource(cursor[0] + "." + cursor[1] + "." + Long.toString(time, Character.MAX_RADIX));
+        assertEquals(after.retrieveFromCache(reconnected).toString(), "[b, c]");
+    }
+
+    @Test
+    public void instancesCreatedTogetherHaveDistinctCursors() {
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> first = resource(null);
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> second = resource(null);
+        CursorBroadcasterCache one = new CursorBroadcasterCache();
+        CursorBroadcasterCache two = new CursorBroadcasterCache();
+        one.addToCache(first, "a");
+        two.addToCache(second, "a");
+
+        String cursor = cursor(first);
+        String other = cursor(second);
+        assertFalse(cursor.substring(0, cursor.indexOf('.')).equals(other.substring(0, other.indexOf('.'))));
+    }
+
+    @Test
+    public void invalidCursor() {
+        CursorBroadcasterCache cache = new CursorBroadcasterCache();
+        cache.addToCache(null, "a");
+
+        assertTrue(cache.retrieveFromCache(resource("not a cursor")).isEmpty());
+    }
+
+    /**
+     * Return a resource whose request sends the cursor header.
+     */
+    @SuppressWarnings("unchecked")
+    private static AtmosphereResource<HttpServletRequest, HttpServletResponse> resource(String cursor) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader(CursorBroadcasterCache.HEADER_CACHE_CURSOR)).thenReturn(cursor);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> r = mock(AtmosphereResource.class);
+        when(r.getRequest()).thenReturn(request);
+        when(r.getResponse()).thenReturn(response);
+        return r;
+    }
+
+    /**
+     * Return the last cursor header set on the response of the resource.
+     */
+    private static String cursor(AtmosphereResource<HttpServletRequest, HttpServletResponse> r) {
+        HttpServletResponse response = r.getResponse();
+        ArgumentCaptor<String> cursor = ArgumentCaptor.forClass(String.class);
+        verify(response, atLeastOnce()).setHeader(eq(CursorBroadcasterCache.HEADER_CACHE_CURSOR), cursor.capture());
+        return cursor.getValue();
+    }
+}
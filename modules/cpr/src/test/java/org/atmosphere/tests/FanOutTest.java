@@ -0,0 +1,192 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.BroadcasterConfig;
+import org.atmosphere.cpr.BroadcasterFuture;
+import org.atmosphere.cpr.DefaultBroadcaster;
+import org.atmosphere.cpr.DefaultBroadcasterFactory;
+import org.atmosphere.cpr.PayloadCache;
+import org.atmosphere.cpr.SharedDispatcher;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class FanOutTest {
+
+    private static final int THRESHOLD = 10;
+    private static final int CHUNK_SIZE = 4;
+
+    private RecordingBroadcaster broadcaster;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        DefaultBroadcasterFactory.buildAndReplaceDefaultfactory(DefaultBroadcaster.class, null);
+        broadcaster = new RecordingBroadcaster();
+        broadcaster.setBroadcasterConfig(new BroadcasterConfig(new String[0], null));
+        broadcaster.getBroadcasterConfig().setFanOutThreshold(THRESHOLD).setFanOutChunkSize(CHUNK_SIZE);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        broadcaster.destroy();
+    }
+
+    @Test
+    public void sequentialAtTheThreshold() {
+        for (int n = 1; n <= THRESHOLD; n++) {
+            deliverTo(n);
+            assertEquals(broadcaster.getParallelDeliveryCount(), 0);
+        }
+    }
+
+    @Test
+    public void parallelAboveTheThreshold() {
+        // Around the threshold and around the chunk boundaries: last chunk full, with a single or a few members.
+        int[] sizes = {THRESHOLD + 1, 12, 13, 16, 17, 20, 21, 100, 1025};
+        for (int i = 0; i < sizes.length; i++) {
+            deliverTo(sizes[i]);
+            assertEquals(broadcaster.getParallelDeliveryCount(), i + 1);
+        }
+    }
+
+    @Test
+    public void lastChunkSignalsTheStrand() throws Exception {
+        SharedDispatcher dispatcher = new SharedDispatcher(1);
+        try {
+            final CountDownLatch signaled = new CountDownLatch(1);
+            broadcaster.useStrand(dispatcher.newStrand(broadcaster, new Runnable() {
+                public void run() {
+                    signaled.countDown();
+                }
+            }));
+
+            List<AtmosphereResource<?, ?>> resources = resources(THRESHOLD + CHUNK_SIZE * 3);
+            broadcaster.reset(resources);
+
+            // The helpers may still be writing when the lane returns.
+            deliver(resources);
+
+            assertTrue(signaled.await(10, TimeUnit.SECONDS));
+            assertEquals(broadcaster.getParallelDeliveryCount(), 1);
+            for (int i = 0; i < resources.size(); i++) {
+                assertEquals(broadcaster.counts.get(i), 1, "member " + i);
+            }
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void firstMemberIsDeliveredByTheDispatchThreadOnly() {
+        List<AtmosphereResource<?, ?>> resources = resources(THRESHOLD + CHUNK_SIZE * 3);
+        broadcaster.reset(resources);
+
+        deliver(resources);
+
+        assertSame(broadcaster.order.get(0), resources.get(0));
+        assertSame(broadcaster.threads.get(resources.get(0)), Thread.currentThread());
+        assertEquals(broadcaster.counts.get(0), 1);
+    }
+
+    @Test
+    public void thresholdDisabled() {
+        broadcaster.getBroadcasterConfig().setFanOutThreshold(0);
+        deliverTo(THRESHOLD * 10);
+        assertEquals(broadcaster.getParallelDeliveryCount(), 0);
+    }
+
+    /**
+     * Deliver a message to n resources and check each of them got it exactly once, along with the
+     * {@link BroadcasterFuture} completed by the write.
+     */
+    private void deliverTo(int n) {
+        List<AtmosphereResource<?, ?>> resources = resources(n);
+        broadcaster.reset(resources);
+
+        BroadcasterFuture<String> future = deliver(resources);
+
+        assertEquals(broadcaster.order.size(), n, "deliveries to " + n);
+        for (int i = 0; i < n; i++) {
+            assertEquals(broadcaster.counts.get(i), 1, "member " + i + " of " + n);
+            assertSame(broadcaster.futures.get(resources.get(i)), future, "member " + i + " of " + n);
+        }
+    }
+
+    private BroadcasterFuture<String> deliver(List<AtmosphereResource<?, ?>> resources) {
+        BroadcasterFuture<String> future = new BroadcasterFuture<String>("m");
+        int delivered = broadcaster.deliver(broadcaster.new Entry("m", null, future, "m"), resources);
+        assertEquals(delivered, resources.size());
+        return future;
+    }
+
+    private static List<AtmosphereResource<?, ?>> resources(int n) {
+        List<AtmosphereResource<?, ?>> l = new ArrayList<AtmosphereResource<?, ?>>();
+        for (int i = 0; i < n; i++) {
+            l.add(mock(AtmosphereResource.class));
+        }
+        return l;
+    }
+
+    /**
+     * A {@link DefaultBroadcaster} that records the writes instead of executing them.
+     */
+    private final static class RecordingBroadcaster extends DefaultBroadcaster {
+
+        private Map<Object, Integer> index;
+        AtomicIntegerArray counts;
+        final List<Object> order = new ArrayList<Object>();
+        final Map<Object, Thread> threads = new IdentityHashMap<Object, Thread>();
+        final Map<Object, BroadcasterFuture> futures = new IdentityHashMap<Object, BroadcasterFuture>();
+
+        RecordingBroadcaster() {
+            super("fanOut");
+        }
+
+        void reset(List<AtmosphereResource<?, ?>> resources) {
+            index = new IdentityHashMap<Object, Integer>();
+            for (int i = 0; i < resources.size(); i++) {
+                index.put(resources.get(i), i);
+            }
+            counts = new AtomicIntegerArray(resources.size());
+            synchronized (order) {
+                order.clear();
+                threads.clear();
+                futures.clear();
+            }
+        }
+
+        void useStrand(SharedDispatcher.Strand s) {
+            strand = s;
+        }
+
+        @Override
+        public int deliver(Entry entry, Collection<? extends AtmosphereResource<?, ?>> targets) {
+            return super.deliver(entry, targets);
+        }
+
+        @Override
+        protected void executeAsyncWrite(AtmosphereResource<?, ?> resource, Object msg, BroadcasterFuture future,
+                                         PayloadCache payloadCache) {
+            counts.incrementAndGet(index.get(resource));
+            synchronized (order) {
+                order.add(resource);
+                threads.put(resource, Thread.currentThread());
+                futures.put(resource, future);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.atmosphere.tests;
+
+import com.sun.grizzly.websockets.DataFrame;
+import com.sun.grizzly.websockets.WebSocket;
+import org.atmosphere.container.GlassFishWebSocketSupport;
+import org.atmosphere.cpr.AtmosphereServlet;
+import org.atmosphere.cpr.WebSocketProcessor;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class GlassFishWebSocketSupportTest {
+
+    private static final int SOCKETS = 2000;
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void concurrentWebSockets() throws Exception {
+        final AtmosphereServlet servlet = new AtmosphereServlet();
+        final ConcurrentHashMap<WebSocket, RecordingWebSocketProcessor> processors =
+                new ConcurrentHashMap<WebSocket, RecordingWebSocketProcessor>();
+
+        GlassFishWebSocketSupport support = new GlassFishWebSocketSupport(servlet.getAtmosphereConfig());
+        final GlassFishWebSocketSupport.GrizzlyApplication application = support.new GrizzlyApplication() {
+            @Override
+            protected WebSocketProcessor newWebSocketProcessor(WebSocket w) {
+                RecordingWebSocketProcessor p = new RecordingWebSocketProcessor(servlet);
+                processors.put(w, p);
+                return p;
+            }
+
+            @Override
+            protected void connect(WebSocket w, WebSocketProcessor webSocketProcessor) {
+            }
+        };
+
+        final List<WebSocket> sockets = new ArrayList<WebSocket>();
+        for (int i = 0; i < SOCKETS; i++) {
+            sockets.add(mock(WebSocket.class));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            run(executor, new Task() {
+                public void run(int i) {
+                    application.onConnect(sockets.get(i));
+                }
+            });
+            assertEquals(application.getWebSocketCount(), SOCKETS);
+
+            run(executor, new Task() {
+                public void run(int i) {
+                    application.onMessage(sockets.get(i), new DataFrame("message " + i));
+                    application.onMessage(sockets.get(i), new DataFrame("message " + i));
+                }
+            });
+
+            run(executor, new Task() {
+                public void run(int i) {
+                    application.onClose(sockets.get(i));
+                    application.onClose(sockets.get(i));
+                }
+            });
+            assertEquals(application.getWebSocketCount(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < SOCKETS; i++) {
+            RecordingWebSocketProcessor p = processors.get(sockets.get(i));
+            assertEquals(p.messages, Arrays.asList("message " + i, "message " + i));
+            assertEquals(p.closed.get(), 1);
+        }
+
+        // Messages received after the close are dropped.
+        application.onMessage(sockets.get(0), new DataFrame("late"));
+        assertEquals(processors.get(sockets.get(0)).messages.size(), 2);
+    }
+
+    private static void run(ExecutorService executor, final Task task) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(SOCKETS);
+        for (int i = 0; i < SOCKETS; i++) {
+            final int index = i;
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        task.run(index);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+
+    private interface Task {
+        void run(int i);
+    }
+
+    private static final class RecordingWebSocketProcessor extends WebSocketProcessor {
+
+        final List<String> messages = new ArrayList<String>();
+        final AtomicInteger closed = new AtomicInteger();
+
+        RecordingWebSocketProcessor(AtmosphereServlet servlet) {
+            super(servlet, null);
+        }
+
+        @Override
+        public synchronized void broadcast(byte frame, String data) {
+            messages.add(data);
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.HashedWheelTimer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class HashedWheelTimerTest {
+
+    private HashedWheelTimer timer;
+
+    @BeforeMethod
+    public void setUp() {
+        timer = new HashedWheelTimer("HashedWheelTimerTest", 10, TimeUnit.MILLISECONDS, 8);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        timer.shutdown();
+    }
+
+    @Test
+    public void scheduleOnce() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        ScheduledFuture<?> f = timer.schedule(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 200, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        f.get(5, TimeUnit.SECONDS);
+        assertTrue(f.isDone());
+        assertEquals(timer.getScheduledTasks(), 0);
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        ScheduledFuture<?> f = timer.schedule(new Runnable() {
+            public void run() {
+                count.incrementAndGet();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(f.cancel(false));
+        assertTrue(f.isCancelled());
+        assertFalse(f.cancel(false));
+        Thread.sleep(300);
+        assertEquals(count.get(), 0);
+        assertEquals(timer.getScheduledTasks(), 0);
+    }
+
+    @Test
+    public void fixedRateUntilCancelled() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(5);
+        ScheduledFuture<?> f = timer.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 0, 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(f.isDone());
+        f.cancel(false);
+        assertTrue(f.isDone());
+        assertTrue(timer.getTicks() > 0);
+        assertTrue(timer.getMaxTickLag() >= timer.getLastTickLag());
+    }
+
+    @Test
+    public void delayLongerThanOneRound() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        // 8 buckets of 10ms, the task needs more than 3 rounds.
+        timer.schedule(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 250, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+    }
+
+    @Test
+    public void defaultTimerRunsUntilReleasedByAllUsers() {
+        HashedWheelTimer first = HashedWheelTimer.retainDefault();
+        HashedWheelTimer second = HashedWheelTimer.retainDefault();
+        assertTrue(first == second);
+
+        HashedWheelTimer.releaseDefault();
+        assertFalse(first.isShutdown());
+        assertTrue(HashedWheelTimer.getDefault() == first);
+
+        HashedWheelTimer.releaseDefault();
+        assertTrue(first.isShutdown());
+        // No user left: the stopped timer is returned, nothing creates a new one behind our back.
+        assertTrue(HashedWheelTimer.getDefault() == first);
+        try {
+            HashedWheelTimer.getDefault().schedule(new Runnable() {
+                public void run() {
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+            fail("The released timer must reject the tasks");
+        } catch (RejectedExecutionException e) {
+        }
+
+        HashedWheelTimer third = HashedWheelTimer.retainDefault();
+        assertFalse(third.isShutdown());
+        assertTrue(HashedWheelTimer.getDefault() == third);
+        HashedWheelTimer.releaseDefault();
+    }
+}
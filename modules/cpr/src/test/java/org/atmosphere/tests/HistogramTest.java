@@ -0,0 +1,91 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.metrics.BroadcasterStats;
+import org.atmosphere.metrics.Histogram;
+import org.atmosphere.metrics.StripedCounter;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void percentiles() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+
+        assertEquals(h.getCount(), 1000);
+        assertEquals(h.getMax(), 1000000);
+        assertEquals(h.getMean(), 500500.0, 0.001);
+
+        long p50 = h.getValueAtPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125, "p50 " + p50);
+        long p99 = h.getValueAtPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000, "p99 " + p99);
+        assertEquals(h.getValueAtPercentile(100), 1000000);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram h = new Histogram();
+        for (int i = 0; i < 8; i++) {
+            h.record(i);
+        }
+        assertEquals(h.getValueAtPercentile(0), 0);
+        assertEquals(h.getValueAtPercentile(50), 3);
+        assertEquals(h.getValueAtPercentile(100), 7);
+    }
+
+    @Test
+    public void largeValues() {
+        Histogram h = new Histogram();
+        h.record(Long.MAX_VALUE);
+        h.record(-1);
+        assertEquals(h.getValueAtPercentile(100), Long.MAX_VALUE);
+        assertEquals(h.getValueAtPercentile(50), 0);
+
+        h.reset();
+        assertEquals(h.getCount(), 0);
+        assertEquals(h.getValueAtPercentile(99), 0);
+    }
+
+    @Test
+    public void concurrentIncrements() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final CountDownLatch latch = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        latch.await();
+        assertEquals(counter.get(), 80000);
+    }
+
+    @Test
+    public void cacheHitRatio() {
+        BroadcasterStats stats = new BroadcasterStats("test");
+        stats.cacheRetrieved(3);
+        stats.cacheRetrieved(0);
+        stats.cacheRetrieved(1);
+        stats.cacheRetrieved(0);
+        assertEquals(stats.getCacheHits(), 2);
+        assertEquals(stats.getCacheMisses(), 2);
+        assertEquals(stats.getCacheHitRatio(), 0.5, 0.001);
+
+        stats.messageQueued(5);
+        stats.messageQueued(2);
+        assertEquals(stats.getQueueDepth(), 2);
+        assertEquals(stats.getMaxQueueDepth(), 5);
+    }
+}
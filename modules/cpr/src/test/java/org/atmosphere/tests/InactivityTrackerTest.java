@@ -0,0 +1,80 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.InactivityTracker;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class InactivityTrackerTest {
+
+    private final List<String> expired = new CopyOnWriteArrayList<String>();
+    private InactivityTracker<String> tracker;
+
+    @BeforeMethod
+    public void setUp() {
+        expired.clear();
+        tracker = new InactivityTracker<String>(1000, 100) {
+            @Override
+            protected void expired(String key) {
+                expired.add(key);
+            }
+        };
+    }
+
+    @Test
+    public void expireInactiveKeys() {
+        long now = System.currentTimeMillis();
+        tracker.track("a");
+        tracker.track("b");
+        assertEquals(tracker.size(), 2);
+
+        assertEquals(tracker.expire(now + 500), 0);
+        assertEquals(tracker.expire(now + 2000), 2);
+        assertEquals(tracker.size(), 0);
+        assertTrue(expired.contains("a"));
+        assertTrue(expired.contains("b"));
+    }
+
+    @Test
+    public void untrackedKeysNeverExpire() {
+        long now = System.currentTimeMillis();
+        tracker.track("a");
+        tracker.untrack("a");
+
+        assertEquals(tracker.expire(now + 2000), 0);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void touchPostponeTheDeadline() throws Exception {
+        tracker.track("a");
+        tracker.track("b");
+        // Leave more than a bucket between the two deadlines.
+        Thread.sleep(300);
+        tracker.touch("a");
+        long touched = System.currentTimeMillis();
+
+        // b is expired, a is moved to the bucket of its new deadline.
+        assertEquals(tracker.expire(touched + 900), 1);
+        assertEquals(expired.get(0), "b");
+        assertEquals(tracker.size(), 1);
+
+        assertEquals(tracker.expire(touched + 1200), 1);
+        assertEquals(expired.get(1), "a");
+    }
+
+    @Test
+    public void trackAgainReplaceTheEntry() {
+        long now = System.currentTimeMillis();
+        tracker.track("a");
+        tracker.track("a");
+
+        assertEquals(tracker.size(), 1);
+        assertEquals(tracker.expire(now + 2000), 1);
+    }
+}
@@ -0,0 +1,200 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.HashedWheelTimer;
+import org.atmosphere.websocket.JettyWebSocketSupport;
+import org.eclipse.jetty.websocket.WebSocket.Outbound;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.atmosphere.websocket.WebSocketSupport.TEXT_FRAME;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyByte;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.aryEq;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class JettyWebSocketSupportTest {
+
+    private Outbound outbound;
+
+    @BeforeMethod
+    public void setUp() {
+        outbound = mock(Outbound.class);
+        when(outbound.isOpen()).thenReturn(true);
+        HashedWheelTimer.retainDefault();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        HashedWheelTimer.releaseDefault();
+    }
+
+    @Test
+    public void queueUntilReady() throws IOException {
+        JettyWebSocketSupport webSocketSupport = new JettyWebSocketSupport(outbound);
+        assertFalse(webSocketSupport.isReady());
+
+        byte[] b = "one".getBytes("UTF-8");
+        webSocketSupport.write(TEXT_FRAME, b, 0, b.length);
+        b[0] = 'X';
+        webSocketSupport.write(TEXT_FRAME, "two");
+        verify(outbound, never()).sendMessage(anyByte(), anyString());
+        verify(outbound, never()).sendMessage(anyByte(), (byte[]) any(), anyInt(), anyInt());
+
+        webSocketSupport.ready();
+        assertTrue(webSocketSupport.isReady());
+        webSocketSupport.write(TEXT_FRAME, "three");
+
+        InOrder order = inOrder(outbound);
+        order.verify(outbound).sendMessage(eq(TEXT_FRAME), aryEq("one".getBytes("UTF-8")), eq(0), eq(3));
+        order.verify(outbound).sendMessage(TEXT_FRAME, "two");
+        order.verify(outbound).sendMessage(TEXT_FRAME, "three");
+    }
+
+    @Test
+    public void readyAfterTheHandshakeLatency() throws IOException {
+        JettyWebSocketSupport webSocketSupport = new JettyWebSocketSupport(outbound);
+        webSocketSupport.write(TEXT_FRAME, "one");
+
+        verify(outbound, timeout(5000)).sendMessage(TEXT_FRAME, "one");
+        assertTrue(webSocketSupport.isReady());
+    }
+
+    @Test
+    public void writeQueuedMessagesWithTheExecutor() throws Exception {
+        final List<Runnable> tasks = new CopyOnWriteArrayList<Runnable>();
+        JettyWebSocketSupport webSocketSupport = new JettyWebSocketSupport(outbound, new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        webSocketSupport.write(TEXT_FRAME, "one");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (tasks.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(tasks.size(), 1);
+        assertFalse(webSocketSupport.isReady());
+        verify(outbound, never()).sendMessage(TEXT_FRAME, "one");
+
+        tasks.get(0).run();
+        assertTrue(webSocketSupport.isReady());
+        verify(outbound).sendMessage(TEXT_FRAME, "one");
+    }
+
+    @Test
+    public void writersWaitForTheQueuedMessages() throws Exception {
+        final CountDownLatch draining = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                draining.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(outbound).sendMessage(TEXT_FRAME, "one");
+
+        final JettyWebSocketSupport webSocketSupport = new JettyWebSocketSupport(outbound);
+        webSocketSupport.write(TEXT_FRAME, "one");
+        webSocketSupport.write(TEXT_FRAME, "two");
+
+        Thread drainer = new Thread() {
+            public void run() {
+                try {
+                    webSocketSupport.ready();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        drainer.start();
+        assertTrue(draining.await(5, TimeUnit.SECONDS));
+        // Not ready until all the queued messages have been written.
+        assertFalse(webSocketSupport.isReady());
+
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    webSocketSupport.write(TEXT_FRAME, "three");
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        writer.start();
+        Thread.sleep(100);
+        verify(outbound, never()).sendMessage(TEXT_FRAME, "three");
+
+        release.countDown();
+        drainer.join(5000);
+        writer.join(5000);
+        assertTrue(webSocketSupport.isReady());
+        InOrder order = inOrder(outbound);
+        order.verify(outbound).sendMessage(TEXT_FRAME, "one");
+        order.verify(outbound).sendMessage(TEXT_FRAME, "two");
+        order.verify(outbound).sendMessage(TEXT_FRAME, "three");
+    }
+
+    @Test
+    public void readyAsyncWritesWithTheExecutor() throws Exception {
+        final List<Runnable> tasks = new CopyOnWriteArrayList<Runnable>();
+        JettyWebSocketSupport webSocketSupport = new JettyWebSocketSupport(outbound, new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        webSocketSupport.write(TEXT_FRAME, "one");
+
+        // The client sent two messages, e.g. from the container's I/O Thread.
+        webSocketSupport.readyAsync();
+        webSocketSupport.readyAsync();
+        assertEquals(tasks.size(), 1);
+        verify(outbound, never()).sendMessage(TEXT_FRAME, "one");
+
+        tasks.get(0).run();
+        assertTrue(webSocketSupport.isReady());
+        verify(outbound).sendMessage(TEXT_FRAME, "one");
+    }
+
+    @Test
+    public void dropTheOldestWhenTooManyMessagesAreQueued() throws IOException {
+        JettyWebSocketSupport webSocketSupport = new JettyWebSocketSupport(outbound);
+        for (int i = 0; i < 100; i++) {
+            webSocketSupport.write(TEXT_FRAME, String.valueOf(i));
+        }
+
+        assertFalse(webSocketSupport.isReady());
+        assertEquals(webSocketSupport.getDroppedCount(), 68);
+        verify(outbound, never()).sendMessage(anyByte(), anyString());
+
+        webSocketSupport.ready();
+        InOrder order = inOrder(outbound);
+        for (int i = 68; i < 100; i++) {
+            order.verify(outbound).sendMessage(TEXT_FRAME, String.valueOf(i));
+        }
+        verify(outbound, never()).sendMessage(TEXT_FRAME, "67");
+    }
+}
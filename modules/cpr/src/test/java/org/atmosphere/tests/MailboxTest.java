@@ -0,0 +1,335 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.AtmosphereResourceEvent;
+import org.atmosphere.cpr.AtmosphereResourceEventListener;
+import org.atmosphere.cpr.AtmosphereResourceImpl;
+import org.atmosphere.cpr.AtmosphereServlet;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.CometSupport;
+import org.atmosphere.cpr.Conflatable;
+import org.atmosphere.cpr.HashedWheelTimer;
+import org.atmosphere.cpr.Mailbox;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class MailboxTest {
+
+    private ExecutorService executor;
+    private final List<Object> written = new CopyOnWriteArrayList<Object>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger violations = new AtomicInteger();
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        written.clear();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void preserveOrderingWithSingleWriter() throws Exception {
+        Mailbox mailbox = new Mailbox(null);
+        final CountDownLatch latch = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(mailbox.offer(new Write(i, latch, null), executor));
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(violations.get(), 0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(written.get(i), i);
+        }
+    }
+
+    @Test
+    public void dropWhenSlow() throws Exception {
+        Mailbox mailbox = new Mailbox(null).setMaxPending(2).setPolicy(Mailbox.POLICY.DROP);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(3);
+
+        mailbox.offer(new Write("blocked", latch, gate), executor);
+        waitUntilEmpty(mailbox);
+        assertTrue(mailbox.offer(new Write("a", latch, null), executor));
+        assertTrue(mailbox.offer(new Write("b", latch, null), executor));
+        assertFalse(mailbox.offer(new Write("c", latch, null), executor));
+        gate.countDown();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(written.toString(), "[blocked, a, b]");
+    }
+
+    @Test
+    public void conflateWhenSlow() throws Exception {
+        Mailbox mailbox = new Mailbox(null).setMaxPending(2).setPolicy(Mailbox.POLICY.CONFLATE);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(2);
+
+        mailbox.offer(new Write("blocked", latch, gate), executor);
+        waitUntilEmpty(mailbox);
+        mailbox.offer(new Write("a", latch, null), executor);
+        mailbox.offer(new Write("b", latch, null), executor);
+        assertTrue(mailbox.offer(new Write("c", latch, null), executor));
+        assertEquals(mailbox.size(), 1);
+        gate.countDown();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(written.toString(), "[blocked, c]");
+    }
+
+    @Test
+    public void conflateByKey() throws Exception {
+        Mailbox mailbox = new Mailbox(null).setConflation(true);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(4);
+
+        mailbox.offer(new Write("blocked", latch, gate), executor);
+        waitUntilEmpty(mailbox);
+        mailbox.offer(new Write(new Quote("EUR", 1), latch, null), executor);
+        mailbox.offer(new Write(new Quote("USD", 1), latch, null), executor);
+        mailbox.offer(new Write(new Quote("EUR", 2), latch, null), executor);
+        mailbox.offer(new Write("unkeyed", latch, null), executor);
+        assertTrue(mailbox.offer(new Write(new Quote("EUR", 3), latch, null), executor));
+        assertEquals(mailbox.size(), 3);
+        gate.countDown();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(written.toString(), "[blocked, EUR=3, USD=1, unkeyed]");
+    }
+
+    @Test
+    public void disconnectWhenSlow() throws Exception {
+        final CountDownLatch throwable = new CountDownLatch(1);
+        CometSupport cometSupport = mock(CometSupport.class);
+        AtmosphereResourceImpl r = newResource(cometSupport);
+        r.addEventListener(new Listener() {
+            public void onThrowable(AtmosphereResourceEvent<HttpServletRequest, HttpServletResponse> event) {
+                throwable.countDown();
+            }
+        });
+        r.action().type = AtmosphereServlet.Action.TYPE.SUSPEND;
+
+        Mailbox mailbox = r.getMailbox().setMaxPending(1).setPolicy(Mailbox.POLICY.DISCONNECT);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        mailbox.offer(new Write("blocked", latch, gate), executor);
+        waitUntilEmpty(mailbox);
+        assertTrue(mailbox.offer(new Write("a", latch, null), executor));
+        assertFalse(mailbox.offer(new Write("b", latch, null), executor));
+
+        assertTrue(throwable.await(10, TimeUnit.SECONDS));
+        assertTrue(mailbox.isClosed());
+        assertEquals(mailbox.size(), 0);
+        assertFalse(mailbox.offer(new Write("c", latch, null), executor));
+        gate.countDown();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        waitUntilResumed(r);
+        verify(cometSupport).action(r);
+        assertEquals(written.toString(), "[blocked]");
+    }
+
+    @Test
+    public void writeTimeout() throws Exception {
+        Mailbox mailbox = new Mailbox(null).setWriteTimeout(100).setPolicy(Mailbox.POLICY.DROP);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(2);
+
+        mailbox.offer(new Write("blocked", latch, gate), executor);
+        waitUntilEmpty(mailbox);
+        assertTrue(mailbox.offer(new Write("a", latch, null), executor));
+        assertFalse(mailbox.isSlow());
+
+        Thread.sleep(200);
+        assertTrue(mailbox.isSlow());
+        assertFalse(mailbox.offer(new Write("b", latch, null), executor));
+        gate.countDown();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertFalse(mailbox.isSlow());
+        assertEquals(written.toString(), "[blocked, a]");
+    }
+
+    @Test
+    public void writeTimeoutDisconnectsWithoutNewMessages() throws Exception {
+        HashedWheelTimer.retainDefault();
+        try {
+            final CountDownLatch throwable = new CountDownLatch(1);
+            CometSupport cometSupport = mock(CometSupport.class);
+            AtmosphereResourceImpl r = newResource(cometSupport);
+            r.addEventListener(new Listener() {
+                public void onThrowable(AtmosphereResourceEvent<HttpServletRequest, HttpServletResponse> event) {
+                    throwable.countDown();
+                }
+            });
+            r.action().type = AtmosphereServlet.Action.TYPE.SUSPEND;
+
+            Mailbox mailbox = r.getMailbox().setWriteTimeout(100).setPolicy(Mailbox.POLICY.DISCONNECT);
+            CountDownLatch gate = new CountDownLatch(1);
+            CountDownLatch latch = new CountDownLatch(1);
+
+            // Nothing is offered once the write is stuck, the timer detects it.
+            mailbox.offer(new Write("blocked", latch, gate), executor);
+
+            assertTrue(throwable.await(10, TimeUnit.SECONDS));
+            assertTrue(mailbox.isClosed());
+            gate.countDown();
+
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            waitUntilResumed(r);
+            verify(cometSupport).action(r);
+        } finally {
+            HashedWheelTimer.releaseDefault();
+        }
+    }
+
+    @Test
+    public void resumeWritesQueuedMessages() throws Exception {
+        CometSupport cometSupport = mock(CometSupport.class);
+        AtmosphereResourceImpl r = newResource(cometSupport);
+        r.action().type = AtmosphereServlet.Action.TYPE.SUSPEND;
+        Mailbox mailbox = r.getMailbox();
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(2);
+
+        mailbox.offer(new Write("blocked", latch, gate), executor);
+        mailbox.offer(new Write("a", latch, null), executor);
+        r.resume();
+        assertTrue(mailbox.isClosed());
+        assertFalse(mailbox.offer(new Write("b", latch, null), executor));
+        gate.countDown();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(written.toString(), "[blocked, a]");
+    }
+
+    @Test
+    public void closeDiscardsQueuedMessages() throws Exception {
+        Mailbox mailbox = new Mailbox(null);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        mailbox.offer(new Write("blocked", latch, gate), executor);
+        waitUntilEmpty(mailbox);
+        mailbox.offer(new Write("a", latch, null), executor);
+        mailbox.close();
+        assertEquals(mailbox.size(), 0);
+        gate.countDown();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(written.toString(), "[blocked]");
+    }
+
+    private AtmosphereResourceImpl newResource(CometSupport cometSupport) {
+        AtmosphereServlet servlet = new AtmosphereServlet() {
+            @Override
+            public String getInitParameter(String name) {
+                return null;
+            }
+        };
+        return new AtmosphereResourceImpl(servlet.getAtmosphereConfig(), mock(Broadcaster.class),
+                mock(HttpServletRequest.class), mock(HttpServletResponse.class), cometSupport);
+    }
+
+    private void waitUntilResumed(AtmosphereResourceImpl r) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (r.action().type != AtmosphereServlet.Action.TYPE.RESUME && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void waitUntilEmpty(Mailbox mailbox) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mailbox.size() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private final class Write extends Mailbox.Delivery {
+
+        private final CountDownLatch latch;
+        private final CountDownLatch gate;
+
+        Write(Object message, CountDownLatch latch, CountDownLatch gate) {
+            super(message, null);
+            this.latch = latch;
+            this.gate = gate;
+        }
+
+        public void run() {
+            if (running.incrementAndGet() != 1) {
+                violations.incrementAndGet();
+            }
+            try {
+                if (gate != null) {
+                    gate.await(10, TimeUnit.SECONDS);
+                }
+                written.add(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+                latch.countDown();
+            }
+        }
+    }
+
+    private static class Listener implements AtmosphereResourceEventListener {
+
+        public void onSuspend(AtmosphereResourceEvent<HttpServletRequest, HttpServletResponse> event) {
+        }
+
+        public void onResume(AtmosphereResourceEvent<HttpServletRequest, HttpServletResponse> event) {
+        }
+
+        public void onDisconnect(AtmosphereResourceEvent<HttpServletRequest, HttpServletResponse> event) {
+        }
+
+        public void onBroadcast(AtmosphereResourceEvent<HttpServletRequest, HttpServletResponse> event) {
+        }
+
+        public void onThrowable(AtmosphereResourceEvent<HttpServletRequest, HttpServletResponse> event) {
+        }
+    }
+
+    private static final class Quote implements Conflatable {
+
+        private final String symbol;
+        private final int price;
+
+        Quote(String symbol, int price) {
+            this.symbol = symbol;
+            this.price = price;
+        }
+
+        public Object getKey() {
+            return symbol;
+        }
+
+        public String toString() {
+            return symbol + "=" + price;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cache.MappedBroadcasterCache;
+import org.atmosphere.cache.RingBufferBroadcasterCache;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.HashedWheelTimer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class MappedBroadcasterCacheTest {
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() {
+        HashedWheelTimer.retainDefault();
+        directory = new File(System.getProperty("java.io.tmpdir"), "atmosphere-cache-" + System.nanoTime());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        delete(directory);
+        HashedWheelTimer.releaseDefault();
+    }
+
+    private MappedBroadcasterCache newCache() {
+        MappedBroadcasterCache cache = new MappedBroadcasterCache()
+                .setID("/chat/room")
+                .setDirectory(directory)
+                .setSegmentSize(256);
+        cache.start();
+        return cache;
+    }
+
+    @Test
+    public void appendAndRetrieve() {
+        MappedBroadcasterCache cache = newCache();
+        try {
+            for (int i = 0; i < 100; i++) {
+                cache.addToCache(null, "message-" + i);
+            }
+            cache.addToCache(null, new byte[]{1, 2, 3});
+
+            List<Object> l = new ArrayList<Object>();
+            assertEquals(cache.retrieve(98, l), 100);
+            assertEquals(l.get(0), "message-98");
+            assertEquals(l.get(1), "message-99");
+            assertEquals(((byte[]) l.get(2)).length, 3);
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void onlyStringsAndBytesAreCached() {
+        MappedBroadcasterCache cache = newCache();
+        try {
+            cache.addToCache(null, new StringBuilder("built"));
+            cache.addToCache(null, 42);
+            cache.addToCache(null, "string");
+
+            List<Object> l = new ArrayList<Object>();
+            assertEquals(cache.retrieve(0, l), 1);
+            assertEquals(l.toString(), "[built, string]");
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void recoverAfterRestart() {
+        MappedBroadcasterCache cache = newCache();
+        for (int i = 0; i < 50; i++) {
+            cache.addToCache(null, "\u00e9t\u00e9-" + i);
+        }
+        cache.stop();
+
+        cache = newCache();
+        try {
+            assertEquals(cache.getSequence(), 50);
+            cache.addToCache(null, "after");
+
+            List<Object> l = new ArrayList<Object>();
+            assertEquals(cache.retrieve(0, l), 50);
+            assertEquals(l.size(), 51);
+            assertEquals(l.get(49), "\u00e9t\u00e9-49");
+            assertEquals(l.get(50), "after");
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void removeOldSegmentsBySize() {
+        MappedBroadcasterCache cache = newCache();
+        cache.setMaxBytes(1024);
+        try {
+            for (int i = 0; i < 500; i++) {
+                cache.addToCache(null, "message-" + i);
+            }
+
+            File[] segments = directory.listFiles()[0].listFiles();
+            assertTrue(segments.length * 256 <= 1024 + 256);
+
+            List<Object> l = new ArrayList<Object>();
+            assertEquals(cache.retrieve(0, l), 499);
+            assertTrue(l.size() < 500);
+            assertEquals(l.get(l.size() - 1), "message-499");
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void resumeByTime() throws Exception {
+        MappedBroadcasterCache cache = newCache();
+        try {
+            cache.addToCache(null, "a");
+            Thread.sleep(20);
+            long time = System.currentTimeMillis();
+            Thread.sleep(20);
+            cache.addToCache(null, "b");
+            cache.addToCache(null, "c");
+
+            assertEquals(cache.firstCachedAfter(time), 1);
+            assertEquals(cache.firstCachedAfter(System.currentTimeMillis()), 3);
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void cachedOncePerBroadcast() {
+        MappedBroadcasterCache cache = newCache();
+        try {
+            String message = "message";
+            cache.addToCache(resource(null), message, 1);
+            cache.addToCache(resource(null), message, 1);
+            assertEquals(cache.getSequence(), 1);
+
+            // The same instance broadcasted again is a new message.
+            cache.addToCache(null, message, 2);
+            cache.addToCache(null, "transformed", 2);
+            cache.addToCache(null, message);
+            assertEquals(cache.getSequence(), 4);
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void malformedSequenceResync() {
+        MappedBroadcasterCache cache = newCache();
+        try {
+            cache.addToCache(null, "m0");
+            cache.addToCache(null, "m1");
+
+            AtmosphereResource<HttpServletRequest, HttpServletResponse> r = resource("not-a-number");
+            assertEquals(cache.retrieveFromCache(r).toString(), "[m0, m1]");
+            verify(r.getResponse()).setHeader(RingBufferBroadcasterCache.HEADER_CACHE_RESYNC, "true");
+            verify(r.getResponse()).setHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE, "1");
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void configuredByTheBroadcaster() {
+        Broadcaster broadcaster = mock(Broadcaster.class);
+        when(broadcaster.getID()).thenReturn("/stocks");
+        MappedBroadcasterCache cache = new MappedBroadcasterCache().setDirectory(directory);
+        cache.configure(broadcaster, null);
+        cache.start();
+        try {
+            cache.addToCache(null, "message");
+            File[] logs = directory.listFiles();
+            assertEquals(logs.length, 1);
+            assertTrue(logs[0].getName().startsWith("_stocks-"));
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void deleteUnusedLogs() throws IOException {
+        long old = System.currentTimeMillis() - 60000;
+        File orphan = log("orphan", "00000000000000000000.log", old);
+        File recent = log("recent", "00000000000000000000.log", System.currentTimeMillis());
+        File foreign = log("foreign", "notes.txt", old);
+
+        MappedBroadcasterCache running = newCache();
+        MappedBroadcasterCache cache = new MappedBroadcasterCache().setID("/other").setDirectory(directory);
+        cache.setMaxCachedinMs(10000);
+        try {
+            running.addToCache(null, "message");
+            // Idle, but in use.
+            for (File log : directory.listFiles()) {
+                if (log.getName().startsWith("_chat_room-")) {
+                    for (File f : log.listFiles()) {
+                        assertTrue(f.setLastModified(old));
+                    }
+                }
+            }
+            cache.start();
+
+            assertFalse(orphan.exists());
+            assertTrue(recent.exists());
+            assertTrue(foreign.exists());
+            assertEquals(running.retrieve(0, new ArrayList<Object>()), 0);
+        } finally {
+            cache.stop();
+            running.stop();
+        }
+    }
+
+    private File log(String name, String file, long lastModified) throws IOException {
+        File log = new File(directory, name);
+        assertTrue(log.mkdirs());
+        File f = new File(log, file);
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(0);
+        out.close();
+        assertTrue(f.setLastModified(lastModified));
+        return log;
+    }
+
+    private AtmosphereResource<HttpServletRequest, HttpServletResponse> resource(String sequence) {
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> r = mock(AtmosphereResource.class);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(request.getHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE)).thenReturn(sequence);
+        when(r.getRequest()).thenReturn(request);
+        when(r.getResponse()).thenReturn(response);
+        return r;
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,108 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.HashedWheelTimer;
+import org.atmosphere.metrics.NodeStats;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class NodeStatsTest {
+
+    @Test
+    public void suspendedByTransport() {
+        NodeStats stats = new NodeStats();
+        stats.resourceSuspended("Jetty", "websocket");
+        stats.resourceSuspended("Jetty", "long-polling");
+        stats.resourceSuspended("Jetty", "websocket");
+        stats.resourceResumed("Jetty", "long-polling");
+
+        assertEquals(stats.getSuspended(), 2);
+        Map<String, Integer> byTransport = stats.getSuspendedByTransport();
+        assertEquals(byTransport.get("websocket"), Integer.valueOf(2));
+        assertFalse(byTransport.containsKey("long-polling"));
+        assertEquals(stats.getSuspendedByContainer().get("Jetty"), Integer.valueOf(2));
+    }
+
+    @Test
+    public void broadcastersByType() {
+        NodeStats stats = new NodeStats();
+        Broadcaster b = mock(Broadcaster.class);
+        stats.broadcasterAdded(b);
+        stats.broadcasterAdded(b);
+        stats.broadcasterRemoved(b);
+        assertEquals(stats.getBroadcastersByType().get(b.getClass().getName()), Integer.valueOf(1));
+    }
+
+    @Test
+    public void json() {
+        NodeStats stats = new NodeStats();
+        stats.resourceSuspended("Grizzly \"2\"", "streaming");
+        stats.messagePublished();
+        stats.messageDelivered();
+        stats.messageDelivered();
+
+        String json = stats.toJSON(null);
+        assertTrue(json.startsWith("{") && json.endsWith("}"), json);
+        assertTrue(json.contains("\"suspended\":{\"total\":1,\"byTransport\":{\"streaming\":1}"), json);
+        assertTrue(json.contains("\"Grizzly \\\"2\\\"\":1"), json);
+        assertTrue(json.contains("\"published\":1,\"delivered\":2"), json);
+        assertTrue(json.contains("\"queueDepth\":0"), json);
+        assertTrue(json.contains("\"ringBufferCache\":{\"bytes\":"), json);
+    }
+
+    @Test
+    public void readingTheRateDoesNotResetTheWindow() throws Exception {
+        NodeStats stats = new NodeStats();
+        for (int i = 0; i < 10; i++) {
+            stats.messageDelivered();
+        }
+        Thread.sleep(20);
+        stats.sample();
+        double rate = stats.messagesPerSecond();
+        assertTrue(rate > 0, String.valueOf(rate));
+
+        // Concurrent scrapes all get the rate of the last window until the next sample.
+        assertEquals(stats.messagesPerSecond(), rate);
+        assertEquals(stats.messagesPerSecond(), rate);
+
+        Thread.sleep(20);
+        stats.sample();
+        assertEquals(stats.messagesPerSecond(), 0.0);
+    }
+
+    @Test
+    public void samplingStopsOnceReleasedByAllUsers() {
+        HashedWheelTimer timer = new HashedWheelTimer("NodeStatsTest", 10, TimeUnit.MILLISECONDS, 8);
+        try {
+            NodeStats stats = new NodeStats();
+            stats.startSampling(timer);
+            stats.startSampling(timer);
+            assertEquals(timer.getScheduledTasks(), 1);
+
+            stats.stopSampling();
+            assertEquals(timer.getScheduledTasks(), 1);
+            stats.stopSampling();
+            assertEquals(timer.getScheduledTasks(), 0);
+        } finally {
+            timer.shutdown();
+        }
+    }
+
+    @Test
+    public void stoppedTimerIsIgnored() {
+        HashedWheelTimer timer = new HashedWheelTimer("NodeStatsTest", 10, TimeUnit.MILLISECONDS, 8);
+        timer.shutdown();
+        NodeStats stats = new NodeStats();
+        stats.startSampling(timer);
+        stats.messageDelivered();
+        assertTrue(stats.messagesPerSecond() >= 0);
+        stats.stopSampling();
+    }
+}
@@ -0,0 +1,193 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResourceEventImpl;
+import org.atmosphere.cpr.AtmosphereResourceImpl;
+import org.atmosphere.cpr.PayloadCache;
+import org.atmosphere.cpr.Serializer;
+import org.atmosphere.handler.AbstractReflectorAtmosphereHandler;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class PayloadCacheTest {
+
+    private static final String MESSAGE = "\u00e9t\u00e9 message";
+
+    private PayloadCache.Stats stats;
+    private AbstractReflectorAtmosphereHandler handler;
+
+    @BeforeMethod
+    public void setUp() {
+        stats = new PayloadCache.Stats();
+        handler = new AbstractReflectorAtmosphereHandler() {
+            public void onRequest(AtmosphereResource<HttpServletRequest, HttpServletResponse> r) {
+            }
+
+            public void destroy() {
+            }
+        };
+    }
+
+    @Test
+    public void hitAndMissAccounting() throws IOException {
+        PayloadCache cache = new PayloadCache(MESSAGE, stats);
+
+        String s = cache.asString();
+        assertEquals(s, MESSAGE);
+        assertSame(cache.asString(), s);
+        assertEquals(stats.getMisses(), 1);
+        assertEquals(stats.getHits(), 1);
+
+        byte[] utf8 = cache.getBytes("UTF-8");
+        assertSame(cache.getBytes("UTF-8"), utf8);
+        assertEquals(utf8, MESSAGE.getBytes("UTF-8"));
+        assertEquals(cache.getBytes("ISO-8859-1"), MESSAGE.getBytes("ISO-8859-1"));
+        assertEquals(stats.getMisses(), 3);
+        assertEquals(stats.getHits(), 2);
+
+        Object key = new Object();
+        assertNull(cache.get(key));
+        byte[] encoded = cache.put(key, new byte[]{1, 2});
+        assertSame(cache.put(key, new byte[]{3}), encoded);
+        assertSame(cache.get(key), encoded);
+        assertEquals(stats.getMisses(), 4);
+        assertEquals(stats.getHits(), 3);
+    }
+
+    @Test
+    public void isForIsIdentity() {
+        String message = new String("message");
+        PayloadCache cache = new PayloadCache(message);
+
+        assertTrue(cache.isFor(message));
+        assertFalse(cache.isFor(new String("message")));
+        assertFalse(cache.isFor(null));
+        assertSame(cache.message(), message);
+    }
+
+    @Test
+    public void transformedMessageIsNotCached() {
+        Event event = new Event(new Resource(false, null));
+        event.setMessage(MESSAGE);
+        event.setPayloadCache(new PayloadCache(MESSAGE, stats));
+        assertSame(PayloadCache.of(event), event.getPayloadCache());
+
+        // e.g. a PerRequestBroadcastFilter returned another message for that resource.
+        event.setMessage(new String(MESSAGE));
+        assertNull(PayloadCache.of(event));
+    }
+
+    @Test
+    public void writerBytesMatchUncachedPath() throws IOException {
+        assertSameBytes(false, null);
+    }
+
+    @Test
+    public void streamBytesMatchUncachedPath() throws IOException {
+        assertSameBytes(true, null);
+    }
+
+    @Test
+    public void serializerBytesMatchUncachedPath() throws IOException {
+        assertSameBytes(true, new Serializer() {
+            public void write(OutputStream os, Object o) throws IOException {
+                os.write(("<" + o + ">").getBytes("UTF-8"));
+            }
+        });
+    }
+
+    private void assertSameBytes(boolean stream, Serializer serializer) throws IOException {
+        Resource uncached = new Resource(stream, serializer);
+        write(uncached, null);
+
+        PayloadCache cache = new PayloadCache(MESSAGE, stats);
+        Resource first = new Resource(stream, serializer);
+        write(first, cache);
+        Resource second = new Resource(stream, serializer);
+        write(second, cache);
+
+        assertTrue(uncached.written().length > 0);
+        assertEquals(first.written(), uncached.written());
+        assertEquals(second.written(), uncached.written());
+        assertEquals(stats.getMisses(), 1);
+        assertEquals(stats.getHits(), 1);
+    }
+
+    private void write(Resource r, PayloadCache cache) throws IOException {
+        Event event = new Event(r);
+        event.setMessage(MESSAGE);
+        event.setPayloadCache(cache);
+        handler.onStateChange(event);
+    }
+
+    private final static class Event extends AtmosphereResourceEventImpl {
+
+        private final Resource r;
+
+        Event(Resource r) {
+            super((AtmosphereResourceImpl) null);
+            this.r = r;
+        }
+
+        @Override
+        public AtmosphereResource<HttpServletRequest, HttpServletResponse> getResource() {
+            return r.resource;
+        }
+    }
+
+    /**
+     * A mocked {@link AtmosphereResource} recording what is written to its response.
+     */
+    private final static class Resource {
+
+        final AtmosphereResource<HttpServletRequest, HttpServletResponse> resource = mock(AtmosphereResource.class);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final StringWriter chars = new StringWriter();
+        final boolean stream;
+
+        Resource(boolean stream, Serializer serializer) {
+            this.stream = stream;
+            HttpServletRequest request = mock(HttpServletRequest.class);
+            HttpServletResponse response = mock(HttpServletResponse.class);
+            try {
+                when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+                    @Override
+                    public void write(int b) {
+                        bytes.write(b);
+                    }
+                });
+                if (stream) {
+                    when(response.getWriter()).thenThrow(new IllegalStateException());
+                } else {
+                    when(response.getWriter()).thenReturn(new PrintWriter(chars));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            when(resource.getRequest()).thenReturn(request);
+            when(resource.getResponse()).thenReturn(response);
+            when(resource.getSerializer()).thenReturn(serializer);
+        }
+
+        byte[] written() throws IOException {
+            return stream ? bytes.toByteArray() : chars.toString().getBytes("UTF-8");
+        }
+    }
+}
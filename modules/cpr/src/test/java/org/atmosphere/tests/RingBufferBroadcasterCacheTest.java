@@ -0,0 +1,243 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cache.HeaderBroadcasterCache;
+import org.atmosphere.cache.RingBufferBroadcasterCache;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class RingBufferBroadcasterCacheTest {
+
+    @AfterMethod
+    public void tearDown() {
+        RingBufferBroadcasterCache.setMaxGlobalBytes(-1);
+    }
+
+    @Test
+    public void resumeFromSequence() {
+        RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(8);
+        for (int i = 0; i < 5; i++) {
+            cache.addToCache(null, "m" + i);
+        }
+        assertEquals(cache.getSequence(), 5);
+
+        List<Object> l = new ArrayList<Object>();
+        assertEquals(cache.retrieve(2, l), 4);
+        assertEquals(l.toString(), "[m2, m3, m4]");
+
+        l.clear();
+        assertEquals(cache.retrieve(5, l), -1);
+        assertTrue(l.isEmpty());
+    }
+
+    @Test
+    public void oldestMessagesAreOverwritten() {
+        RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(4);
+        for (int i = 0; i < 10; i++) {
+            cache.addToCache(null, "m" + i);
+        }
+
+        // The client fell off the cache, it gets what is left.
+        List<Object> l = new ArrayList<Object>();
+        assertEquals(cache.retrieve(1, l), 9);
+        assertEquals(l.toString(), "[m6, m7, m8, m9]");
+    }
+
+    @Test
+    public void sameMillisecondMessagesAreDistinct() {
+        RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(1024);
+        long before = System.currentTimeMillis() - 1;
+        for (int i = 0; i < 1000; i++) {
+            cache.addToCache(null, "m" + i);
+        }
+
+        assertEquals(cache.firstCachedAfter(before), 0);
+        assertEquals(cache.firstCachedAfter(System.currentTimeMillis()), 1000);
+
+        List<Object> l = new ArrayList<Object>();
+        cache.retrieve(998, l);
+        assertEquals(l.toString(), "[m998, m999]");
+    }
+
+    @Test
+    public void expiredMessagesAreSkipped() throws Exception {
+        RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(8);
+        cache.setMaxCachedinMs(50);
+        cache.addToCache(null, "old");
+        Thread.sleep(100);
+        cache.addToCache(null, "new");
+
+        List<Object> l = new ArrayList<Object>();
+        cache.retrieve(0, l);
+        assertEquals(l.toString(), "[new]");
+    }
+
+    @Test
+    public void evictWhenOverBudget() {
+        RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(1024);
+        // 10 bytes per message, plus the overhead of the entry.
+        long entry = 10 + 32;
+        cache.setMaxBytes(entry * 3);
+        for (int i = 0; i < 10; i++) {
+            cache.addToCache(null, "message-0" + i);
+        }
+
+        assertEquals(cache.getBytes(), entry * 3);
+        assertEquals(cache.getEvicted(), 7);
+        assertTrue(cache.isEvicted(3));
+        assertFalse(cache.isEvicted(6));
+
+        List<Object> l = new ArrayList<Object>();
+        cache.retrieve(0, l);
+        assertEquals(l.toString(), "[message-07, message-08, message-09]");
+
+        cache.stop();
+        assertEquals(cache.getBytes(), 0);
+    }
+
+    @Test
+    public void sharedGlobalBudget() {
+        RingBufferBroadcasterCache a = new RingBufferBroadcasterCache(1024);
+        RingBufferBroadcasterCache b = new RingBufferBroadcasterCache(1024);
+        long base = RingBufferBroadcasterCache.getGlobalBytes();
+        RingBufferBroadcasterCache.setMaxGlobalBytes(base + 42 * 4);
+        try {
+            for (int i = 0; i < 2; i++) {
+                a.addToCache(null, "message-a" + i);
+                b.addToCache(null, "message-b" + i);
+            }
+            assertEquals(a.getEvicted() + b.getEvicted(), 0);
+
+            // b pays for its own message.
+            b.addToCache(null, "message-b2");
+            assertEquals(a.getEvicted(), 0);
+            assertEquals(b.getEvicted(), 1);
+            assertTrue(RingBufferBroadcasterCache.getGlobalBytes() <= base + 42 * 4);
+        } finally {
+            a.stop();
+            b.stop();
+        }
+        assertEquals(RingBufferBroadcasterCache.getGlobalBytes(), base);
+    }
+
+    @Test
+    public void multibyteSize() {
+        RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(8);
+        cache.addToCache(null, "\u00e9t\u00e9 \u20ac");
+        assertEquals(cache.getBytes(), 2 + 1 + 2 + 1 + 3 + 32);
+        cache.stop();
+    }
+
+    @Test
+    public void cachedOncePerBroadcast() {
+        RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(8);
+        String message = "message";
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> r1 = resource(null, null);
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> r2 = resource(null, null);
+
+        cache.addToCache(r1, message, 1);
+        cache.addToCache(r2, message, 1);
+        assertEquals(cache.getSequence(), 1);
+        verify(r2.getResponse()).setHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE, "0");
+
+        // The same instance broadcasted again is a new message.
+        cache.addToCache(r1, message, 2);
+        assertEquals(cache.getSequence(), 2);
+
+        // Transformed by a PerRequestBroadcastFilter for a resource.
+        cache.addToCache(r2, "transformed", 2);
+        assertEquals(cache.getSequence(), 3);
+
+        List<Object> l = new ArrayList<Object>();
+        cache.retrieve(0, l);
+        assertEquals(l.toString(), "[message, message, transformed]");
+        cache.stop();
+    }
+
+    @Test
+    public void concurrentAdditionsOfABroadcast() throws Exception {
+        final RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(1024);
+        final String message = "message";
+        final CyclicBarrier barrier = new CyclicBarrier(8);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        // Like the fan out, every Thread adds the message of a broadcast for its own resources.
+                        for (long broadcast = 1; broadcast <= 100; broadcast++) {
+                            barrier.await(10, TimeUnit.SECONDS);
+                            cache.addToCache(null, message, broadcast);
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(failures.get(), 0);
+        assertEquals(cache.getSequence(), 100);
+        cache.stop();
+    }
+
+    @Test
+    public void malformedSequenceResync() {
+        RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(8);
+        cache.addToCache(null, "m0");
+        cache.addToCache(null, "m1");
+
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> r = resource("not-a-number", null);
+        assertEquals(cache.retrieveFromCache(r).toString(), "[m0, m1]");
+        verify(r.getResponse()).setHeader(RingBufferBroadcasterCache.HEADER_CACHE_RESYNC, "true");
+        verify(r.getResponse()).setHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE, "1");
+        cache.stop();
+    }
+
+    @Test
+    public void malformedDateResync() {
+        RingBufferBroadcasterCache cache = new RingBufferBroadcasterCache(8);
+        cache.addToCache(null, "m0");
+
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> r = resource(null, "yesterday");
+        assertEquals(cache.retrieveFromCache(r).toString(), "[m0]");
+        verify(r.getResponse()).setHeader(RingBufferBroadcasterCache.HEADER_CACHE_RESYNC, "true");
+
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> valid = resource("0", null);
+        assertEquals(cache.retrieveFromCache(valid).size(), 0);
+        verify(valid.getResponse(), never()).setHeader(RingBufferBroadcasterCache.HEADER_CACHE_RESYNC, "true");
+        cache.stop();
+    }
+
+    private AtmosphereResource<HttpServletRequest, HttpServletResponse> resource(String sequence, String date) {
+        AtmosphereResource<HttpServletRequest, HttpServletResponse> r = mock(AtmosphereResource.class);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(request.getHeader(RingBufferBroadcasterCache.HEADER_CACHE_SEQUENCE)).thenReturn(sequence);
+        when(request.getHeader(HeaderBroadcasterCache.HEADER_CACHE)).thenReturn(date);
+        when(r.getRequest()).thenReturn(request);
+        when(r.getResponse()).thenReturn(response);
+        return r;
+    }
+}
@@ -0,0 +1,129 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.RingBuffer;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class RingBufferTest {
+
+    private static RingBuffer<long[]> newRing(int size) {
+        long[][] slots = new long[size][];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new long[2];
+        }
+        return new RingBuffer<long[]>(slots);
+    }
+
+    @Test
+    public void claimPublishRelease() {
+        RingBuffer<long[]> ring = newRing(4);
+        assertTrue(ring.isEmpty());
+
+        for (int i = 0; i < 4; i++) {
+            long seq = ring.tryNext();
+            assertEquals(seq, i);
+            ring.get(seq)[0] = i;
+            ring.publish(seq);
+        }
+        assertEquals(ring.tryNext(), -1);
+        assertEquals(ring.size(), 4);
+
+        long from = ring.nextToConsume();
+        long to = ring.available(from, 2);
+        assertEquals(to, 1);
+        ring.release(to);
+
+        assertEquals(ring.tryNext(), 4);
+        assertEquals(ring.available(ring.nextToConsume(), 10), 3);
+    }
+
+    @Test
+    public void unpublishedSlotStopTheBatch() {
+        RingBuffer<long[]> ring = newRing(8);
+        long first = ring.tryNext();
+        long second = ring.tryNext();
+        ring.publish(second);
+
+        assertEquals(ring.available(ring.nextToConsume(), 8), -1);
+        ring.publish(first);
+        assertEquals(ring.available(ring.nextToConsume(), 8), 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void sizeMustBeAPowerOfTwo() {
+        newRing(3);
+    }
+
+    @Test
+    public void capacityFor() {
+        assertEquals(RingBuffer.capacityFor(1), 1);
+        assertEquals(RingBuffer.capacityFor(1000), 1024);
+        assertEquals(RingBuffer.capacityFor(1024), 1024);
+    }
+
+    @Test
+    public void multipleProducersPreserveOrdering() throws Exception {
+        final RingBuffer<long[]> ring = newRing(64);
+        final int producers = 4;
+        final int messages = 20000;
+        final CountDownLatch started = new CountDownLatch(producers);
+        final AtomicInteger failures = new AtomicInteger();
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        for (int i = 0; i < messages; i++) {
+                            long seq = ring.next(10, TimeUnit.SECONDS);
+                            if (seq == -1) {
+                                failures.incrementAndGet();
+                                return;
+                            }
+                            long[] slot = ring.get(seq);
+                            slot[0] = producer;
+                            slot[1] = i;
+                            ring.publish(seq);
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        long[] last = new long[producers];
+        for (int p = 0; p < producers; p++) {
+            last[p] = -1;
+        }
+
+        int received = 0;
+        while (received < producers * messages) {
+            long from = ring.nextToConsume();
+            long to = ring.available(from, 16);
+            if (to < from) {
+                assertTrue(ring.waitFor(from, 10, TimeUnit.SECONDS));
+                continue;
+            }
+            for (long s = from; s <= to; s++) {
+                long[] slot = ring.get(s);
+                int producer = (int) slot[0];
+                assertEquals(slot[1], last[producer] + 1);
+                last[producer] = slot[1];
+                received++;
+            }
+            ring.release(to);
+        }
+
+        assertEquals(failures.get(), 0);
+        assertTrue(ring.isEmpty());
+    }
+}
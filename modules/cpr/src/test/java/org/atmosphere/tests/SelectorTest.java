@@ -0,0 +1,89 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.Selector;
+import org.atmosphere.cpr.TagIndex;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class SelectorTest {
+
+    private TagIndex index;
+    private AtmosphereResource<?, ?> alice;
+    private AtmosphereResource<?, ?> bob;
+    private AtmosphereResource<?, ?> carol;
+
+    @BeforeMethod
+    public void setUp() {
+        index = new TagIndex();
+        alice = resource("room", "lobby", "locale", "fr");
+        bob = resource("room", "lobby", "locale", "en");
+        carol = resource("room", "kitchen", "locale", "fr");
+        index.add(alice);
+        index.add(bob);
+        index.add(carol);
+    }
+
+    @Test
+    public void selectByTag() {
+        Collection<AtmosphereResource<?, ?>> lobby = Selector.tag("room", "lobby").select(index);
+        assertEquals(lobby.size(), 2);
+        assertTrue(lobby.contains(alice));
+        assertTrue(lobby.contains(bob));
+        assertTrue(Selector.tag("room", "garden").select(index).isEmpty());
+    }
+
+    @Test
+    public void andOr() {
+        Collection<AtmosphereResource<?, ?>> c = Selector.tag("room", "lobby").and(Selector.tag("locale", "fr")).select(index);
+        assertEquals(c.size(), 1);
+        assertTrue(c.contains(alice));
+
+        c = Selector.tag("room", "kitchen").or(Selector.tag("locale", "en")).select(index);
+        assertEquals(c.size(), 2);
+        assertTrue(c.contains(bob));
+        assertTrue(c.contains(carol));
+    }
+
+    @Test
+    public void removeAndUpdate() {
+        index.remove(alice);
+        assertEquals(Selector.tag("locale", "fr").select(index).size(), 1);
+
+        when(bob.getTags()).thenReturn(tags("room", "kitchen"));
+        index.update(bob);
+        assertTrue(Selector.tag("room", "lobby").select(index).isEmpty());
+        assertEquals(Selector.tag("room", "kitchen").select(index).size(), 2);
+
+        // Not added, so not indexed.
+        index.update(alice);
+        assertEquals(Selector.tag("locale", "fr").select(index).size(), 1);
+    }
+
+    private static AtmosphereResource<?, ?> resource(String... tags) {
+        AtmosphereResource<?, ?> r = mock(AtmosphereResource.class);
+        when(r.getTags()).thenReturn(tags(tags));
+        return r;
+    }
+
+    private static Map<String, Set<String>> tags(String... tags) {
+        Map<String, Set<String>> m = new HashMap<String, Set<String>>();
+        for (int i = 0; i < tags.length; i += 2) {
+            Set<String> values = new HashSet<String>();
+            values.add(tags[i + 1]);
+            m.put(tags[i], values);
+        }
+        return m;
+    }
+}
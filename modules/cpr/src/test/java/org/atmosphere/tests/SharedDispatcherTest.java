@@ -0,0 +1,121 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.SharedDispatcher;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SharedDispatcherTest {
+
+    private SharedDispatcher dispatcher;
+
+    @BeforeMethod
+    public void setUp() {
+        dispatcher = new SharedDispatcher(4);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void strandPreserveOrdering() throws Exception {
+        final int strandCount = 64;
+        final int messageCount = 1000;
+        final CountDownLatch latch = new CountDownLatch(strandCount * messageCount);
+        final List<ConcurrentLinkedQueue<Integer>> queues = new ArrayList<ConcurrentLinkedQueue<Integer>>();
+        final List<List<Integer>> delivered = new ArrayList<List<Integer>>();
+        final List<SharedDispatcher.Strand> strands = new ArrayList<SharedDispatcher.Strand>();
+        final AtomicInteger violations = new AtomicInteger();
+
+        for (int i = 0; i < strandCount; i++) {
+            final ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<Integer>();
+            final List<Integer> received = new ArrayList<Integer>();
+            queues.add(queue);
+            delivered.add(received);
+            strands.add(dispatcher.newStrand("broadcaster-" + i, new Runnable() {
+                private final AtomicInteger running = new AtomicInteger();
+
+                public void run() {
+                    if (running.incrementAndGet() != 1) {
+                        violations.incrementAndGet();
+                    }
+                    Integer m;
+                    while ((m = queue.poll()) != null) {
+                        received.add(m);
+                        latch.countDown();
+                    }
+                    running.decrementAndGet();
+                }
+            }));
+        }
+
+        for (int m = 0; m < messageCount; m++) {
+            for (int i = 0; i < strandCount; i++) {
+                queues.get(i).offer(m);
+                strands.get(i).signal();
+            }
+        }
+
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(violations.get(), 0);
+        for (List<Integer> received : delivered) {
+            assertEquals(received.size(), messageCount);
+            for (int m = 0; m < messageCount; m++) {
+                assertEquals(received.get(m).intValue(), m);
+            }
+        }
+    }
+
+    @Test
+    public void writeThreadsAreBounded() throws Exception {
+        SharedDispatcher bounded = new SharedDispatcher(1, 2);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(10);
+            final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+            for (int i = 0; i < 10; i++) {
+                bounded.getAsyncWriteService().execute(new Runnable() {
+                    public void run() {
+                        threads.add(Thread.currentThread());
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            assertEquals(bounded.getWriteThreadCount(), 2);
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(threads.size(), 2);
+        } finally {
+            bounded.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdown() {
+        assertFalse(dispatcher.isShutdown());
+        dispatcher.shutdown();
+        assertTrue(dispatcher.isShutdown());
+        assertTrue(dispatcher.getAsyncWriteService().isShutdown());
+        assertTrue(dispatcher.getScheduledExecutorService().isShutdown());
+    }
+}
@@ -0,0 +1,147 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.websocket.WebSocketHttpServletResponse;
+import org.atmosphere.websocket.WebSocketSupport;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class WebSocketHttpServletResponseTest {
+
+    @Test
+    public void oneFramePerFlush() throws IOException {
+        RecordingWebSocketSupport ws = new RecordingWebSocketSupport();
+        WebSocketHttpServletResponse<RecordingWebSocketSupport> response =
+                new WebSocketHttpServletResponse<RecordingWebSocketSupport>(ws);
+
+        PrintWriter writer = response.getWriter();
+        assertSame(response.getWriter(), writer);
+        writer.write("Hello");
+        writer.write(' ');
+        writer.write("a World!", 2, 5);
+        writer.print('!');
+        assertTrue(ws.frames.isEmpty());
+
+        writer.flush();
+        assertEquals(ws.frames.size(), 1);
+        assertEquals(ws.frames.get(0), "Hello World!");
+
+        writer.flush();
+        assertEquals(ws.frames.size(), 1);
+        assertTrue(response.isCommitted());
+    }
+
+    @Test
+    public void writerAndStreamShareTheFrame() throws IOException {
+        RecordingWebSocketSupport ws = new RecordingWebSocketSupport();
+        WebSocketHttpServletResponse<RecordingWebSocketSupport> response =
+                new WebSocketHttpServletResponse<RecordingWebSocketSupport>(ws);
+
+        assertSame(response.getOutputStream(), response.getOutputStream());
+        response.getOutputStream().write('a');
+        response.getOutputStream().write("bc".getBytes("UTF-8"));
+        response.getWriter().write("de");
+        response.flushBuffer();
+
+        response.getWriter().write("ignored");
+        response.resetBuffer();
+        response.getOutputStream().write("f".getBytes("UTF-8"));
+        response.getOutputStream().flush();
+
+        assertEquals(ws.frames.size(), 2);
+        assertEquals(ws.frames.get(0), "abcde");
+        assertEquals(ws.frames.get(1), "f");
+    }
+
+    @Test
+    public void encodeLargeAndNonAsciiMessages() throws IOException {
+        RecordingWebSocketSupport ws = new RecordingWebSocketSupport();
+        WebSocketHttpServletResponse<RecordingWebSocketSupport> response =
+                new WebSocketHttpServletResponse<RecordingWebSocketSupport>(ws);
+
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            b.append("\u00E9t\u00E9 \u6F22\uD83D\uDE00 ");
+        }
+        String message = b.toString();
+
+        response.getWriter().write(message);
+        response.getWriter().flush();
+        response.getWriter().write("\u00E9");
+        response.getWriter().flush();
+
+        assertEquals(ws.frames.size(), 2);
+        assertEquals(ws.frames.get(0), message);
+        assertEquals(ws.frames.get(1), "\u00E9");
+    }
+
+    @Test
+    public void characterEncoding() throws IOException {
+        RecordingWebSocketSupport ws = new RecordingWebSocketSupport();
+        WebSocketHttpServletResponse<RecordingWebSocketSupport> response =
+                new WebSocketHttpServletResponse<RecordingWebSocketSupport>(ws);
+
+        response.setCharacterEncoding("ISO-8859-1");
+        assertEquals(response.getCharacterEncoding(), "ISO-8859-1");
+        response.setCharacterEncoding("not-a-charset");
+        assertEquals(response.getCharacterEncoding(), "ISO-8859-1");
+
+        response.getWriter().write("\u00E9");
+        response.getWriter().flush();
+        assertEquals(ws.bytes.get(0).length, 1);
+    }
+
+    @Test
+    public void binaryFrame() throws IOException {
+        RecordingWebSocketSupport ws = new RecordingWebSocketSupport();
+        WebSocketHttpServletResponse<RecordingWebSocketSupport> response =
+                new WebSocketHttpServletResponse<RecordingWebSocketSupport>(ws);
+
+        assertEquals(response.getFrame(), WebSocketSupport.TEXT_FRAME);
+        response.setFrame(WebSocketSupport.BINARY_FRAME);
+        response.getOutputStream().write(new byte[]{(byte) 0xFF, 0, (byte) 0x80});
+        response.flushBuffer();
+
+        assertEquals(ws.types.get(0).byteValue(), WebSocketSupport.BINARY_FRAME);
+        assertEquals(ws.bytes.get(0), new byte[]{(byte) 0xFF, 0, (byte) 0x80});
+    }
+
+    static final class RecordingWebSocketSupport implements WebSocketSupport {
+
+        final List<String> frames = new ArrayList<String>();
+        final List<byte[]> bytes = new ArrayList<byte[]>();
+        final List<Byte> types = new ArrayList<Byte>();
+
+        public void writeError(int errorCode, String message) throws IOException {
+        }
+
+        public void redirect(String location) throws IOException {
+        }
+
+        public void write(byte frame, String data) throws IOException {
+            frames.add(data);
+        }
+
+        public void write(byte frame, byte[] data) throws IOException {
+            write(frame, data, 0, data.length);
+        }
+
+        public void write(byte frame, byte[] data, int offset, int length) throws IOException {
+            byte[] b = new byte[length];
+            System.arraycopy(data, offset, b, 0, length);
+            bytes.add(b);
+            types.add(frame);
+            frames.add(new String(b, "UTF-8"));
+        }
+
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.atmosphere.tests;
+
+import org.atmosphere.cpr.AtmosphereServlet;
+import org.atmosphere.cpr.WebSocketProcessor;
+import org.atmosphere.websocket.WebSocketSupport;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class WebSocketProcessorTest {
+
+    private AtmosphereServlet servlet;
+    private ClosingWebSocketSupport webSocketSupport;
+
+    @BeforeMethod
+    public void setUp() {
+        servlet = new AtmosphereServlet();
+        webSocketSupport = new ClosingWebSocketSupport();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        servlet.destroy();
+    }
+
+    @Test
+    public void orderedOffTheIOThread() throws InterruptedException {
+        final int messages = 1000;
+        final CountDownLatch delivered = new CountDownLatch(messages);
+        final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        WebSocketProcessor processor = new WebSocketProcessor(servlet, webSocketSupport) {
+            @Override
+            protected void deliver(Object message) {
+                received.add(message);
+                threads.add(Thread.currentThread().getName());
+                delivered.countDown();
+            }
+        };
+
+        for (int i = 0; i < messages; i++) {
+            processor.broadcast(WebSocketSupport.TEXT_FRAME, String.valueOf(i));
+        }
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < messages; i++) {
+            assertEquals(received.get(i), String.valueOf(i));
+            assertFalse(threads.get(i).equals(Thread.currentThread().getName()));
+        }
+        assertEquals(webSocketSupport.closed.get(), 0);
+    }
+
+    @Test
+    public void closeWhenTooManyMessagesAreInFlight() throws InterruptedException {
+        servlet.setWebSocketMaxInFlight(4);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger delivered = new AtomicInteger();
+
+        WebSocketProcessor processor = new WebSocketProcessor(servlet, webSocketSupport) {
+            @Override
+            protected void deliver(Object message) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                delivered.incrementAndGet();
+            }
+        };
+
+        processor.broadcast(WebSocketSupport.TEXT_FRAME, "0");
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i <= 4; i++) {
+            processor.broadcast(WebSocketSupport.TEXT_FRAME, String.valueOf(i));
+        }
+        assertEquals(processor.getInFlight(), 4);
+        assertEquals(webSocketSupport.closed.get(), 0);
+
+        processor.broadcast(WebSocketSupport.TEXT_FRAME, "5");
+        processor.broadcast(WebSocketSupport.TEXT_FRAME, "6");
+        assertEquals(webSocketSupport.closed.get(), 1);
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (delivered.get() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(delivered.get(), 5);
+        assertEquals(processor.getInFlight(), 0);
+    }
+
+    private static final class ClosingWebSocketSupport implements WebSocketSupport {
+
+        final AtomicInteger closed = new AtomicInteger();
+
+        public void writeError(int errorCode, String message) throws IOException {
+        }
+
+        public void redirect(String location) throws IOException {
+        }
+
+        public void write(byte frame, String data) throws IOException {
+        }
+
+        public void write(byte frame, byte[] data) throws IOException {
+        }
+
+        public void write(byte frame, byte[] data, int offset, int length) throws IOException {
+        }
+
+        public void close() throws IOException {
+            closed.incrementAndGet();
+        }
+    }
+}
@@ -43,6 +43,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
@@ -57,6 +58,7 @@ import org.atmosphere.cpr.AtmosphereResource;
 import org.atmosphere.cpr.AtmosphereResourceEvent;
 import org.atmosphere.cpr.AtmosphereResourceEventListener;
 import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.HashedWheelTimer;
 import org.atmosphere.cpr.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -203,8 +205,7 @@ public class GwtAtmosphereResourceImpl implements GwtAtmosphereResource {
     }
     
 	ScheduledFuture<?> scheduleHeartbeat() {
-        return getBroadcaster().getBroadcasterConfig().getScheduledExecutorService()
-                .schedule(heartBeatTask, heartBeatInterval, TimeUnit.MILLISECONDS);
+        return HashedWheelTimer.getDefault().schedule(heartBeatTimeout, heartBeatInterval, TimeUnit.MILLISECONDS);
 	}
 
     void terminate(boolean serverInitiated) {
@@ -253,7 +254,7 @@ public class GwtAtmosphereResourceImpl implements GwtAtmosphereResource {
     private AtmosphereResource<HttpServletRequest, HttpServletResponse> atmResource;
     private final int heartBeatInterval;
     private Heartbeat heartBeatMessage = new Heartbeat();
-    private AtmosphereGwtHandler atmosphereHandler;
+    private volatile AtmosphereGwtHandler atmosphereHandler;
     private boolean suspended = false;
     private Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -266,6 +267,23 @@ public class GwtAtmosphereResourceImpl implements GwtAtmosphereResource {
         }
     };
 
+    // The broadcast may block (full message queue, clustered Broadcaster), so the timer Thread, shared by the
+    // whole JVM, only hands the heartbeat to the executor of the handler.
+    private Runnable heartBeatTimeout = new Runnable() {
+        @Override
+        public void run() {
+            AtmosphereGwtHandler handler = atmosphereHandler;
+            if (handler == null) {
+                return;
+            }
+            try {
+                handler.execute(heartBeatTask);
+            } catch (RejectedExecutionException e) {
+                logger.debug("heartbeat rejected, the handler is shutting down", e);
+            }
+        }
+    };
+
     private final Serializer serializer = new Serializer() {
         @Override
         public void write(OutputStream out, Object o) throws IOException {
@@ -1,5 +1,6 @@
 package org.atmosphere.jersey.util;
 
+import com.sun.jersey.core.header.OutBoundHeaders;
 import com.sun.jersey.spi.container.ContainerResponse;
 import org.atmosphere.cpr.AtmosphereEventLifecycle;
 import org.atmosphere.cpr.AtmosphereResource;
@@ -7,15 +8,22 @@ import org.atmosphere.cpr.AtmosphereResourceEvent;
 import org.atmosphere.cpr.AtmosphereResourceEventImpl;
 import org.atmosphere.cpr.AtmosphereResourceImpl;
 import org.atmosphere.cpr.AtmosphereServlet;
+import org.atmosphere.cpr.PayloadCache;
 import org.atmosphere.jersey.AtmosphereFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -28,6 +36,10 @@ public final class JerseyBroadcasterUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(JerseyBroadcasterUtil.class);
 
+    private final static Annotation[] EMPTY_ANNOTATIONS = new Annotation[0];
+    // Cached in place of a message whose MessageBodyWriter sets headers.
+    private final static byte[] NOT_SHARED = new byte[0];
+
     public final static void broadcast(final AtmosphereResource<?,?> r, final AtmosphereResourceEvent e) {
         HttpServletRequest res = (HttpServletRequest) r.getRequest();
 
@@ -53,7 +65,10 @@ public final class JerseyBroadcasterUtil {
                     cr.getOutputStream().flush();
                 }
             } else {
-                cr.setResponse(Response.ok(e.getMessage()).build());
+                // Run the MessageBodyWriter once and share the result with the other resources.
+                PayloadCache cache = PayloadCache.of(e);
+                byte[] bytes = cache != null && m != null ? encode(cr, cache, m) : null;
+                cr.setResponse(Response.ok(bytes != null ? bytes : e.getMessage()).build());
                 cr.getHttpHeaders().add(HttpHeaders.CONTENT_TYPE, m);
                 cr.write();
             }
@@ -75,6 +90,42 @@ public final class JerseyBroadcasterUtil {
         }
     }
 
+    /**
+     * Serialize the message using the {@link MessageBodyWriter} associated with the {@link MediaType} and the
+     * annotations of the resource method, like {@link ContainerResponse#write()} does, and store the result inside
+     * the {@link PayloadCache}. The result is not shared if the {@link MessageBodyWriter} sets headers, since every
+     * response must get them.
+     *
+     * @return the serialized message, or null if it can't be shared.
+     */
+    private static byte[] encode(ContainerResponse cr, PayloadCache cache, MediaType m) throws IOException {
+        Annotation[] annotations = cr.getAnnotations() != null ? cr.getAnnotations() : EMPTY_ANNOTATIONS;
+        // Annotations are compared by value, so resources suspended by the same method share the result.
+        List<Object> key = Arrays.<Object>asList(m, Arrays.asList(annotations));
+        byte[] bytes = cache.get(key);
+        if (bytes != null) {
+            return bytes == NOT_SHARED ? null : bytes;
+        }
+
+        Object entity = cache.message();
+        Type type = entity.getClass();
+        if (entity instanceof GenericEntity) {
+            type = ((GenericEntity) entity).getType();
+            entity = ((GenericEntity) entity).getEntity();
+        }
+        Class c = entity.getClass();
+        MessageBodyWriter w = cr.getMessageBodyWorkers().getMessageBodyWriter(c, type, annotations, m);
+        if (w == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutBoundHeaders headers = new OutBoundHeaders();
+        w.writeTo(entity, c, type, annotations, m, headers, out);
+        bytes = cache.put(key, headers.isEmpty() ? out.toByteArray() : NOT_SHARED);
+        return bytes == NOT_SHARED ? null : bytes;
+    }
+
     final static void onException(Throwable t, AtmosphereResource<?,?> r) {
         try {
             logger.debug("onException()", t);
@@ -45,10 +45,15 @@ import com.ning.http.client.HttpResponseStatus;
 import com.ning.http.client.Response;
 import org.atmosphere.cache.HeaderBroadcasterCache;
 import org.atmosphere.cpr.AtmosphereResourceImpl;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterFactory;
+import org.atmosphere.cpr.DefaultBroadcaster;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.Test;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -387,6 +392,66 @@ public abstract class BasePubSubTest extends BaseTest {
         c.close();
     }
 
+    @Test(timeOut = 25000)
+    public void testSharedPayload() {
+        logger.info("{}: running test: testSharedPayload", getClass().getSimpleName());
+
+        final int clients = 3;
+        final CountDownLatch latch = new CountDownLatch(clients);
+        final List<Response> responses = new CopyOnWriteArrayList<Response>();
+        long hits = payloadCacheHits();
+        AsyncHttpClient c = new AsyncHttpClient();
+        try {
+            for (int i = 0; i < clients; i++) {
+                c.prepareGet(urlTarget + "/subscribeAndResume").execute(new AsyncCompletionHandler<Response>() {
+
+                    @Override
+                    public Response onCompleted(Response r) throws Exception {
+                        try {
+                            responses.add(r);
+                            return r;
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+
+            // Let Atmosphere suspend the connections.
+            Thread.sleep(2500);
+            c.preparePost(urlTarget).addParameter("message", "shared").execute().get();
+
+            try {
+                latch.await(20, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                fail(e.getMessage());
+            }
+
+            // The MessageBodyWriter ran once, and all the clients got the same bytes.
+            assertEquals(responses.size(), clients);
+            for (Response r : responses) {
+                assertEquals(r.getStatusCode(), 200);
+                assertEquals(r.getResponseBody(), "shared\n");
+            }
+            assertTrue(payloadCacheHits() - hits >= clients - 1);
+        } catch (Exception e) {
+            logger.error("test failed", e);
+            fail(e.getMessage());
+        }
+
+        c.close();
+    }
+
+    private static long payloadCacheHits() {
+        long hits = 0;
+        for (Broadcaster b : BroadcasterFactory.getDefault().lookupAll()) {
+            if (b instanceof DefaultBroadcaster) {
+                hits += ((DefaultBroadcaster) b).getPayloadCacheStats().getHits();
+            }
+        }
+        return hits;
+    }
+
     @Test(enabled = false)
     public void testAggregateFilter() {
         logger.info("{}: running test: testAggregateFilter", getClass().getSimpleName());
@@ -19,8 +19,11 @@ import org.cometd.server.ClientImpl;
 import org.eclipse.jetty.util.thread.Timeout;
 
 import javax.servlet.ServletContext;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /* ------------------------------------------------------------ */
 
@@ -31,10 +34,12 @@ import java.util.TimerTask;
  */
 public class AtmosphereContinuationBayeux extends AbstractBayeux {
 
-    private transient Timer _tick;
+    private static final AtomicInteger __id = new AtomicInteger();
+
+    // The Bayeux expiry callbacks may be slow, so they don't run on the HashedWheelTimer shared by the whole JVM.
+    private transient ScheduledExecutorService _tick;
     private transient Timeout _timeout;
     private long _now;
-    private int __id = 0;
 
     /* ------------------------------------------------------------ */
     /*
@@ -63,16 +68,21 @@ public class AtmosphereContinuationBayeux extends AbstractBayeux {
     protected void initialize(ServletContext context) {
         super.initialize(context);
 
-        _tick = new Timer("AtmosphereContinuationBayeux-" + __id++, true);
         _timeout = new Timeout();
 
-        _tick.schedule(new TimerTask() {
-            @Override
+        _tick = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AtmosphereContinuationBayeux-" + __id.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        _tick.scheduleAtFixedRate(new Runnable() {
             public void run() {
                 _now = System.currentTimeMillis();
                 _timeout.tick(_now);
             }
-        }, 100L, 100L);
+        }, 100L, 100L, TimeUnit.MILLISECONDS);
     }
 
     /* ------------------------------------------------------------ */
@@ -90,7 +100,9 @@ public class AtmosphereContinuationBayeux extends AbstractBayeux {
      */
 
     public void destroy() {
-        _tick.cancel();
+        if (_tick != null) {
+            _tick.shutdown();
+        }
     }
 
     /* ------------------------------------------------------------ */